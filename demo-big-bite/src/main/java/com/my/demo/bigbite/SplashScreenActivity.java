@@ -25,6 +25,8 @@ import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 
 import com.my.demo.bigbite.start.StartActivity;
+import com.my.jni.dlib.DLibLandmarks68Detector;
+import com.my.jni.dlib.DLibLibraryLoader;
 
 import java.util.concurrent.TimeUnit;
 
@@ -41,6 +43,12 @@ public class SplashScreenActivity extends AppCompatActivity {
 //        Fabric.with(this, new Crashlytics());
 
         setContentView(R.layout.activity_splash_screen);
+
+        // Load the native libraries in the background while the splash screen
+        // is shown, so the detector doesn't load them on the main thread.
+        DLibLibraryLoader.loadAsync();
+        // Free the dlib models when the app goes to the background.
+        DLibLandmarks68Detector.registerMemoryTrimCallbacks(this);
     }
 
     @Override
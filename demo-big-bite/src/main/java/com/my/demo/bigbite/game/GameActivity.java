@@ -24,6 +24,7 @@ import android.Manifest;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.os.Bundle;
 import android.support.constraint.ConstraintLayout;
@@ -53,6 +54,7 @@ import com.my.reactive.uiModel.UiModel;
 import com.my.reactive.uiEvent.AnimUiEvent;
 import com.my.reactive.result.MsgProgressResult;
 import com.my.demo.bigbite.game.data.ICameraMetadata;
+import com.my.demo.bigbite.game.data.SpriteCache;
 import com.my.demo.bigbite.game.detector.DLibLandmarksDetector;
 import com.my.demo.bigbite.game.uiModel.BiteUiModel;
 import com.my.demo.bigbite.game.event.action.DetectBiteAction;
@@ -60,7 +62,11 @@ import com.my.demo.bigbite.game.event.result.DetectBiteResult;
 import com.my.demo.bigbite.game.event.result.FileResult;
 import com.my.demo.bigbite.game.event.uiEvent.FrameUiEvent;
 import com.my.demo.bigbite.game.reactive.CameraObservable;
+import com.my.demo.bigbite.game.reactive.ConflateLatestTransformer;
 import com.my.demo.bigbite.game.reactive.LottieAnimObservable;
+import com.my.demo.bigbite.game.reactive.PreviewQualityGovernor;
+import com.my.demo.bigbite.game.replay.LandmarksRecordingWriter;
+import com.my.demo.bigbite.game.replay.RecordingDetector;
 import com.my.demo.bigbite.game.view.CameraSourcePreview;
 import com.my.demo.bigbite.game.view.FaceLandmarksOverlayView;
 import com.my.demo.bigbite.protocol.Common;
@@ -68,12 +74,15 @@ import com.my.demo.bigbite.start.data.ChallengeItem;
 import com.my.demo.bigbite.util.DLibModelHelper;
 import com.my.jni.dlib.DLibLandmarks68Detector;
 import com.my.jni.dlib.IDLibFaceDetector;
+import com.my.jni.dlib.IModelLoadProgressListener;
 import com.my.jni.dlib.data.DLibFace;
 import com.my.reactive.result.TickResult;
 import com.tbruyelle.rxpermissions2.RxPermissions;
 
 import java.io.File;
-import java.util.concurrent.Callable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -81,6 +90,8 @@ import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.Unbinder;
 import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
 import io.reactivex.ObservableSource;
 import io.reactivex.ObservableTransformer;
 import io.reactivex.Scheduler;
@@ -100,6 +111,27 @@ public class GameActivity
 
     private static final int PREVIEW_WIDTH = 320;
     private static final int PREVIEW_HEIGHT = 240;
+    // The preview qualities picked by the governor, from the cheapest to the
+    // most costly. They're all in the aspect ratio of the preview above, and
+    // every step changes the size, since the governor measures the detection
+    // of a frame, which a lower frame rate alone doesn't make faster.
+    private static final List<PreviewQualityGovernor.Quality> PREVIEW_QUALITIES = Arrays.asList(
+        new PreviewQualityGovernor.Quality(PREVIEW_WIDTH, PREVIEW_HEIGHT, 24f),
+        new PreviewQualityGovernor.Quality(480, 360, 24f),
+        new PreviewQualityGovernor.Quality(640, 480, 30f));
+    private static final int INITIAL_PREVIEW_QUALITY = 0;
+    // The detection of a frame should take no more than a frame at 24 FPS.
+    private static final float TARGET_DETECTION_LATENCY_MS = 40f;
+    // Run the face detection at most every N frames and track the faces in
+    // between.
+    private static final int FACE_DETECTION_INTERVAL = 6;
+    // Record the faces of every game to the external files folder for
+    // replaying them by BiteReplayBenchmark.
+    private static final boolean IS_RECORDING_LANDMARKS = false;
+    // Detect the landmarks of a frame on a worker thread while the faces of
+    // the next frame are detected, at the cost of a frame of latency, see
+    // DLibLandmarksDetector.
+    private static final boolean IS_PIPELINED_DETECTION = false;
 
     // View.
     @BindView(R.id.main)
@@ -126,9 +158,14 @@ public class GameActivity
 
     // Image Loader.
     RequestManager mGlide;
+    // The food sprites decoded ahead.
+    SpriteCache mSpriteCache;
 
     // DLibFace Detector.
     IDLibFaceDetector mLandmarksDetector;
+    // Only the latest camera frame is detected if the detection is slower
+    // than the camera.
+    ConflateLatestTransformer<FrameUiEvent<DLibFace>> mFrameConflater;
 
     // Data.
     CompositeDisposable mDisposables;
@@ -149,9 +186,12 @@ public class GameActivity
 
         // Init the detectors.
         mLandmarksDetector = new DLibLandmarks68Detector();
+        mLandmarksDetector.setTrackingInterval(FACE_DETECTION_INTERVAL);
+        mFrameConflater = new ConflateLatestTransformer<>(Schedulers.computation());
 
         // Init the image loader.
         mGlide = Glide.with(this);
+        mSpriteCache = new SpriteCache(mGlide, SpriteCache.getDefaultMaxBytes());
 
         // Init rx-permissions.
         mRxPermissions = new RxPermissions(this);
@@ -171,6 +211,15 @@ public class GameActivity
         // TODO: Check if the Google Play Service is present.
         mDisposables = new CompositeDisposable();
 
+        // Decode the food sprites before the first bite. The size of the
+        // food view is fixed in the layout.
+        mDisposables.add(
+            mSpriteCache.preload(mChallengeItem.getSpriteUrls(),
+                                 mFoodView.getLayoutParams().width,
+                                 mFoodView.getLayoutParams().height)
+                        .subscribeOn(Schedulers.io())
+                        .subscribe());
+
 //        // TODO: Can subject be canceled?
 //        // Define the preparation stream including granting permission and
 //        // initializing the DLib model.
@@ -408,6 +457,17 @@ public class GameActivity
         mCameraView.release();
 
         mDisposables.clear();
+
+        Log.d("camera", String.format("Detected %d frames, dropped %d stale ones",
+                                      mFrameConflater.getDeliveredCount(),
+                                      mFrameConflater.getDroppedCount()));
+        mFrameConflater.resetCounts();
+
+        Log.d("sprite", String.format("Sprite cache hits=%d, misses=%d, evictions=%d",
+                                      mSpriteCache.getHitCount(),
+                                      mSpriteCache.getMissCount(),
+                                      mSpriteCache.getEvictionCount()));
+        mSpriteCache.resetCounts();
     }
 
     @Override
@@ -468,6 +528,10 @@ public class GameActivity
     protected void onDestroy() {
         super.onDestroy();
 
+        // Take the sprite off the screen before giving the sprites back.
+        mFoodView.setImageDrawable(null);
+        mSpriteCache.clear();
+
         // View binding.
         mUnbinder.unbind();
 
@@ -514,8 +578,16 @@ public class GameActivity
                     mBiteCountView.getText().toString())) {
                     final int size = mChallengeItem.getSpriteUrls().size();
                     if (size > 0) {
-                        mGlide.load(mChallengeItem.getSpriteUrls().get(model.biteCount % size))
-                              .into(mFoodView);
+                        final String url = mChallengeItem.getSpriteUrls().get(model.biteCount % size);
+                        final Bitmap sprite = mSpriteCache.get(url);
+                        if (sprite != null) {
+                            // Cancel the loading of a missed one.
+                            mGlide.clear(mFoodView);
+                            mFoodView.setImageBitmap(sprite);
+                        } else {
+                            mGlide.load(url)
+                                  .into(mFoodView);
+                        }
                     }
 
                     mBiteCountView.setText(String.valueOf(model.biteCount));
@@ -618,9 +690,10 @@ public class GameActivity
                                 return Observable.merge(
                                     Observable.just(result),
                                     Observable
-                                        .fromCallable(new Callable<RxResult>() {
+                                        .create(new ObservableOnSubscribe<RxResult>() {
                                             @Override
-                                            public RxResult call() throws Exception {
+                                            public void subscribe(final ObservableEmitter<RxResult> emitter)
+                                                throws Exception {
                                                 if (file == null || !file.exists()) {
                                                     throw new RuntimeException(
                                                         "The face68 model is invalid.");
@@ -630,11 +703,25 @@ public class GameActivity
                                                     mLandmarksDetector.prepareFaceDetector();
                                                 }
                                                 if (!mLandmarksDetector.isFaceLandmarksDetectorReady()) {
-                                                    mLandmarksDetector.prepareFaceLandmarksDetector(
-                                                        file.getAbsolutePath());
+                                                    // The model is cached by the native library
+                                                    // once loaded, so it's only read from the
+                                                    // file the first time.
+                                                    final String path = file.getAbsolutePath();
+                                                    DLibLandmarks68Detector.preloadFaceLandmarksModel(
+                                                        path, new IModelLoadProgressListener() {
+                                                            @Override
+                                                            public void onProgress(long loadedBytes,
+                                                                                   long totalBytes) {
+                                                                emitter.onNext(MsgProgressResult.inProgress(
+                                                                    "Loading detector...",
+                                                                    (int) (100L * loadedBytes / Math.max(1L, totalBytes))));
+                                                            }
+                                                        });
+                                                    mLandmarksDetector.prepareFaceLandmarksDetector(path);
                                                 }
 
-                                                return MsgProgressResult.succeed("Loading detector... done");
+                                                emitter.onNext(MsgProgressResult.succeed("Loading detector... done"));
+                                                emitter.onComplete();
                                             }
                                         })
                                         .subscribeOn(worker)
@@ -642,9 +729,13 @@ public class GameActivity
                                             @Override
                                             public ObservableSource<RxResult> apply(RxResult result)
                                                 throws Exception {
-                                                return Observable.merge(
-                                                    Observable.just(result),
-                                                    Observable.just(LoadDetectorResult.succeed()));
+                                                if (result.isSuccessful) {
+                                                    return Observable.merge(
+                                                        Observable.just(result),
+                                                        Observable.just(LoadDetectorResult.succeed()));
+                                                } else {
+                                                    return Observable.just(result);
+                                                }
                                             }
                                         })
                                         .startWith(MsgProgressResult.inProgress(
@@ -697,22 +788,47 @@ public class GameActivity
     }
 
     private Observable<RxResult> startCameraDetection(final AtomicBoolean canDetect) {
-        // Set the preview config.
-        if (isPortraitMode()) {
-            mDebugOverlayView.setCameraPreviewSize(
-                PREVIEW_HEIGHT, PREVIEW_WIDTH);
-        } else {
-            mDebugOverlayView.setCameraPreviewSize(
-                PREVIEW_WIDTH, PREVIEW_HEIGHT);
-        }
+        // Adjust the preview size and frame rate to the detection latency.
+        final PreviewQualityGovernor governor = new PreviewQualityGovernor(
+            PREVIEW_QUALITIES, INITIAL_PREVIEW_QUALITY, TARGET_DETECTION_LATENCY_MS);
+
+        return governor
+            .getDecisions()
+            // The camera is (re)started on the main thread.
+            .observeOn(AndroidSchedulers.mainThread())
+            .switchMap(new Function<PreviewQualityGovernor.Decision, ObservableSource<FrameUiEvent<DLibFace>>>() {
+                @Override
+                public ObservableSource<FrameUiEvent<DLibFace>> apply(PreviewQualityGovernor.Decision decision)
+                    throws Exception {
+                    Log.d("camera", decision.toString());
+                    final PreviewQualityGovernor.Quality quality = decision.quality;
+
+                    // Set the preview config.
+                    if (isPortraitMode()) {
+                        mDebugOverlayView.setCameraPreviewSize(
+                            quality.height, quality.width);
+                    } else {
+                        mDebugOverlayView.setCameraPreviewSize(
+                            quality.width, quality.height);
+                    }
 
-        // Create camera observable.
-        return CameraObservable
-            .create(
-                GameActivity.this,
-                mCameraView,
-                PREVIEW_WIDTH, PREVIEW_HEIGHT,
-                getFaceDetector())
+                    // The faces tracked in the frames of the previous camera
+                    // are in its preview size. The previous camera is already
+                    // released by the switchMap, which waits for its last
+                    // detection.
+                    mLandmarksDetector.resetTracking();
+
+                    // Create camera observable, which releases the previous
+                    // camera.
+                    return CameraObservable
+                        .create(
+                            GameActivity.this,
+                            mCameraView,
+                            quality.width, quality.height, quality.fps,
+                            getFaceDetector(),
+                            governor);
+                }
+            })
             // Ready to detect if it is allowed to.
             .filter(new Predicate<FrameUiEvent<DLibFace>>() {
                 @Override
@@ -721,8 +837,8 @@ public class GameActivity
                     return canDetect.get();
                 }
             })
-            // Detect the face and landmarks.
-            .observeOn(Schedulers.computation())
+            // Detect the face and landmarks, dropping the stale frames.
+            .compose(mFrameConflater)
             .flatMap(new Function<FrameUiEvent<DLibFace>, ObservableSource<RxResult>>() {
                 @Override
                 public ObservableSource<RxResult> apply(FrameUiEvent<DLibFace> event)
@@ -785,8 +901,21 @@ public class GameActivity
         // Encapsulate the face detector with the landmarks detector.
         // The detector would directly draw the result onto the
         // given overlay view.
-        return new DLibLandmarksDetector(
-            this, faceDetector, mLandmarksDetector);
+        final Detector<DLibFace> detector = new DLibLandmarksDetector(
+            this, faceDetector, mLandmarksDetector, IS_PIPELINED_DETECTION);
+
+        if (IS_RECORDING_LANDMARKS) {
+            final File file = new File(getExternalFilesDir(null),
+                                       "landmarks-" + System.currentTimeMillis() + ".bblr");
+            try {
+                return new RecordingDetector(
+                    detector, new LandmarksRecordingWriter(file, false));
+            } catch (IOException err) {
+                Log.e("replay", "Failed to record to " + file, err);
+            }
+        }
+
+        return detector;
     }
 
     private Function<FrameUiEvent<DLibFace>, DetectBiteAction> toDetectBiteAction() {
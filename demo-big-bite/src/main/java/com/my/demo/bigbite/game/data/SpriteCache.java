@@ -0,0 +1,244 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.data;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+
+/**
+ * The sprites of the food decoded ahead at the size of the food view, so
+ * showing the next sprite of a bite is only setting a bitmap instead of
+ * decoding it while the camera pipeline is busy.
+ * <br/>
+ * The bitmaps are held by their Glide requests and given back to Glide once
+ * they're evicted, where the cache is bounded by the bytes of the bitmaps.
+ * The sprite given by the latest {@link #get(String)} is taken as being on
+ * screen, so it's given back only after another sprite is got, or a miss,
+ * which the caller then shows instead.
+ * <br/>
+ * Usage:
+ * <pre>
+ * final SpriteCache cache = new SpriteCache(glide, SpriteCache.getDefaultMaxBytes());
+ *
+ * // Decode them in the background.
+ * cache.preload(urls, width, height)
+ *      .subscribeOn(Schedulers.io())
+ *      .subscribe();
+ *
+ * // On the main thread, null if it's not ready yet.
+ * final Bitmap sprite = cache.get(url);
+ * </pre>
+ */
+public class SpriteCache {
+
+    private final RequestManager mGlide;
+    private final LruCache<String, Sprite> mCache;
+
+    private final Object mMutex = new Object();
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    // The sprite which could be on screen, and whether it's evicted while
+    // it's shown.
+    private Sprite mShownSprite;
+    private boolean mIsShownSpriteEvicted = false;
+
+    public SpriteCache(final RequestManager glide,
+                       final int maxBytes) {
+        mGlide = glide;
+        mCache = new LruCache<String, Sprite>(maxBytes) {
+            @Override
+            protected int sizeOf(String url,
+                                 Sprite sprite) {
+                return sprite.bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted,
+                                        String url,
+                                        Sprite oldSprite,
+                                        Sprite newSprite) {
+                releaseSprite(oldSprite);
+            }
+        };
+    }
+
+    /**
+     * An eighth of the app heap, which holds a few dozens of sprites at the
+     * size of the food view.
+     */
+    public static int getDefaultMaxBytes() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / 8,
+                              Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decode the sprites not in the cache yet, in the given order. It emits
+     * the url of every decoded sprite. A sprite failing to decode is skipped,
+     * which is then loaded on demand.
+     */
+    public Observable<String> preload(final List<String> urls,
+                                      final int width,
+                                      final int height) {
+        return Observable.create(new ObservableOnSubscribe<String>() {
+            @Override
+            public void subscribe(ObservableEmitter<String> emitter)
+                throws Exception {
+                for (String url : urls) {
+                    if (emitter.isDisposed()) return;
+                    if (mCache.get(url) != null) continue;
+
+                    final FutureTarget<Bitmap> target = mGlide
+                        .asBitmap()
+                        .load(url)
+                        .submit(width, height);
+                    try {
+                        mCache.put(url, new Sprite(target, target.get()));
+                        emitter.onNext(url);
+                    } catch (Exception err) {
+                        mGlide.clear(target);
+                        Log.w("sprite", String.format("Failed to decode %s", url), err);
+                    }
+                }
+
+                emitter.onComplete();
+            }
+        });
+    }
+
+    /**
+     * Get the sprite to show, which is then held until the next call. It must
+     * be called on the thread showing the sprites.
+     *
+     * @return The decoded sprite or null if it's not decoded yet.
+     */
+    public Bitmap get(String url) {
+        final Sprite sprite = mCache.get(url);
+
+        Sprite releasedSprite = null;
+        synchronized (mMutex) {
+            if (sprite != null) {
+                ++mHitCount;
+            } else {
+                ++mMissCount;
+            }
+
+            // The previous sprite is replaced on screen.
+            if (sprite != mShownSprite) {
+                if (mIsShownSpriteEvicted) {
+                    releasedSprite = mShownSprite;
+                }
+                mShownSprite = sprite;
+                mIsShownSpriteEvicted = false;
+            }
+        }
+        if (releasedSprite != null) {
+            mGlide.clear(releasedSprite.target);
+        }
+
+        return sprite != null ? sprite.bitmap : null;
+    }
+
+    public int getHitCount() {
+        synchronized (mMutex) {
+            return mHitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (mMutex) {
+            return mMissCount;
+        }
+    }
+
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    public void resetCounts() {
+        synchronized (mMutex) {
+            mHitCount = 0;
+            mMissCount = 0;
+        }
+    }
+
+    /**
+     * Give all the bitmaps back to Glide, including the one on screen, so the
+     * sprites mustn't be shown anymore.
+     */
+    public void clear() {
+        mCache.evictAll();
+
+        Sprite releasedSprite = null;
+        synchronized (mMutex) {
+            if (mIsShownSpriteEvicted) {
+                releasedSprite = mShownSprite;
+            }
+            mShownSprite = null;
+            mIsShownSpriteEvicted = false;
+        }
+        if (releasedSprite != null) {
+            mGlide.clear(releasedSprite.target);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    /**
+     * Give the bitmap back to Glide unless it's on screen, where it's given
+     * back once another sprite is shown.
+     */
+    private void releaseSprite(Sprite sprite) {
+        synchronized (mMutex) {
+            if (sprite == mShownSprite) {
+                mIsShownSpriteEvicted = true;
+                return;
+            }
+        }
+
+        mGlide.clear(sprite.target);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Clazz //////////////////////////////////////////////////////////////////
+
+    private static final class Sprite {
+
+        final FutureTarget<Bitmap> target;
+        final Bitmap bitmap;
+
+        Sprite(FutureTarget<Bitmap> target,
+               Bitmap bitmap) {
+            this.target = target;
+            this.bitmap = bitmap;
+        }
+    }
+}
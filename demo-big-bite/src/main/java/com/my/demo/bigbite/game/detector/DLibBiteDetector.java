@@ -23,12 +23,17 @@ package com.my.demo.bigbite.game.detector;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.my.core.protocol.ISystemClock;
 import com.my.demo.bigbite.game.data.IBiteDetector;
 import com.my.jni.dlib.data.DLibFace;
 
-import java.util.ArrayList;
-import java.util.List;
-
+/**
+ * Counts the bites from the opening degree of the inner lips, frame by frame.
+ * <br/>
+ * It runs on every landmarks frame, so the history of the mouth states is a
+ * fixed-capacity ring buffer of primitives and nothing is allocated once it's
+ * created. The logs are off by default, see {@link #setLoggingEnabled(boolean)}.
+ */
 public class DLibBiteDetector implements IBiteDetector {
 
     private static final double DEGREE_150 = 150;
@@ -73,34 +78,87 @@ public class DLibBiteDetector implements IBiteDetector {
     private static final double DEGREE_FOR_MOUTH_CLOSED = 18;
     private static final int MAX_RECORDS = 10;
     private static final int CHECK_LATEST_N_RECORDS = 4;
-    private final List<Record> mRecords = new ArrayList<>();
+
+    // The mouth states.
+    private static final int MOUTH_CLOSED = -1;
+    private static final int MOUTH_OPENED = 1;
+
+    // The ring buffer of the latest records, where mHead is the index of the
+    // next record.
+    private final double[] mDegrees = new double[MAX_RECORDS];
+    private final double[] mVelocities = new double[MAX_RECORDS];
+    private final long[] mTimestamps = new long[MAX_RECORDS];
+    private final int[] mStates = new int[MAX_RECORDS];
+    private int mHead = 0;
+    private int mCount = 0;
+
+    private volatile boolean mIsLoggingEnabled = false;
+
+    // The clock of the record timestamps.
+    private final ISystemClock mClock;
 
     // Bite count.
     private int mBiteCount = 0;
 
     private final Object mMutex = new Object();
 
+    public DLibBiteDetector() {
+        this(new ISystemClock() {
+            @Override
+            public long getCurrentTimeMillis() {
+                // The wall time since boot, not the CPU time of the thread,
+                // which barely moves while the thread waits for a frame.
+                return SystemClock.elapsedRealtime();
+            }
+
+            @Override
+            public long getCurrentTimeNanos() {
+                return SystemClock.elapsedRealtimeNanos();
+            }
+        });
+    }
+
+    /**
+     * @param clock The clock of the frames, e.g. the one of a replay, see
+     *              {@link com.my.demo.bigbite.game.replay.LandmarksReplayObservable#getClock()}.
+     */
+    public DLibBiteDetector(final ISystemClock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Log the mouth state of every frame, which is costly and off by default.
+     */
+    public void setLoggingEnabled(boolean enabled) {
+        mIsLoggingEnabled = enabled;
+    }
+
     @Override
     public boolean detect(DLibFace face) {
         if (face == null ||
-            face.getInnerLipsLandmarks().size() == 0) {
+            face.getRegionLength(DLibFace.REGION_INNER_LIPS) == 0) {
             throw new IllegalArgumentException("Given face is invalid");
         }
 
+        final boolean isABite;
+        final boolean isRecorded;
+        final int state;
+        final double degree;
         synchronized (mMutex) {
-            final List<DLibFace.Landmark> marks = face.getInnerLipsLandmarks();
+            // Read the inner lips by index, which allocates nothing.
+            final int lips = face.getRegionOffset(DLibFace.REGION_INNER_LIPS);
 
 //            Log.d("mouth", "----------");
 
             // Update the vectors.
-            mLeftUpVec[0] = marks.get(L_UP[1]).x - marks.get(L_UP[0]).x;
-            mLeftUpVec[1] = marks.get(L_UP[1]).y - marks.get(L_UP[0]).y;
-            mLeftLowVec[0] = marks.get(L_LOW[1]).x - marks.get(L_LOW[0]).x;
-            mLeftLowVec[1] = marks.get(L_LOW[1]).y - marks.get(L_LOW[0]).y;
-            mRightUpVec[0] = marks.get(R_UP[1]).x - marks.get(R_UP[0]).x;
-            mRightUpVec[1] = marks.get(R_UP[1]).y - marks.get(R_UP[0]).y;
-            mRightLowVec[0] = marks.get(R_LOW[1]).x - marks.get(R_LOW[0]).x;
-            mRightLowVec[1] = marks.get(R_LOW[1]).y - marks.get(R_LOW[0]).y;
+            mLeftUpVec[0] = face.getX(lips + L_UP[1]) - face.getX(lips + L_UP[0]);
+            mLeftUpVec[1] = face.getY(lips + L_UP[1]) - face.getY(lips + L_UP[0]);
+            mLeftLowVec[0] = face.getX(lips + L_LOW[1]) - face.getX(lips + L_LOW[0]);
+            mLeftLowVec[1] = face.getY(lips + L_LOW[1]) - face.getY(lips + L_LOW[0]);
+            mRightUpVec[0] = face.getX(lips + R_UP[1]) - face.getX(lips + R_UP[0]);
+            mRightUpVec[1] = face.getY(lips + R_UP[1]) - face.getY(lips + R_UP[0]);
+            mRightLowVec[0] = face.getX(lips + R_LOW[1]) - face.getX(lips + R_LOW[0]);
+            mRightLowVec[1] = face.getY(lips + R_LOW[1]) - face.getY(lips + R_LOW[0]);
 //            Log.d("mouth", String.format("mLeftUpVec=(x=%.5f, y=%.5f), mLeftLowVec=(x=%.5f, y=%.5f), " +
 //                                          "mRightUpVec=(x=%.5f, y=%.5f), mRightLowVec=(x=%.5f, y=%.5f)",
 //                                          mLeftUpVec[0], mLeftUpVec[1],
@@ -147,11 +205,26 @@ public class DLibBiteDetector implements IBiteDetector {
 //                                          getTimestamp()));
 
             // Record the opening degree.
-            record(openingDegrees);
+            isRecorded = record(openingDegrees);
+
+            // Determine if it is a valid bite. The history is unchanged if
+            // it's not recorded, so is the result.
+            isABite = isRecorded && detectBiteFromRecords();
+
+            final int latest = getRecordIndex(1);
+            state = mStates[latest];
+            degree = mDegrees[latest];
+        }
 
-            // Determine if it is a valid bite.
-            return detectBiteFromRecords();
+        // Log it out of the lock.
+        if (mIsLoggingEnabled && isRecorded) {
+            Log.d("mouth", String.format("mouth opening state = %s, degree = %.3f%s",
+                                         (state == MOUTH_OPENED ? "OPENED" : "CLOSED"),
+                                         degree,
+                                         (isABite ? ", a bite" : "")));
         }
+
+        return isABite;
     }
 
     @Override
@@ -165,27 +238,42 @@ public class DLibBiteDetector implements IBiteDetector {
     // Protected / Private Methods ////////////////////////////////////////////
 
     private long getTimestamp() {
-        return SystemClock.currentThreadTimeMillis();
+        return mClock.getCurrentTimeMillis();
     }
 
-    private void record(double mouthOpeningDegree) {
-        final int size = mRecords.size();
-        final Record record = new Record();
+    /**
+     * The index of the i-th latest record in the ring buffer, where 1 is the
+     * latest one.
+     */
+    private int getRecordIndex(int i) {
+        return (mHead - i + MAX_RECORDS) % MAX_RECORDS;
+    }
 
-        record.timestamp = getTimestamp();
+    /**
+     * Record the given opening degree along with the smoothed degree, the
+     * velocity and the mouth state.
+     *
+     * @return False if it's dropped for having the same timestamp as the
+     * latest record.
+     */
+    private boolean record(double mouthOpeningDegree) {
+        final long timestamp = getTimestamp();
+        final int index = mHead;
 
         // Determine the degree velocity.
-        if (mRecords.isEmpty()) {
-            record.mouthOpeningVelocity = 0;
-            record.mouthOpeningDegree = mouthOpeningDegree;
+        if (mCount == 0) {
+            mDegrees[index] = mouthOpeningDegree;
+            mVelocities[index] = 0;
+            mStates[index] = MOUTH_CLOSED;
         } else {
-            final Record last = mRecords.get(size - 1);
+            final int last = getRecordIndex(1);
 
             // For unknown reason, there would be very close two records
             // recorded.
-            if (last.timestamp == record.timestamp) return;
+            if (mTimestamps[last] == timestamp) return false;
 
-            if (mRecords.size() >= 2) {
+            final long tOffset = timestamp - mTimestamps[last];
+            if (mCount >= 2) {
                 // Because there are noises like...
                 //
                 //              A valid bite
@@ -205,57 +293,42 @@ public class DLibBiteDetector implements IBiteDetector {
                 //
                 // Apply the smooth algorithm to fix the noise if there were
                 // already two records.
-                final long tOffset = record.timestamp - last.timestamp;
-//                final double projectDegree = last.mouthOpeningDegree +
-//                                             last.mouthOpeningVelocity * tOffset;
-//                final double smoothDegree = ALPHA * projectDegree +
-//                                            (1f - ALPHA) * mouthOpeningDegree;
-                final double smoothDegree = ALPHA * last.mouthOpeningDegree +
+                final double smoothDegree = ALPHA * mDegrees[last] +
                                             (1f - ALPHA) * mouthOpeningDegree;
 
-                record.mouthOpeningDegree = smoothDegree >= 0f ? smoothDegree : 0f;
-                record.mouthOpeningVelocity =
-                    (record.mouthOpeningDegree - last.mouthOpeningDegree) / tOffset;
+                mDegrees[index] = smoothDegree >= 0f ? smoothDegree : 0f;
+                mVelocities[index] = (mDegrees[index] - mDegrees[last]) / tOffset;
             } else {
                 // If there are zero or one record, just record it.
-                final double dOffset = mouthOpeningDegree - last.mouthOpeningDegree;
-                final long tOffset = record.timestamp - last.timestamp;
-
-                record.mouthOpeningDegree = mouthOpeningDegree;
-                record.mouthOpeningVelocity = dOffset / tOffset;
+                mDegrees[index] = mouthOpeningDegree;
+                mVelocities[index] = (mouthOpeningDegree - mDegrees[last]) / tOffset;
             }
 
             // Determine the mouth state.
-            if (record.mouthOpeningDegree >= DEGREE_FOR_MOUTH_OPENED &&
-                last.mouthOpeningVelocity > 0f) {
-                record.mouthState = Record.MOUTH_OPENED;
-            } else if (record.mouthOpeningDegree <= DEGREE_FOR_MOUTH_CLOSED &&
-                last.mouthOpeningVelocity < 0f) {
-                record.mouthState = Record.MOUTH_CLOSED;
+            if (mDegrees[index] >= DEGREE_FOR_MOUTH_OPENED &&
+                mVelocities[last] > 0f) {
+                mStates[index] = MOUTH_OPENED;
+            } else if (mDegrees[index] <= DEGREE_FOR_MOUTH_CLOSED &&
+                       mVelocities[last] < 0f) {
+                mStates[index] = MOUTH_CLOSED;
             } else {
                 // For the uncertain state, just follow the previous state.
-                record.mouthState = last.mouthState;
+                mStates[index] = mStates[last];
             }
         }
+        mTimestamps[index] = timestamp;
 
-        // Add it.
-        mRecords.add(record);
-//        Log.d("mouth", String.format("Given %.3f, Save %s", mouthOpeningDegree, record));
-        Log.d("mouth", String.format("mouth opening state = %s",
-                                     (record.mouthState == Record.MOUTH_OPENED ?
-                                     "OPENED" : "CLOSED")));
+        // Add it, which discards the oldest record if it's full.
+        mHead = (mHead + 1) % MAX_RECORDS;
+        mCount = Math.min(mCount + 1, MAX_RECORDS);
 
-        // Discard the old records.
-        while (mRecords.size() > MAX_RECORDS) {
-            mRecords.remove(0);
-        }
+        return true;
     }
 
     private boolean detectBiteFromRecords() {
-        final int size = mRecords.size();
         boolean isABite = false;
 
-        if (mRecords.size() >= CHECK_LATEST_N_RECORDS) {
+        if (mCount >= CHECK_LATEST_N_RECORDS) {
             //    mouth state.
             //    ^
             // +1 |   +  +     +     +  +
@@ -264,8 +337,7 @@ public class DLibBiteDetector implements IBiteDetector {
             //                      |<-------->|
             //                       This counts a bite.
 
-            final Record latest = mRecords.get(size - 1);
-            if (latest.mouthState != Record.MOUTH_CLOSED) return false;
+            if (mStates[getRecordIndex(1)] != MOUTH_CLOSED) return false;
 
             // According to the above figure, I want to find a pattern of an
             // order sensitive sequence of [OPENED, OPENED, CLOSED, CLOSED].
@@ -273,8 +345,7 @@ public class DLibBiteDetector implements IBiteDetector {
             // position index (start from 1) and then add them up.
             int accumulatedStateCount = 0;
             for (int i = 1; i <= CHECK_LATEST_N_RECORDS; ++i) {
-                final int index = size - i;
-                accumulatedStateCount += (i * mRecords.get(index).mouthState);
+                accumulatedStateCount += (i * mStates[getRecordIndex(i)]);
             }
 
             // If the sequence matches [OPENED, OPENED, CLOSED, CLOSED].
@@ -291,32 +362,4 @@ public class DLibBiteDetector implements IBiteDetector {
 
         return isABite;
     }
-
-    ///////////////////////////////////////////////////////////////////////////
-    // Clazz //////////////////////////////////////////////////////////////////
-
-    /**
-     * The mouth state record.
-     */
-    private static class Record {
-
-        static final int MOUTH_CLOSED = -1;
-        static final int MOUTH_OPENED = 1;
-        int mouthState = MOUTH_CLOSED;
-
-        double mouthOpeningDegree;
-        double mouthOpeningVelocity;
-
-        long timestamp;
-
-        @Override
-        public String toString() {
-            return String.format("Record{openingDegree=%.3f, " +
-                                 "openingVelocity=%.3f, " +
-                                 "timestamp=%d}",
-                                 mouthOpeningDegree,
-                                 mouthOpeningVelocity,
-                                 timestamp);
-        }
-    }
 }
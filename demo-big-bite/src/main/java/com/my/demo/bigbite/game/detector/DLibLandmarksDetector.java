@@ -21,29 +21,45 @@
 package com.my.demo.bigbite.game.detector;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.my.core.benchmark.NanoSecondsProfiler;
 import com.my.core.util.ProfilerUtil;
 import com.my.demo.bigbite.game.data.ICameraMetadata;
 import com.my.jni.dlib.IDLibFaceDetector;
 import com.my.jni.dlib.data.DLibFace;
+import com.my.jni.dlib.data.DLibFace68;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A detector using Google Vision face detector and DLib landmarks detector.
+ * <br/>
+ * By default, the face detection and the landmarks detection of a frame run
+ * in sequence on the calling thread, and the faces are tracked by the
+ * landmarks detector between the face detections, see
+ * {@link IDLibFaceDetector#setTrackingInterval(int)}.
+ * <br/>
+ * In the pipelined mode, the landmarks detection runs on a worker thread, so
+ * the face detection of the frame N + 1 runs while the landmarks of the frame
+ * N are detected. The throughput is then bounded by the slower of the two
+ * stages rather than their sum, at the cost of one frame of latency: every
+ * {@link #detect(Frame)} returns the faces of the previous frame, in order.
+ * The face detection runs on every frame, so the tracking isn't used. Only
+ * the NV21 frames are pipelined.
  */
 public class DLibLandmarksDetector extends Detector<DLibFace> {
 
@@ -53,13 +69,49 @@ public class DLibLandmarksDetector extends Detector<DLibFace> {
     private final Detector<Face> mFaceDetector;
     private final IDLibFaceDetector mLandmarksDetector;
 
+    // The reusable packed faces written by the landmarks detector.
+    private float[] mPackedFaces = new float[0];
+
+    private volatile boolean mIsFrameLoggingEnabled = false;
+
+    // The pipelined mode. The two stages take turns in using the two jobs, so
+    // the calling thread fills one while the worker reads the other.
+    private final ExecutorService mLandmarksWorker;
+    private final LandmarksJob[] mJobs;
+    private int mNextJob = 0;
+    private Future<SparseArray<DLibFace>> mPendingLandmarks;
+
     public DLibLandmarksDetector(final ICameraMetadata cameraMetadata,
                                  final Detector<Face> faceDetector,
                                  final IDLibFaceDetector landmarksDetector) {
+        this(cameraMetadata, faceDetector, landmarksDetector, false);
+    }
+
+    /**
+     * @param isPipelined True to detect the landmarks on a worker thread in
+     *                    parallel with the face detection of the next frame.
+     */
+    public DLibLandmarksDetector(final ICameraMetadata cameraMetadata,
+                                 final Detector<Face> faceDetector,
+                                 final IDLibFaceDetector landmarksDetector,
+                                 final boolean isPipelined) {
         mCameraMetadata = cameraMetadata;
         mFaceDetector = faceDetector;
         mLandmarksDetector = landmarksDetector;
 
+        if (isPipelined) {
+            mLandmarksWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "dlib-landmarks");
+                }
+            });
+            mJobs = new LandmarksJob[]{new LandmarksJob(), new LandmarksJob()};
+        } else {
+            mLandmarksWorker = null;
+            mJobs = null;
+        }
+
         setProcessor(new Processor<DLibFace>() {
             @Override
             public void release() {
@@ -73,6 +125,14 @@ public class DLibLandmarksDetector extends Detector<DLibFace> {
         });
     }
 
+    /**
+     * Log the timing of the tracking and of the pipelined stages of every
+     * frame, which is costly and off by default.
+     */
+    public void setFrameLoggingEnabled(boolean enabled) {
+        mIsFrameLoggingEnabled = enabled;
+    }
+
     @Override
     public SparseArray<DLibFace> detect(Frame frame) {
         if (mCameraMetadata == null ||
@@ -82,8 +142,29 @@ public class DLibLandmarksDetector extends Detector<DLibFace> {
                 "Invalid detector.");
         }
 
+        if (mLandmarksWorker != null) {
+            if (frame.getBitmap() == null) {
+                return detectPipelined(frame);
+            } else {
+                // The previous frame is stale anyway.
+                waitForPendingLandmarks();
+            }
+        }
+
         Log.d("xyz", "----------");
 
+        // Skip the Google Vision face detection if the faces are tracked from
+        // the previous frame.
+        final int trackedCount = trackLandmarks(frame);
+        if (trackedCount >= 0) {
+            final SparseArray<DLibFace> retFaces = new SparseArray<>(trackedCount);
+            for (int i = 0; i < trackedCount; ++i) {
+                retFaces.put(i, new DLibFace68(
+                    mPackedFaces, i * DLibFace68.PACKED_FACE_SIZE));
+            }
+            return retFaces;
+        }
+
         ProfilerUtil.startProfiling();
 
         // Use Google Vision face detector to get face bounds.
@@ -97,7 +178,6 @@ public class DLibLandmarksDetector extends Detector<DLibFace> {
         // Overlay preview dimension.
         final int ow = getUprightPreviewWidth(frame);
         final int oh = getUprightPreviewHeight(frame);
-        final Matrix transform = getCameraToViewTransform(frame);
 
         Log.d("xyz", String.format("frame (w=%d, h=%d), preview (w=%d, h=%d)",
                                    fw, fh,
@@ -106,15 +186,160 @@ public class DLibLandmarksDetector extends Detector<DLibFace> {
                                    faces.size(),
                                    ProfilerUtil.stopProfiling()));
 
-        // Get bitmap from YUV frame.
-        ProfilerUtil.startProfiling();
-        final Bitmap bitmap = getBitmapFromFrame(frame, transform);
-        Log.d("xyz", String.format("Extract bitmap (w=%d, h=%d) from YUV frame (took %.3f ms)",
-                                   bitmap.getWidth(), bitmap.getHeight(),
-                                   ProfilerUtil.stopProfiling()));
+        // The camera frame is either a Bitmap or a NV21 buffer. The landmarks
+        // detector reads the luma plane of the NV21 buffer directly.
+        final Bitmap bitmap = frame.getBitmap();
 
         // Translate the face bounds into something that DLib detector knows.
-        final List<Rect> faceBounds = new ArrayList<>();
+        final List<Rect> faceBounds = toLandmarksFaceBounds(faces, ow);
+
+
+        // Detect landmarks.
+        try {
+            ProfilerUtil.startProfiling();
+            ensurePackedFaces(faceBounds.size());
+            final int detCount;
+            if (bitmap != null) {
+                detCount = mLandmarksDetector.findLandmarksFromFaces(
+                    bitmap,
+                    faceBounds,
+                    mPackedFaces);
+            } else {
+                detCount = mLandmarksDetector.findLandmarksFromFaces(
+                    frame.getGrayscaleImageData(),
+                    fw, fh,
+                    getRotationDegrees(frame),
+                    mCameraMetadata.isFacingFront(),
+                    faceBounds,
+                    mPackedFaces);
+            }
+            SparseArray<DLibFace> retFaces = new SparseArray<>(detCount);
+            for (int i = 0; i < detCount; ++i) {
+                retFaces.put(i, new DLibFace68(
+                    mPackedFaces, i * DLibFace68.PACKED_FACE_SIZE));
+            }
+            Log.d("xyz", String.format("Detect %d face with landmarks (took %.3f ms)",
+                                       detCount,
+                                       ProfilerUtil.stopProfiling()));
+//            Log.d("xyz", String.format("input rect=%s, output rect=%s",
+//                                       new RectF((float) faceBounds.get(0).left / ow,
+//                                                 (float) faceBounds.get(0).top / oh,
+//                                                 (float) faceBounds.get(0).right / ow,
+//                                                 (float) faceBounds.get(0).bottom / oh),
+//                                       detFaces.get(0).getBound()));
+
+            Log.d("xyz", String.format(
+                "Process of detecting faces and landmarks done (took %.3f ms)",
+                ProfilerUtil.stopProfiling()));
+
+            return retFaces;
+        } catch (Throwable err) {
+            err.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Release the given face detector and stop the worker of the pipelined
+     * mode. The landmarks detection in progress is finished first, so the
+     * landmarks detector could be disposed afterwards.
+     */
+    @Override
+    public void release() {
+        super.release();
+        mFaceDetector.release();
+
+        if (mLandmarksWorker != null) {
+            mLandmarksWorker.shutdown();
+            try {
+                mLandmarksWorker.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException err) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    /**
+     * Run the face detection of the given frame, hand its landmarks detection
+     * over to the worker and return the faces of the previous frame.
+     */
+    private SparseArray<DLibFace> detectPipelined(final Frame frame) {
+        final LandmarksJob job = mJobs[mNextJob];
+        mNextJob = (mNextJob + 1) % mJobs.length;
+
+        // Stage 1: the face detection and the copy of the luma plane, which
+        // the camera reuses once this returns.
+        ProfilerUtil.startProfiling();
+        final SparseArray<Face> faces = mFaceDetector.detect(frame);
+        final int fw = frame.getMetadata().getWidth();
+        final int fh = frame.getMetadata().getHeight();
+        job.faceBounds = toLandmarksFaceBounds(faces, getUprightPreviewWidth(frame));
+        if (!job.faceBounds.isEmpty()) {
+            job.setFrame(frame.getGrayscaleImageData(), fw, fh,
+                         getRotationDegrees(frame),
+                         mCameraMetadata.isFacingFront());
+        }
+        final float duration = ProfilerUtil.stopProfiling();
+        if (mIsFrameLoggingEnabled) {
+            Log.d("xyz", String.format("Detect %d faces and copy the frame (took %.3f ms)",
+                                       faces.size(), duration));
+        }
+
+        // The other job is done by the worker before this one is handed over,
+        // so the results are in order.
+        final SparseArray<DLibFace> previousFaces = waitForPendingLandmarks();
+
+        // Stage 2.
+        if (!job.faceBounds.isEmpty()) {
+            mPendingLandmarks = mLandmarksWorker.submit(job);
+        } else {
+            mPendingLandmarks = null;
+        }
+
+        return previousFaces != null ? previousFaces : EMPTY_ARRAY;
+    }
+
+    /**
+     * Wait for the landmarks detection handed over to the worker.
+     *
+     * @return The faces, or null if there's no pending detection or it fails.
+     */
+    private SparseArray<DLibFace> waitForPendingLandmarks() {
+        final Future<SparseArray<DLibFace>> pending = mPendingLandmarks;
+        if (pending == null) return null;
+        mPendingLandmarks = null;
+
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                try {
+                    return pending.get();
+                } catch (InterruptedException err) {
+                    isInterrupted = true;
+                }
+            }
+        } catch (Throwable err) {
+            err.printStackTrace();
+            return null;
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Translate the face bounds of Google Vision into the ones the landmarks
+     * detector knows.
+     *
+     * @param ow The width of the upright preview.
+     */
+    private List<Rect> toLandmarksFaceBounds(final SparseArray<Face> faces,
+                                             final int ow) {
+        final List<Rect> faceBounds = new ArrayList<>(faces.size());
         for (int i = 0; i < faces.size(); ++i) {
             final Face face = faces.get(faces.keyAt(i));
 
@@ -165,88 +390,57 @@ public class DLibLandmarksDetector extends Detector<DLibFace> {
             faceBounds.add(bound);
         }
 
+        return faceBounds;
+    }
+
+
+    /**
+     * Detect the landmarks of the faces tracked from the previous frame.
+     *
+     * @return The number of the faces, or -1 if the face detection is due.
+     */
+    private int trackLandmarks(final Frame frame) {
+        // The tracking only reads the NV21 buffer.
+        if (frame.getBitmap() != null) return -1;
 
-        // Detect landmarks.
         try {
             ProfilerUtil.startProfiling();
-            List<DLibFace> detFaces = mLandmarksDetector.findLandmarksFromFaces(
-                bitmap,
-                faceBounds);
-            SparseArray<DLibFace> retFaces = new SparseArray<>(detFaces.size());
-            for (int i = 0; i < detFaces.size(); ++i) {
-                retFaces.put(i, detFaces.get(i));
+            final int count = mLandmarksDetector.trackLandmarks(
+                frame.getGrayscaleImageData(),
+                frame.getMetadata().getWidth(),
+                frame.getMetadata().getHeight(),
+                getRotationDegrees(frame),
+                mCameraMetadata.isFacingFront(),
+                mPackedFaces);
+            final float duration = ProfilerUtil.stopProfiling();
+            if (mIsFrameLoggingEnabled) {
+                Log.d("xyz", String.format("Track %d face with landmarks (took %.3f ms)",
+                                           count, duration));
             }
-            Log.d("xyz", String.format("Detect %d face with landmarks (took %.3f ms)",
-                                       detFaces.size(),
-                                       ProfilerUtil.stopProfiling()));
-//            Log.d("xyz", String.format("input rect=%s, output rect=%s",
-//                                       new RectF((float) faceBounds.get(0).left / ow,
-//                                                 (float) faceBounds.get(0).top / oh,
-//                                                 (float) faceBounds.get(0).right / ow,
-//                                                 (float) faceBounds.get(0).bottom / oh),
-//                                       detFaces.get(0).getBound()));
-
-            Log.d("xyz", String.format(
-                "Process of detecting faces and landmarks done (took %.3f ms)",
-                ProfilerUtil.stopProfiling()));
-
-            return retFaces;
+            return count;
         } catch (Throwable err) {
             err.printStackTrace();
-            return null;
+            return -1;
         }
     }
 
-    ///////////////////////////////////////////////////////////////////////////
-    // Protected / Private Methods ////////////////////////////////////////////
+    private void ensurePackedFaces(int faceCount) {
+        final int size = faceCount * DLibFace68.PACKED_FACE_SIZE;
+        if (mPackedFaces.length < size) {
+            mPackedFaces = new float[size];
+        }
+    }
 
-    // TODO: This method could be an util method.
-    // TODO: Rotation and facing are important parameters.
-    private Matrix getCameraToViewTransform(final Frame frame) {
-        final Matrix transform = new Matrix();
+    private int getRotationDegrees(final Frame frame) {
         switch (frame.getMetadata().getRotation()) {
             case Frame.ROTATION_90:
-                transform.postRotate(90);
-                break;
+                return 90;
             case Frame.ROTATION_180:
-                transform.postRotate(180);
-                break;
+                return 180;
             case Frame.ROTATION_270:
-                transform.postRotate(270);
-                break;
-        }
-
-        if (mCameraMetadata.isFacingFront()) {
-            transform.postScale(-1, 1);
-        }
-
-        return transform;
-    }
-
-    private Bitmap getBitmapFromFrame(final Frame frame,
-                                      final Matrix transform) {
-        if (frame.getBitmap() != null) {
-            return frame.getBitmap();
-        } else {
-            final int width = frame.getMetadata().getWidth();
-            final int height = frame.getMetadata().getHeight();
-            final YuvImage yuvImage = new YuvImage(
-                frame.getGrayscaleImageData().array(),
-                ImageFormat.NV21, width, height, null);
-
-            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            yuvImage.compressToJpeg(new Rect(0, 0, width, height), 50, outputStream);
-
-            final byte[] jpegArray = outputStream.toByteArray();
-            final Bitmap rawBitmap = BitmapFactory.decodeByteArray(
-                jpegArray, 0, jpegArray.length);
-
-            final int bw = rawBitmap.getWidth();
-            final int bh = rawBitmap.getHeight();
-
-            return Bitmap.createBitmap(rawBitmap,
-                                       0, 0, bw, bh,
-                                       transform, false);
+                return 270;
+            default:
+                return 0;
         }
     }
 
@@ -265,4 +459,79 @@ public class DLibLandmarksDetector extends Detector<DLibFace> {
             return frame.getMetadata().getHeight();
         }
     }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Clazz //////////////////////////////////////////////////////////////////
+
+    /**
+     * The landmarks detection of a frame in the pipelined mode, holding a
+     * copy of the luma plane and the packed faces it writes.
+     */
+    private final class LandmarksJob implements Callable<SparseArray<DLibFace>> {
+
+        // The profiler of ProfilerUtil is used by the calling thread.
+        final NanoSecondsProfiler profiler = new NanoSecondsProfiler();
+
+        ByteBuffer luma = ByteBuffer.allocate(0);
+        float[] packedFaces = new float[0];
+
+        List<Rect> faceBounds;
+        int width;
+        int height;
+        int rotation;
+        boolean mirror;
+
+        void setFrame(final ByteBuffer yuv,
+                      final int width,
+                      final int height,
+                      final int rotation,
+                      final boolean mirror) {
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.mirror = mirror;
+
+            final int size = width * height;
+            if (luma.capacity() < size) {
+                luma = ByteBuffer.allocate(size);
+            }
+            if (yuv.hasArray()) {
+                System.arraycopy(yuv.array(), yuv.arrayOffset(),
+                                 luma.array(), 0, size);
+            } else {
+                final ByteBuffer src = yuv.duplicate();
+                src.clear();
+                src.limit(size);
+                luma.clear();
+                luma.put(src);
+            }
+            luma.clear();
+        }
+
+        @Override
+        public SparseArray<DLibFace> call() throws Exception {
+            profiler.startProfiling();
+
+            final int size = faceBounds.size() * DLibFace68.PACKED_FACE_SIZE;
+            if (packedFaces.length < size) {
+                packedFaces = new float[size];
+            }
+            final int detCount = mLandmarksDetector.findLandmarksFromFaces(
+                luma, width, height, rotation, mirror,
+                faceBounds, packedFaces);
+
+            final SparseArray<DLibFace> retFaces = new SparseArray<>(detCount);
+            for (int i = 0; i < detCount; ++i) {
+                retFaces.put(i, new DLibFace68(
+                    packedFaces, i * DLibFace68.PACKED_FACE_SIZE));
+            }
+            final float duration = profiler.stopProfilingAndCalculateInterval();
+            if (mIsFrameLoggingEnabled) {
+                Log.d("xyz", String.format("Detect %d face with landmarks on the worker (took %.3f ms)",
+                                           detCount, duration));
+            }
+
+            return retFaces;
+        }
+    }
 }
@@ -0,0 +1,223 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.detector;
+
+import com.my.jni.dlib.data.DLibFace;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assigns a track to every face frame by frame, where a face takes over the
+ * track of the previous frame overlapping it the most, so the per-face states
+ * (e.g. the bites) follow the players.
+ * <br/>
+ * The tracks live in a fixed number of slots. A slot stays with its track
+ * until the track is missing for too many frames, so the slot index could key
+ * the per-track states in arrays, see {@link #getTrackId(int)} for telling a
+ * new track in the same slot. Nothing is allocated per frame unless there are
+ * more faces than ever.
+ * <br/>
+ * It isn't thread-safe.
+ */
+public final class FaceTracker {
+
+    private static final int NO_TRACK = -1;
+
+    private final int mMaxTracks;
+    private final float mMinOverlap;
+    private final int mMaxMissedFrames;
+
+    // The tracks by slot, where the id is NO_TRACK if the slot is free.
+    private final int[] mTrackIds;
+    private final float[] mTrackBounds;
+    private final int[] mMissedFrames;
+    private final boolean[] mIsTrackMatched;
+    private int mNextTrackId = 0;
+
+    // The reusable face bounds, [left, top, right, bottom] per face, and the
+    // overlaps of every face and slot.
+    private float[] mFaceBounds = new float[0];
+    private float[] mOverlaps = new float[0];
+
+    /**
+     * @param maxTracks The max number of the faces tracked at a time.
+     * @param minOverlap The min intersection over union of the face bounds
+     *                   of two frames for being the same face.
+     * @param maxMissedFrames The number of the frames a track is kept for
+     *                        after its face is gone, e.g. blocked for a
+     *                        moment.
+     */
+    public FaceTracker(final int maxTracks,
+                       final float minOverlap,
+                       final int maxMissedFrames) {
+        mMaxTracks = maxTracks;
+        mMinOverlap = minOverlap;
+        mMaxMissedFrames = maxMissedFrames;
+
+        mTrackIds = new int[maxTracks];
+        mTrackBounds = new float[4 * maxTracks];
+        mMissedFrames = new int[maxTracks];
+        mIsTrackMatched = new boolean[maxTracks];
+        Arrays.fill(mTrackIds, NO_TRACK);
+    }
+
+    public int getMaxTracks() {
+        return mMaxTracks;
+    }
+
+    /**
+     * The id of the track in the given slot, unique in the tracker's life, or
+     * -1 if the slot is free.
+     */
+    public int getTrackId(int slot) {
+        return mTrackIds[slot];
+    }
+
+    /**
+     * Assign the faces of a new frame to the tracks.
+     *
+     * @param faces The faces of the frame.
+     * @param outSlots The slot of the track of every face, or -1 if all the
+     *                 slots are taken. It must be as long as the faces.
+     * @return The number of the tracked faces.
+     */
+    public int track(final List<DLibFace> faces,
+                     final int[] outSlots) {
+        final int faceCount = faces.size();
+        if (mFaceBounds.length < 4 * faceCount) {
+            mFaceBounds = new float[4 * faceCount];
+            mOverlaps = new float[faceCount * mMaxTracks];
+        }
+
+        for (int i = 0; i < faceCount; ++i) {
+            getBound(faces.get(i), mFaceBounds, 4 * i);
+            outSlots[i] = NO_TRACK;
+
+            for (int slot = 0; slot < mMaxTracks; ++slot) {
+                mOverlaps[i * mMaxTracks + slot] = mTrackIds[slot] == NO_TRACK ?
+                    -1f : getOverlap(mFaceBounds, 4 * i, mTrackBounds, 4 * slot);
+            }
+        }
+        Arrays.fill(mIsTrackMatched, false);
+
+        // Match the most overlapping face and track first.
+        int trackedCount = 0;
+        while (true) {
+            float maxOverlap = mMinOverlap;
+            int maxFace = NO_TRACK;
+            int maxSlot = NO_TRACK;
+            for (int i = 0; i < faceCount; ++i) {
+                if (outSlots[i] != NO_TRACK) continue;
+
+                for (int slot = 0; slot < mMaxTracks; ++slot) {
+                    final float overlap = mOverlaps[i * mMaxTracks + slot];
+                    if (!mIsTrackMatched[slot] && overlap >= maxOverlap) {
+                        maxOverlap = overlap;
+                        maxFace = i;
+                        maxSlot = slot;
+                    }
+                }
+            }
+            if (maxFace == NO_TRACK) break;
+
+            outSlots[maxFace] = maxSlot;
+            mIsTrackMatched[maxSlot] = true;
+            mMissedFrames[maxSlot] = 0;
+            System.arraycopy(mFaceBounds, 4 * maxFace, mTrackBounds, 4 * maxSlot, 4);
+            ++trackedCount;
+        }
+
+        // Drop the tracks missing for too long.
+        for (int slot = 0; slot < mMaxTracks; ++slot) {
+            if (mTrackIds[slot] != NO_TRACK &&
+                !mIsTrackMatched[slot] &&
+                ++mMissedFrames[slot] > mMaxMissedFrames) {
+                mTrackIds[slot] = NO_TRACK;
+            }
+        }
+
+        // Start the new tracks in the free slots.
+        int slot = 0;
+        for (int i = 0; i < faceCount; ++i) {
+            if (outSlots[i] != NO_TRACK) continue;
+
+            while (slot < mMaxTracks && mTrackIds[slot] != NO_TRACK) {
+                ++slot;
+            }
+            if (slot == mMaxTracks) break;
+
+            mTrackIds[slot] = mNextTrackId++;
+            mMissedFrames[slot] = 0;
+            System.arraycopy(mFaceBounds, 4 * i, mTrackBounds, 4 * slot, 4);
+            outSlots[i] = slot;
+            ++trackedCount;
+        }
+
+        return trackedCount;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    /**
+     * The bound of the landmarks, which works for every source of the faces.
+     */
+    private static void getBound(final DLibFace face,
+                                 final float[] out,
+                                 final int offset) {
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < face.getLandmarksCount(); ++i) {
+            left = Math.min(left, face.getX(i));
+            top = Math.min(top, face.getY(i));
+            right = Math.max(right, face.getX(i));
+            bottom = Math.max(bottom, face.getY(i));
+        }
+
+        out[offset] = left;
+        out[offset + 1] = top;
+        out[offset + 2] = right;
+        out[offset + 3] = bottom;
+    }
+
+    /**
+     * The intersection over union of the two bounds.
+     */
+    private static float getOverlap(final float[] a,
+                                    final int offsetA,
+                                    final float[] b,
+                                    final int offsetB) {
+        final float width = Math.min(a[offsetA + 2], b[offsetB + 2]) -
+                            Math.max(a[offsetA], b[offsetB]);
+        final float height = Math.min(a[offsetA + 3], b[offsetB + 3]) -
+                             Math.max(a[offsetA + 1], b[offsetB + 1]);
+        if (width <= 0f || height <= 0f) return 0f;
+
+        final float intersection = width * height;
+        final float areaA = (a[offsetA + 2] - a[offsetA]) * (a[offsetA + 3] - a[offsetA + 1]);
+        final float areaB = (b[offsetB + 2] - b[offsetB]) * (b[offsetB + 3] - b[offsetB + 1]);
+
+        return intersection / (areaA + areaB - intersection);
+    }
+}
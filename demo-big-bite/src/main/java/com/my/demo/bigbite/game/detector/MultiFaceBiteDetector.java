@@ -0,0 +1,243 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.detector;
+
+import com.my.core.protocol.ISystemClock;
+import com.my.jni.dlib.data.DLibFace;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Detects the bites of every player in the frame, where the faces are tracked
+ * across the frames by {@link FaceTracker} and every track has its own
+ * {@link DLibBiteDetector}. The detectors are kept by the track slots, so
+ * looking up the state of a face costs the same however many players there
+ * are.
+ * <br/>
+ * A detection of a face only takes about a microsecond, so the tracks are
+ * updated on the calling thread unless an executor is given and there are at
+ * least {@link #PARALLEL_THRESHOLD} faces, where the tracks are updated in
+ * parallel since they share nothing.
+ * <br/>
+ * Usage:
+ * <pre>
+ * final MultiFaceBiteDetector detector = new MultiFaceBiteDetector(4, clock, null);
+ *
+ * final int count = detector.detect(faces);
+ * for (int i = 0; i < count; ++i) {
+ *     if (detector.getTrackId(i) >= 0 && detector.isBite(i)) {
+ *         // The player of the face i bites.
+ *     }
+ * }
+ * </pre>
+ */
+public class MultiFaceBiteDetector {
+
+    /**
+     * The min number of the faces for updating the tracks in parallel.
+     */
+    public static final int PARALLEL_THRESHOLD = 4;
+
+    private static final float MIN_OVERLAP = 0.3f;
+    private static final int MAX_MISSED_FRAMES = 10;
+
+    private final ISystemClock mClock;
+    private final Executor mExecutor;
+    private final FaceTracker mTracker;
+
+    // The detectors by track slot and the tracks they belong to.
+    private final DLibBiteDetector[] mDetectors;
+    private final int[] mDetectorTrackIds;
+
+    // The input and output of the frame by track slot.
+    private final DLibFace[] mSlotFaces;
+    private final boolean[] mSlotIsBite;
+    private final SlotTask[] mSlotTasks;
+    private final Semaphore mDoneSlots = new Semaphore(0);
+    private volatile Throwable mSlotError;
+
+    // The result of the frame by face index.
+    private int[] mFaceSlots = new int[0];
+    private int mFaceCount = 0;
+
+    /**
+     * @param maxFaces The max number of the players.
+     * @param clock The clock of the bite detectors.
+     * @param executor The executor updating the tracks in parallel, or null
+     *                 for updating them on the calling thread.
+     */
+    public MultiFaceBiteDetector(final int maxFaces,
+                                 final ISystemClock clock,
+                                 final Executor executor) {
+        mClock = clock;
+        mExecutor = executor;
+        mTracker = new FaceTracker(maxFaces, MIN_OVERLAP, MAX_MISSED_FRAMES);
+
+        mDetectors = new DLibBiteDetector[maxFaces];
+        mDetectorTrackIds = new int[maxFaces];
+        mSlotFaces = new DLibFace[maxFaces];
+        mSlotIsBite = new boolean[maxFaces];
+        mSlotTasks = new SlotTask[maxFaces];
+        for (int slot = 0; slot < maxFaces; ++slot) {
+            mDetectorTrackIds[slot] = -1;
+            mSlotTasks[slot] = new SlotTask(slot);
+        }
+    }
+
+    /**
+     * Detect the bites of the faces of a new frame.
+     *
+     * @return The number of the faces, whose results are read by the face
+     * index afterwards.
+     */
+    public synchronized int detect(final List<DLibFace> faces) {
+        mFaceCount = faces.size();
+        if (mFaceSlots.length < mFaceCount) {
+            mFaceSlots = new int[mFaceCount];
+        }
+
+        final int trackedCount = mTracker.track(faces, mFaceSlots);
+
+        for (int i = 0; i < mFaceCount; ++i) {
+            final int slot = mFaceSlots[i];
+            if (slot < 0) continue;
+
+            // A new track in the slot starts over.
+            final int trackId = mTracker.getTrackId(slot);
+            if (mDetectorTrackIds[slot] != trackId) {
+                mDetectors[slot] = new DLibBiteDetector(mClock);
+                mDetectorTrackIds[slot] = trackId;
+            }
+            mSlotFaces[slot] = faces.get(i);
+        }
+
+        if (mExecutor != null && trackedCount >= PARALLEL_THRESHOLD) {
+            detectInParallel();
+        } else {
+            for (int i = 0; i < mFaceCount; ++i) {
+                final int slot = mFaceSlots[i];
+                if (slot >= 0) {
+                    detectSlot(slot);
+                }
+            }
+        }
+
+        return mFaceCount;
+    }
+
+    /**
+     * The track id of the face of the latest frame, or -1 if the face isn't
+     * tracked because there are too many players.
+     */
+    public synchronized int getTrackId(int face) {
+        final int slot = getSlot(face);
+        return slot < 0 ? -1 : mTracker.getTrackId(slot);
+    }
+
+    /**
+     * Whether the face of the latest frame makes a bite.
+     */
+    public synchronized boolean isBite(int face) {
+        final int slot = getSlot(face);
+        return slot >= 0 && mSlotIsBite[slot];
+    }
+
+    /**
+     * The bites of the player of the face of the latest frame.
+     */
+    public synchronized int getBiteCount(int face) {
+        final int slot = getSlot(face);
+        return slot < 0 ? 0 : mDetectors[slot].getBiteCount();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private int getSlot(int face) {
+        if (face < 0 || face >= mFaceCount) {
+            throw new IllegalArgumentException("Given face index is out of range");
+        }
+        return mFaceSlots[face];
+    }
+
+    private void detectSlot(int slot) {
+        mSlotIsBite[slot] = mDetectors[slot].detect(mSlotFaces[slot]);
+        mSlotFaces[slot] = null;
+    }
+
+    private void detectInParallel() {
+        mSlotError = null;
+        int submittedCount = 0;
+        for (int i = 0; i < mFaceCount; ++i) {
+            final int slot = mFaceSlots[i];
+            if (slot >= 0) {
+                try {
+                    mExecutor.execute(mSlotTasks[slot]);
+                    ++submittedCount;
+                } catch (RejectedExecutionException err) {
+                    // The executor is full or shut down, detect it here.
+                    mSlotTasks[slot].detect();
+                }
+            }
+        }
+
+        // Wait for the submitted tasks only, so no permit is left to the next
+        // frame. The semaphore also publishes the results of the tasks.
+        mDoneSlots.acquireUninterruptibly(submittedCount);
+
+        final Throwable error = mSlotError;
+        if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Clazz //////////////////////////////////////////////////////////////////
+
+    private class SlotTask implements Runnable {
+
+        final int slot;
+
+        SlotTask(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public void run() {
+            try {
+                detect();
+            } finally {
+                mDoneSlots.release();
+            }
+        }
+
+        void detect() {
+            try {
+                detectSlot(slot);
+            } catch (Throwable err) {
+                mSlotError = err;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.event.result;
+
+import android.graphics.RectF;
+
+import com.my.reactive.result.RxResult;
+
+import java.util.List;
+
+/**
+ * The bites of every player in a frame.
+ */
+public class DetectBitesResult extends RxResult {
+
+    public final List<Player> players;
+
+    public DetectBitesResult(final List<Player> players) {
+        super(true, false, null);
+        this.players = players;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Clazz //////////////////////////////////////////////////////////////////
+
+    public static final class Player {
+
+        /**
+         * The id of the face tracked across the frames, or -1 if there are
+         * too many players to track the face.
+         */
+        public final int trackId;
+        public final RectF mouthBound;
+        public final int biteCount;
+        public final boolean isBite;
+
+        public Player(final int trackId,
+                      final RectF mouthBound,
+                      final int biteCount,
+                      final boolean isBite) {
+            this.trackId = trackId;
+            this.mouthBound = mouthBound;
+            this.biteCount = biteCount;
+            this.isBite = isBite;
+        }
+    }
+}
@@ -26,9 +26,12 @@ import android.util.SparseArray;
 import com.google.android.gms.vision.CameraSource;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
+import com.my.demo.bigbite.game.data.IFrameLatencyListener;
 import com.my.demo.bigbite.game.event.uiEvent.FrameUiEvent;
 import com.my.demo.bigbite.game.view.CameraSourcePreview;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import io.reactivex.Observable;
 import io.reactivex.Observer;
 import io.reactivex.android.MainThreadDisposable;
@@ -46,6 +49,13 @@ import io.reactivex.disposables.Disposable;
  *         // DO SOMETHING.
  *     })
  * </pre>
+ * The result is emitted synchronously on the camera detector thread. The
+ * camera source only keeps the latest preview frame while the detector is
+ * busy, and the skipped frames are counted by
+ * {@link #getSkippedFramesCount()}. But a downstream
+ * {@code observeOn(scheduler)} queues the results without bound if it's
+ * slower than the camera, so use {@link ConflateLatestTransformer} instead to
+ * keep only the latest result.
  */
 public final class CameraObservable<T>
     extends Observable<FrameUiEvent<T>> {
@@ -55,16 +65,45 @@ public final class CameraObservable<T>
     private final CameraSourcePreview mCameraView;
     private final int mPreviewWidth;
     private final int mPreviewHeight;
+    private final float mFps;
     private final Detector<T> mDelegateDetector;
+    private final IFrameLatencyListener mLatencyListener;
+
+    private final AtomicLong mSkippedFramesCount = new AtomicLong(0);
 
     public static <T> CameraObservable<T> create(final Context context,
                                                  final CameraSourcePreview view,
                                                  final int previewWidth,
                                                  final int previewHeight,
                                                  final Detector<T> detector) {
+        return create(context, view, previewWidth, previewHeight, 24f,
+                      detector, null);
+    }
+
+    /**
+     * @param fps The requested frame rate.
+     * @param latencyListener The listener of the detection latency of every
+     *                        frame, e.g. {@link PreviewQualityGovernor}, or
+     *                        null.
+     */
+    public static <T> CameraObservable<T> create(final Context context,
+                                                 final CameraSourcePreview view,
+                                                 final int previewWidth,
+                                                 final int previewHeight,
+                                                 final float fps,
+                                                 final Detector<T> detector,
+                                                 final IFrameLatencyListener latencyListener) {
         return new CameraObservable<>(context,
-                                      view, previewWidth, previewHeight,
-                                      detector);
+                                      view, previewWidth, previewHeight, fps,
+                                      detector, latencyListener);
+    }
+
+    /**
+     * The number of the camera frames never passed to the detector because it
+     * was busy, of all the subscriptions.
+     */
+    public long getSkippedFramesCount() {
+        return mSkippedFramesCount.get();
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -74,12 +113,16 @@ public final class CameraObservable<T>
                              final CameraSourcePreview view,
                              final int previewWidth,
                              final int previewHeight,
-                             final Detector<T> detector) {
+                             final float fps,
+                             final Detector<T> detector,
+                             final IFrameLatencyListener latencyListener) {
         mContext = context;
         mCameraView = view;
         mPreviewWidth = previewWidth;
         mPreviewHeight = previewHeight;
+        mFps = fps;
         mDelegateDetector = detector;
+        mLatencyListener = latencyListener;
     }
 
     @Override
@@ -91,12 +134,13 @@ public final class CameraObservable<T>
 
             // Start camera.
             Detector<T> detector = new ObserverDetector<>(
-                disposable, observer, mDelegateDetector);
+                disposable, observer, mDelegateDetector, mSkippedFramesCount,
+                mLatencyListener);
             final CameraSource source = new CameraSource.Builder(mContext, detector)
                 .setRequestedPreviewSize(mPreviewWidth, mPreviewHeight)
                 .setFacing(CameraSource.CAMERA_FACING_FRONT)
                 .setAutoFocusEnabled(true)
-                .setRequestedFps(24f)
+                .setRequestedFps(mFps)
                 .build();
 
             mCameraView.start(source);
@@ -125,17 +169,24 @@ public final class CameraObservable<T>
     private static final class ObserverDetector<T> extends Detector<T> {
 
         boolean mIsFirstFrame = true;
+        int mLastFrameId;
 
         final Disposable mDisposable;
         final Observer<? super FrameUiEvent<T>> mObserver;
         final Detector<T> mDelegateDetector;
+        final AtomicLong mSkippedFramesCount;
+        final IFrameLatencyListener mLatencyListener;
 
         ObserverDetector(final Disposable disposable,
                          final Observer<? super FrameUiEvent<T>> observer,
-                         final Detector<T> other) {
+                         final Detector<T> other,
+                         final AtomicLong skippedFramesCount,
+                         final IFrameLatencyListener latencyListener) {
             mDisposable = disposable;
             mObserver = observer;
             mDelegateDetector = other;
+            mSkippedFramesCount = skippedFramesCount;
+            mLatencyListener = latencyListener;
 
             // Init a DUMMY processor.
             setProcessor(new Processor<T>() {
@@ -151,11 +202,28 @@ public final class CameraObservable<T>
             });
         }
 
+        @Override
+        public void release() {
+            super.release();
+
+            // Called by the camera source once it's released.
+            mDelegateDetector.release();
+        }
+
         @Override
         public SparseArray<T> detect(Frame frame) {
             if (mDisposable.isDisposed()) return null;
 
+            final long start = System.nanoTime();
             try {
+                // The camera source numbers the frames in sequence, so a gap
+                // is the frames replaced while the previous one was detected.
+                final int frameId = frame.getMetadata().getId();
+                if (!mIsFirstFrame && frameId > mLastFrameId + 1) {
+                    mSkippedFramesCount.addAndGet(frameId - mLastFrameId - 1);
+                }
+                mLastFrameId = frameId;
+
                 final SparseArray<T> res = mDelegateDetector.detect(frame);
 
                 if (mIsFirstFrame) {
@@ -165,6 +233,10 @@ public final class CameraObservable<T>
                     mObserver.onNext(FrameUiEvent.doing(res));
                 }
 
+                if (mLatencyListener != null) {
+                    mLatencyListener.onFrameLatency((System.nanoTime() - start) / 1e6f);
+                }
+
                 return res;
             } catch (Throwable err) {
                 mObserver.onError(err);
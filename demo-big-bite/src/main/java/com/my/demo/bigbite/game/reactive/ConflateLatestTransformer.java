@@ -0,0 +1,239 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.reactive;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Observer;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * A latest-value-wins replacement of {@code observeOn(scheduler)}. It keeps
+ * at most one pending value, so if the downstream is slower than the
+ * upstream, e.g. the landmarks detection is slower than the camera, the stale
+ * values are dropped instead of being queued without bound, and the
+ * downstream always gets the latest one.
+ * <br/>
+ * The error and completion are delivered after the pending value.
+ * <br/>
+ * Usage:
+ * <pre>
+ * final ConflateLatestTransformer&lt;FrameUiEvent&lt;DLibFace&gt;&gt; conflater =
+ *     new ConflateLatestTransformer&lt;&gt;(Schedulers.computation());
+ *
+ * CameraObservable
+ *     .create(getContext(), view, 320, 240, getFaceDetector())
+ *     .compose(conflater)
+ *     .subscribe(...);
+ *
+ * // Later.
+ * Log.d("camera", "Dropped " + conflater.getDroppedCount() + " frames");
+ * </pre>
+ */
+public final class ConflateLatestTransformer<T>
+    implements ObservableTransformer<T, T> {
+
+    private final Scheduler mScheduler;
+
+    private final AtomicLong mDeliveredCount = new AtomicLong(0);
+    private final AtomicLong mDroppedCount = new AtomicLong(0);
+
+    public ConflateLatestTransformer(final Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public ObservableSource<T> apply(final Observable<T> upstream) {
+        return new Observable<T>() {
+            @Override
+            protected void subscribeActual(Observer<? super T> observer) {
+                upstream.subscribe(new ConflateObserver<>(
+                    observer, mScheduler.createWorker(),
+                    mDeliveredCount, mDroppedCount));
+            }
+        };
+    }
+
+    /**
+     * The number of the values delivered to the downstream, of all the
+     * subscriptions.
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+
+    /**
+     * The number of the values replaced by a newer one before the downstream
+     * could take them, of all the subscriptions.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public void resetCounts() {
+        mDeliveredCount.set(0);
+        mDroppedCount.set(0);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Clazz //////////////////////////////////////////////////////////////////
+
+    /**
+     * The count of the scheduled drains is the integer itself, so only one
+     * drain runs at a time.
+     */
+    private static final class ConflateObserver<T>
+        extends AtomicInteger
+        implements Observer<T>,
+                   Disposable,
+                   Runnable {
+
+        final Observer<? super T> mActual;
+        final Scheduler.Worker mWorker;
+        final AtomicLong mDeliveredCount;
+        final AtomicLong mDroppedCount;
+
+        final AtomicReference<T> mLatest = new AtomicReference<>();
+
+        Disposable mUpstream;
+        Throwable mError;
+        volatile boolean mIsDone;
+        volatile boolean mIsDisposed;
+
+        ConflateObserver(final Observer<? super T> actual,
+                         final Scheduler.Worker worker,
+                         final AtomicLong deliveredCount,
+                         final AtomicLong droppedCount) {
+            mActual = actual;
+            mWorker = worker;
+            mDeliveredCount = deliveredCount;
+            mDroppedCount = droppedCount;
+        }
+
+        @Override
+        public void onSubscribe(Disposable d) {
+            mUpstream = d;
+            mActual.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(T value) {
+            if (mIsDone || mIsDisposed) return;
+
+            if (mLatest.getAndSet(value) != null) {
+                mDroppedCount.incrementAndGet();
+            }
+            schedule();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (mIsDone) return;
+
+            mError = error;
+            mIsDone = true;
+            schedule();
+        }
+
+        @Override
+        public void onComplete() {
+            if (mIsDone) return;
+
+            mIsDone = true;
+            schedule();
+        }
+
+        @Override
+        public void dispose() {
+            if (mIsDisposed) return;
+
+            mIsDisposed = true;
+            mUpstream.dispose();
+            mWorker.dispose();
+
+            // Drop the pending value unless a drain is running, which drops
+            // it itself.
+            if (getAndIncrement() == 0) {
+                mLatest.lazySet(null);
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return mIsDisposed;
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+
+            while (true) {
+                while (true) {
+                    if (mIsDisposed) {
+                        mLatest.lazySet(null);
+                        return;
+                    }
+
+                    // Read the flag before taking the value, so the value
+                    // sent before the completion isn't missed.
+                    final boolean isDone = mIsDone;
+                    final T value = mLatest.getAndSet(null);
+
+                    if (value == null) {
+                        if (isDone) {
+                            mIsDisposed = true;
+                            mWorker.dispose();
+
+                            if (mError != null) {
+                                mActual.onError(mError);
+                            } else {
+                                mActual.onComplete();
+                            }
+                            return;
+                        }
+                        break;
+                    }
+
+                    mDeliveredCount.incrementAndGet();
+                    mActual.onNext(value);
+                }
+
+                missed = addAndGet(-missed);
+                if (missed == 0) break;
+            }
+        }
+
+        ///////////////////////////////////////////////////////////////////////
+        // Protected / Private Methods ////////////////////////////////////////
+
+        private void schedule() {
+            if (getAndIncrement() == 0) {
+                mWorker.schedule(this);
+            }
+        }
+    }
+}
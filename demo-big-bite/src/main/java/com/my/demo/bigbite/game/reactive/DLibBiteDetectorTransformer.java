@@ -54,25 +54,33 @@ public class DLibBiteDetectorTransformer implements ObservableTransformer<Detect
                     throws Exception {
                     final DLibFace face = action.message;
 
-                    // Find boundary.
-                    float left = Integer.MAX_VALUE;
-                    float top = Integer.MAX_VALUE;
-                    float right = Integer.MIN_VALUE;
-                    float bottom = Integer.MIN_VALUE;
-                    for (DLibFace.Landmark landmark : face.getInnerLipsLandmarks()) {
-                        left = Math.min(left, landmark.x);
-                        top = Math.min(top, landmark.y);
-                        right = Math.max(right, landmark.x);
-                        bottom = Math.max(bottom, landmark.y);
-                    }
-//                    Log.d("mouth", String.format("Lips bound=%s", new RectF(left, top, right, bottom)));
-
                     mBiteDetector.detect(action.message);
 
                     return new DetectBiteResult(
-                        new RectF(left, top, right, bottom),
+                        getInnerLipsBound(face),
                         mBiteDetector.getBiteCount());
                 }
             });
     }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    static RectF getInnerLipsBound(DLibFace face) {
+        float left = Integer.MAX_VALUE;
+        float top = Integer.MAX_VALUE;
+        float right = Integer.MIN_VALUE;
+        float bottom = Integer.MIN_VALUE;
+        final int start = face.getRegionOffset(DLibFace.REGION_INNER_LIPS);
+        final int end = start + face.getRegionLength(DLibFace.REGION_INNER_LIPS);
+        for (int i = start; i < end; ++i) {
+            left = Math.min(left, face.getX(i));
+            top = Math.min(top, face.getY(i));
+            right = Math.max(right, face.getX(i));
+            bottom = Math.max(bottom, face.getY(i));
+        }
+//        Log.d("mouth", String.format("Lips bound=%s", new RectF(left, top, right, bottom)));
+
+        return new RectF(left, top, right, bottom);
+    }
 }
@@ -0,0 +1,79 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.reactive;
+
+import com.my.demo.bigbite.game.detector.MultiFaceBiteDetector;
+import com.my.demo.bigbite.game.event.action.DetectBitesAction;
+import com.my.demo.bigbite.game.event.result.DetectBitesResult;
+import com.my.jni.dlib.data.DLibFace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Function;
+
+/**
+ * The {@link DLibBiteDetectorTransformer} for all the players in the frame.
+ */
+public class MultiFaceBiteDetectorTransformer implements ObservableTransformer<DetectBitesAction, DetectBitesResult> {
+
+    final MultiFaceBiteDetector mBiteDetector;
+    final Scheduler mWorkerScheduler;
+
+    public MultiFaceBiteDetectorTransformer(final MultiFaceBiteDetector detector,
+                                            final Scheduler workerScheduler) {
+        mBiteDetector = detector;
+        mWorkerScheduler = workerScheduler;
+    }
+
+    @Override
+    public ObservableSource<DetectBitesResult> apply(Observable<DetectBitesAction> upstream) {
+        return upstream
+            .observeOn(mWorkerScheduler)
+            .map(new Function<DetectBitesAction, DetectBitesResult>() {
+                @Override
+                public DetectBitesResult apply(DetectBitesAction action)
+                    throws Exception {
+                    final List<DLibFace> faces = action.message;
+                    final List<DetectBitesResult.Player> players = new ArrayList<>();
+
+                    // The results are read in the same lock as the detection
+                    // for not mixing up the frames.
+                    synchronized (mBiteDetector) {
+                        final int count = mBiteDetector.detect(faces);
+                        for (int i = 0; i < count; ++i) {
+                            players.add(new DetectBitesResult.Player(
+                                mBiteDetector.getTrackId(i),
+                                DLibBiteDetectorTransformer.getInnerLipsBound(faces.get(i)),
+                                mBiteDetector.getBiteCount(i),
+                                mBiteDetector.isBite(i)));
+                        }
+                    }
+
+                    return new DetectBitesResult(players);
+                }
+            });
+    }
+}
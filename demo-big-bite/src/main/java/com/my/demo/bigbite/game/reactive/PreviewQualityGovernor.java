@@ -0,0 +1,234 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.reactive;
+
+import com.my.demo.bigbite.game.data.IFrameLatencyListener;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.Subject;
+
+/**
+ * Picks the camera preview size and frame rate from the given qualities to
+ * keep the detection latency around the target. It measures the latency of
+ * the frames, see {@link IFrameLatencyListener}, in windows. The latency of
+ * detecting a frame depends on the preview size but not on the frame rate, so
+ * the qualities should differ in size. It:
+ * <ul>
+ * <li>steps down a quality as soon as the p90 of a window is over
+ * {@code target * DOWN_RATIO},</li>
+ * <li>steps up a quality only after {@code UP_WINDOWS} windows in a row have
+ * the p90 under {@code target * UP_RATIO},</li>
+ * <li>skips the first window after a change, where the camera restarts,</li>
+ * <li>and doubles the windows to step up again if a step up is followed by
+ * a step down, so it doesn't flip between two qualities.</li>
+ * </ul>
+ * The decisions are emitted by {@link #getDecisions()}, starting with the
+ * initial quality, so the camera could be restarted with every decision:
+ * <pre>
+ * governor.getDecisions()
+ *     .observeOn(AndroidSchedulers.mainThread())
+ *     .switchMap(decision -&gt; CameraObservable.create(
+ *         context, view,
+ *         decision.quality.width, decision.quality.height, decision.quality.fps,
+ *         detector, governor))
+ * </pre>
+ */
+public final class PreviewQualityGovernor implements IFrameLatencyListener {
+
+    private static final float DOWN_RATIO = 1.25f;
+    private static final float UP_RATIO = 0.6f;
+    private static final int WINDOW_SIZE = 30;
+    private static final int UP_WINDOWS = 3;
+    private static final int MAX_UP_WINDOWS = 24;
+
+    private final List<Quality> mQualities;
+    private final float mTargetLatencyMs;
+
+    private final Subject<Decision> mDecisions;
+
+    // The states below are guarded by the governor itself. The frames come
+    // from the camera thread, while the old camera could still be running
+    // for a while after a change.
+    private int mQualityIndex;
+    private final float[] mWindow = new float[WINDOW_SIZE];
+    private final float[] mSortedWindow = new float[WINDOW_SIZE];
+    private int mWindowCount = 0;
+    private boolean mIsSettling = false;
+    private int mUnderWindowsCount = 0;
+    private int mUpWindows = UP_WINDOWS;
+    private boolean mIsLastStepUp = false;
+
+    /**
+     * @param qualities The qualities from the cheapest to the most costly.
+     * @param initialIndex The index of the initial quality.
+     * @param targetLatencyMs The target latency in milliseconds.
+     */
+    public PreviewQualityGovernor(final List<Quality> qualities,
+                                  final int initialIndex,
+                                  final float targetLatencyMs) {
+        if (qualities.isEmpty() ||
+            initialIndex < 0 || initialIndex >= qualities.size()) {
+            throw new IllegalArgumentException("Invalid qualities or initial index");
+        }
+
+        mQualities = Collections.unmodifiableList(qualities);
+        mTargetLatencyMs = targetLatencyMs;
+        mQualityIndex = initialIndex;
+
+        final Decision initialDecision = new Decision(
+            Decision.REASON_INITIAL, initialIndex, qualities.get(initialIndex), 0f);
+        mDecisions = BehaviorSubject.createDefault(initialDecision).toSerialized();
+    }
+
+    /**
+     * The stream of the decisions, starting with the latest one.
+     */
+    public Observable<Decision> getDecisions() {
+        return mDecisions;
+    }
+
+    @Override
+    public synchronized void onFrameLatency(float latencyMs) {
+        mWindow[mWindowCount++] = latencyMs;
+        if (mWindowCount < WINDOW_SIZE) return;
+        mWindowCount = 0;
+
+        // The window is of the frames of the previous quality and the camera
+        // restarting.
+        if (mIsSettling) {
+            mIsSettling = false;
+            return;
+        }
+
+        System.arraycopy(mWindow, 0, mSortedWindow, 0, WINDOW_SIZE);
+        Arrays.sort(mSortedWindow);
+        final float p90 = mSortedWindow[(int) Math.ceil(0.9 * WINDOW_SIZE) - 1];
+
+        if (p90 > mTargetLatencyMs * DOWN_RATIO) {
+            mUnderWindowsCount = 0;
+
+            if (mQualityIndex > 0) {
+                // The last step up was too much, so wait longer next time.
+                if (mIsLastStepUp) {
+                    mUpWindows = Math.min(2 * mUpWindows, MAX_UP_WINDOWS);
+                }
+                decide(Decision.REASON_TOO_SLOW, mQualityIndex - 1, p90);
+            }
+        } else if (p90 < mTargetLatencyMs * UP_RATIO) {
+            if (++mUnderWindowsCount >= mUpWindows &&
+                mQualityIndex < mQualities.size() - 1) {
+                mUnderWindowsCount = 0;
+                decide(Decision.REASON_FAST_ENOUGH, mQualityIndex + 1, p90);
+            }
+        } else {
+            // Within the band.
+            mUnderWindowsCount = 0;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private void decide(int reason,
+                        int index,
+                        float p90LatencyMs) {
+        mIsLastStepUp = index > mQualityIndex;
+        mQualityIndex = index;
+        mIsSettling = true;
+
+        mDecisions.onNext(new Decision(reason, index, mQualities.get(index),
+                                       p90LatencyMs));
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Clazz //////////////////////////////////////////////////////////////////
+
+    /**
+     * The camera preview size and the requested frame rate.
+     */
+    public static final class Quality {
+
+        public final int width;
+        public final int height;
+        public final float fps;
+
+        public Quality(final int width,
+                       final int height,
+                       final float fps) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + fps;
+        }
+    }
+
+    public static final class Decision {
+
+        public static final int REASON_INITIAL = 0;
+        public static final int REASON_TOO_SLOW = 1;
+        public static final int REASON_FAST_ENOUGH = 2;
+
+        public final int reason;
+        public final int qualityIndex;
+        public final Quality quality;
+        /**
+         * The p90 latency of the window making the decision, or zero for the
+         * initial one.
+         */
+        public final float p90LatencyMs;
+
+        Decision(final int reason,
+                 final int qualityIndex,
+                 final Quality quality,
+                 final float p90LatencyMs) {
+            this.reason = reason;
+            this.qualityIndex = qualityIndex;
+            this.quality = quality;
+            this.p90LatencyMs = p90LatencyMs;
+        }
+
+        @Override
+        public String toString() {
+            final String reasonName;
+            switch (reason) {
+                case REASON_TOO_SLOW:
+                    reasonName = "too slow";
+                    break;
+                case REASON_FAST_ENOUGH:
+                    reasonName = "fast enough";
+                    break;
+                default:
+                    reasonName = "initial";
+            }
+            return String.format("Decision{%s, quality #%d=%s, p90=%.1f ms}",
+                                 reasonName, qualityIndex, quality, p90LatencyMs);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.replay;
+
+import com.my.jni.dlib.data.DLibFace;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A frame of the landmarks recording, see {@link LandmarksRecordingWriter}.
+ */
+public final class LandmarksFrame {
+
+    /**
+     * The timestamp of the camera frame in milliseconds.
+     */
+    public final long timestamp;
+    public final List<DLibFace> faces;
+
+    /**
+     * The luma plane of the preview frame, or null if the preview isn't
+     * recorded.
+     */
+    public final ByteBuffer luma;
+    public final int width;
+    public final int height;
+
+    public LandmarksFrame(final long timestamp,
+                          final List<DLibFace> faces,
+                          final ByteBuffer luma,
+                          final int width,
+                          final int height) {
+        this.timestamp = timestamp;
+        this.faces = faces;
+        this.luma = luma;
+        this.width = width;
+        this.height = height;
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.replay;
+
+import com.my.jni.dlib.data.DLibFace;
+import com.my.jni.dlib.data.DLibFace68;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the frames written by {@link LandmarksRecordingWriter} one by one.
+ */
+public final class LandmarksRecordingReader implements Closeable {
+
+    private final DataInputStream mIn;
+    private final int mPackedFaceSize;
+    private final boolean mHasPreview;
+
+    /**
+     * @throws IOException Fired if the file isn't a landmarks recording.
+     */
+    public LandmarksRecordingReader(final File file) throws IOException {
+        mIn = new DataInputStream(new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(file))));
+
+        try {
+            if (mIn.readInt() != LandmarksRecordingWriter.MAGIC) {
+                throw new IOException(file + " isn't a landmarks recording");
+            }
+            final int version = mIn.readInt();
+            if (version != LandmarksRecordingWriter.VERSION) {
+                throw new IOException("Unsupported version " + version + " of " + file);
+            }
+            mPackedFaceSize = mIn.readInt();
+            if (mPackedFaceSize != DLibFace68.PACKED_FACE_SIZE) {
+                throw new IOException("Unsupported face size " + mPackedFaceSize + " of " + file);
+            }
+            mHasPreview = mIn.readBoolean();
+        } catch (IOException err) {
+            mIn.close();
+            throw err;
+        }
+    }
+
+    public boolean hasPreview() {
+        return mHasPreview;
+    }
+
+    /**
+     * Read the next frame.
+     *
+     * @return The frame, or null if it's the end of the recording.
+     * @throws IOException Fired if the recording is truncated in a frame.
+     */
+    public LandmarksFrame read() throws IOException {
+        final long timestamp;
+        try {
+            timestamp = mIn.readLong();
+        } catch (EOFException ignored) {
+            return null;
+        }
+
+        final int faceCount = mIn.readShort();
+        final float[] packed = new float[faceCount * mPackedFaceSize];
+        for (int i = 0; i < packed.length; ++i) {
+            packed[i] = mIn.readFloat();
+        }
+        final List<DLibFace> faces = new ArrayList<>(faceCount);
+        for (int i = 0; i < faceCount; ++i) {
+            faces.add(new DLibFace68(packed, i * mPackedFaceSize));
+        }
+
+        if (mHasPreview) {
+            final int width = mIn.readInt();
+            final int height = mIn.readInt();
+            final byte[] luma = new byte[width * height];
+            mIn.readFully(luma);
+
+            return new LandmarksFrame(timestamp, faces, ByteBuffer.wrap(luma),
+                                      width, height);
+        } else {
+            return new LandmarksFrame(timestamp, faces, null, 0, 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+}
@@ -0,0 +1,141 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.replay;
+
+import com.my.jni.dlib.data.DLibFace;
+import com.my.jni.dlib.data.DLibFace68;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the timestamped faces, and optionally the luma plane of the preview
+ * frames, to a gzipped file for replaying the detection later, see
+ * {@link LandmarksRecordingReader} and {@link LandmarksReplayObservable}.
+ * <br/>
+ * The layout in big-endian is:
+ * <pre>
+ * header: int MAGIC, int VERSION, int PACKED_FACE_SIZE, boolean hasPreview
+ * frame:  long timestamp, short faceCount,
+ *         float[PACKED_FACE_SIZE] per face (see DLibFace68#PACKED_FACE_SIZE),
+ *         and if hasPreview: int width, int height, byte[width * height]
+ * </pre>
+ * It's thread-safe.
+ */
+public final class LandmarksRecordingWriter implements Closeable {
+
+    static final int MAGIC = 0x42424C52; // "BBLR"
+    static final int VERSION = 1;
+
+    private final DataOutputStream mOut;
+    private final boolean mHasPreview;
+
+    private final float[] mPackedFace = new float[DLibFace68.PACKED_FACE_SIZE];
+    private byte[] mLuma = new byte[0];
+
+    /**
+     * @param hasPreview True to record the luma plane of the preview frames
+     *                   as well, which takes a lot more space.
+     */
+    public LandmarksRecordingWriter(final File file,
+                                    final boolean hasPreview)
+        throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(
+            new GZIPOutputStream(new FileOutputStream(file))));
+        mHasPreview = hasPreview;
+
+        mOut.writeInt(MAGIC);
+        mOut.writeInt(VERSION);
+        mOut.writeInt(DLibFace68.PACKED_FACE_SIZE);
+        mOut.writeBoolean(hasPreview);
+    }
+
+    public boolean hasPreview() {
+        return mHasPreview;
+    }
+
+    /**
+     * Write a frame.
+     *
+     * @param timestamp The timestamp of the camera frame in milliseconds.
+     * @param faces The faces of the frame, maybe empty.
+     * @param luma The luma plane, starting from index 0 of the buffer. It's
+     *             ignored unless the preview is recorded.
+     */
+    public synchronized void write(final long timestamp,
+                                   final List<DLibFace> faces,
+                                   final ByteBuffer luma,
+                                   final int width,
+                                   final int height)
+        throws IOException {
+        mOut.writeLong(timestamp);
+        mOut.writeShort(faces.size());
+        for (DLibFace face : faces) {
+            packFace(face);
+            for (float value : mPackedFace) {
+                mOut.writeFloat(value);
+            }
+        }
+
+        if (mHasPreview) {
+            final int size = width * height;
+            if (mLuma.length < size) {
+                mLuma = new byte[size];
+            }
+            final ByteBuffer src = luma.duplicate();
+            src.clear();
+            src.get(mLuma, 0, size);
+
+            mOut.writeInt(width);
+            mOut.writeInt(height);
+            mOut.write(mLuma, 0, size);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mOut.close();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private void packFace(final DLibFace face) {
+        mPackedFace[DLibFace68.PACKED_BOUND_OFFSET] = face.getBound().left;
+        mPackedFace[DLibFace68.PACKED_BOUND_OFFSET + 1] = face.getBound().top;
+        mPackedFace[DLibFace68.PACKED_BOUND_OFFSET + 2] = face.getBound().right;
+        mPackedFace[DLibFace68.PACKED_BOUND_OFFSET + 3] = face.getBound().bottom;
+
+        final int count = Math.min(face.getLandmarksCount(), DLibFace68.LANDMARKS_COUNT);
+        for (int i = 0; i < DLibFace68.LANDMARKS_COUNT; ++i) {
+            final int offset = DLibFace68.PACKED_LANDMARKS_OFFSET + 2 * i;
+            mPackedFace[offset] = i < count ? face.getX(i) : 0f;
+            mPackedFace[offset + 1] = i < count ? face.getY(i) : 0f;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.replay;
+
+import com.my.core.protocol.ISystemClock;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+
+/**
+ * An observable replaying the frames of a landmarks recording, see
+ * {@link LandmarksRecordingWriter}, on the subscribing thread. It works on
+ * the desktop JVM as well, so the detection pipeline could be benchmarked
+ * with the recordings of real games.
+ * <br/>
+ * Usage:
+ * <pre>
+ * final LandmarksReplayObservable replay = LandmarksReplayObservable
+ *     .create(file, false);
+ * replay
+ *     .filter(...)
+ *     .map(...)
+ *     .compose(new DLibBiteDetectorTransformer(
+ *         new DLibBiteDetector(replay.getClock()),
+ *         Schedulers.trampoline()))
+ *     .subscribe(...);
+ * </pre>
+ */
+public final class LandmarksReplayObservable extends Observable<LandmarksFrame> {
+
+    private final File mFile;
+    private final boolean mIsRealTime;
+
+    private volatile long mLatestTimestamp = 0;
+
+    /**
+     * @param isRealTime True to emit the frames at the pace they're recorded,
+     *                   or false to emit them as fast as possible.
+     */
+    public static LandmarksReplayObservable create(final File file,
+                                                   final boolean isRealTime) {
+        return new LandmarksReplayObservable(file, isRealTime);
+    }
+
+    /**
+     * The clock telling the timestamp of the latest emitted frame, in place
+     * of the system clock of the detectors. It's only exact if the frames are
+     * processed on the emitting thread, e.g. with
+     * {@code Schedulers.trampoline()}.
+     */
+    public ISystemClock getClock() {
+        return new ISystemClock() {
+            @Override
+            public long getCurrentTimeMillis() {
+                return mLatestTimestamp;
+            }
+
+            @Override
+            public long getCurrentTimeNanos() {
+                return TimeUnit.MILLISECONDS.toNanos(mLatestTimestamp);
+            }
+        };
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private LandmarksReplayObservable(final File file,
+                                      final boolean isRealTime) {
+        mFile = file;
+        mIsRealTime = isRealTime;
+    }
+
+    @Override
+    protected void subscribeActual(Observer<? super LandmarksFrame> observer) {
+        final Disposable disposable = Disposables.empty();
+        observer.onSubscribe(disposable);
+
+        LandmarksRecordingReader reader = null;
+        try {
+            reader = new LandmarksRecordingReader(mFile);
+
+            final long startTime = System.nanoTime();
+            long firstTimestamp = -1;
+            LandmarksFrame frame;
+            while (!disposable.isDisposed() &&
+                   (frame = reader.read()) != null) {
+                if (mIsRealTime) {
+                    if (firstTimestamp < 0) {
+                        firstTimestamp = frame.timestamp;
+                    }
+
+                    // Wait for the time the frame is recorded.
+                    final long delay = (frame.timestamp - firstTimestamp) -
+                                       TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                }
+
+                mLatestTimestamp = frame.timestamp;
+                observer.onNext(frame);
+            }
+
+            if (!disposable.isDisposed()) {
+                observer.onComplete();
+            }
+        } catch (Throwable err) {
+            if (!disposable.isDisposed()) {
+                observer.onError(err);
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (Throwable ignored) {
+                    // DO NOTHING.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.replay;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.my.jni.dlib.data.DLibFace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A detector recording the faces found by the given detector, and optionally
+ * the preview frames, frame by frame. Give it to the
+ * {@link com.my.demo.bigbite.game.reactive.CameraObservable} in place of the
+ * given detector:
+ * <pre>
+ * CameraObservable.create(
+ *     getContext(), view, 320, 240,
+ *     new RecordingDetector(getFaceDetector(),
+ *                           new LandmarksRecordingWriter(file, false)));
+ * </pre>
+ * The writer is closed once the detector is released. The faces are written
+ * with the timestamp of the frame they're returned for, so the faces of the
+ * pipelined {@link com.my.demo.bigbite.game.detector.DLibLandmarksDetector}
+ * are one frame behind the recorded preview.
+ */
+public final class RecordingDetector extends Detector<DLibFace> {
+
+    private final Detector<DLibFace> mDelegateDetector;
+    private final LandmarksRecordingWriter mWriter;
+
+    private final List<DLibFace> mFaces = new ArrayList<>();
+    private boolean mIsFailed = false;
+
+    public RecordingDetector(final Detector<DLibFace> detector,
+                             final LandmarksRecordingWriter writer) {
+        mDelegateDetector = detector;
+        mWriter = writer;
+
+        setProcessor(new Processor<DLibFace>() {
+            @Override
+            public void release() {
+                // DUMMY IMPL.
+            }
+
+            @Override
+            public void receiveDetections(Detections<DLibFace> detections) {
+                // DUMMY IMPL.
+            }
+        });
+    }
+
+    @Override
+    public SparseArray<DLibFace> detect(Frame frame) {
+        final SparseArray<DLibFace> faces = mDelegateDetector.detect(frame);
+
+        if (!mIsFailed) {
+            mFaces.clear();
+            for (int i = 0; faces != null && i < faces.size(); ++i) {
+                mFaces.add(faces.valueAt(i));
+            }
+
+            try {
+                mWriter.write(frame.getMetadata().getTimestampMillis(),
+                              mFaces,
+                              frame.getGrayscaleImageData(),
+                              frame.getMetadata().getWidth(),
+                              frame.getMetadata().getHeight());
+            } catch (IOException err) {
+                // Stop recording but keep detecting.
+                Log.e("replay", "Failed to record the frame", err);
+                mIsFailed = true;
+            }
+        }
+
+        return faces;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        mDelegateDetector.release();
+
+        try {
+            mWriter.close();
+        } catch (IOException err) {
+            Log.e("replay", "Failed to close the recording", err);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.demo.bigbite.game.view;
+
+import com.my.jni.dlib.data.DLibFace;
+
+import java.util.List;
+
+/**
+ * The line endpoints of the landmarks of the faces, [x0, y0, x1, y1, ...] as
+ * {@link android.graphics.Canvas#drawLines(float[], int, int, android.graphics.Paint)}
+ * takes. The lines are grouped by region, so a region of all the faces is one
+ * draw call. The array only grows if there are more faces than ever.
+ */
+final class FaceLandmarksLines {
+
+    // Whether the last landmark of the region connects to the first one,
+    // indexed by the REGION_* constants.
+    private static final boolean[] IS_CLOSED_REGION = new boolean[]{
+        false, // Chin.
+        false, // Left eyebrow.
+        false, // Right eyebrow.
+        false, // Nose.
+        true, // Left eye.
+        true, // Right eye.
+        true, // Outer lips.
+        true}; // Inner lips.
+
+    float[] points = new float[0];
+    // The offset and the number of the floats of the region, indexed by the
+    // REGION_* constants.
+    final int[] regionOffsets = new int[DLibFace.REGIONS_COUNT];
+    final int[] regionLengths = new int[DLibFace.REGIONS_COUNT];
+
+    /**
+     * Set the lines from the faces.
+     *
+     * @param faces The faces whose landmarks are normalized.
+     * @param scaleX The scale from the normalized x to the canvas one.
+     * @param scaleY The scale from the normalized y to the canvas one.
+     */
+    void set(final List<DLibFace> faces,
+             final float scaleX,
+             final float scaleY) {
+        // Lay the regions out.
+        int size = 0;
+        for (int region = 0; region < DLibFace.REGIONS_COUNT; ++region) {
+            int length = 0;
+            for (int i = 0; i < faces.size(); ++i) {
+                length += 4 * getSegmentsCount(faces.get(i), region);
+            }
+
+            regionOffsets[region] = size;
+            regionLengths[region] = length;
+            size += length;
+        }
+        if (points.length < size) {
+            points = new float[size];
+        }
+
+        for (int region = 0; region < DLibFace.REGIONS_COUNT; ++region) {
+            int at = regionOffsets[region];
+            for (int i = 0; i < faces.size(); ++i) {
+                final DLibFace face = faces.get(i);
+                final int start = face.getRegionOffset(region);
+                final int count = getSegmentsCount(face, region);
+                final int length = face.getRegionLength(region);
+
+                for (int k = 0; k < count; ++k) {
+                    final int from = start + k;
+                    final int to = start + (k + 1) % length;
+
+                    points[at++] = scaleX * face.getX(from);
+                    points[at++] = scaleY * face.getY(from);
+                    points[at++] = scaleX * face.getX(to);
+                    points[at++] = scaleY * face.getY(to);
+                }
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private static int getSegmentsCount(DLibFace face,
+                                        int region) {
+        final int length = face.getRegionLength(region);
+        if (length < 2) return 0;
+
+        return IS_CLOSED_REGION[region] ? length : length - 1;
+    }
+}
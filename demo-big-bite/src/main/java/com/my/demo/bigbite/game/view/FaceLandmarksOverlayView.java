@@ -31,16 +31,17 @@ import android.view.View;
 import com.my.demo.bigbite.R;
 import com.my.demo.bigbite.game.data.IDLibFaceOverlay;
 import com.my.jni.dlib.data.DLibFace;
-import com.my.jni.dlib.data.DLibFace68;
 
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 public class FaceLandmarksOverlayView
     extends View
     implements IDLibFaceOverlay {
 
+    // Guards the swap of the lines and the drawing.
     private final Object mMutex = new Object();
+    // Serializes the writers of the back lines.
+    private final Object mWriteMutex = new Object();
 
     // Stroke & paint.
     private static final float WIDTH = 2.f;
@@ -52,7 +53,11 @@ public class FaceLandmarksOverlayView
     private int mPreviewWidth;
     private int mPreviewHeight;
     private float mScaleFromPreviewToView = 1f;
-    private final List<DLibFace> mFaces = new CopyOnWriteArrayList<>();
+    // The lines are written to the back buffer by the detector thread and
+    // swapped with the front one being drawn, so nothing is allocated per
+    // frame.
+    private FaceLandmarksLines mFrontLines = new FaceLandmarksLines();
+    private FaceLandmarksLines mBackLines = new FaceLandmarksLines();
 
     public FaceLandmarksOverlayView(Context context) {
         this(context, null);
@@ -92,20 +97,25 @@ public class FaceLandmarksOverlayView
         mScaleFromPreviewToView = scale;
     }
 
+    /**
+     * Set the faces to draw, which could be called from any thread. The
+     * faces aren't retained.
+     */
     @Override
     public void setFaces(List<DLibFace> faces) {
-        synchronized (mMutex) {
-            mFaces.clear();
-
-            for (int i = 0; i < faces.size(); ++i) {
-                mFaces.add(new DLibFace68(
-                    faces.get(i),
-                    mPreviewWidth,
-                    mPreviewHeight));
+        synchronized (mWriteMutex) {
+            // The back lines aren't drawn, so they're written out of the
+            // lock of the drawing.
+            mBackLines.set(faces, mPreviewWidth, mPreviewHeight);
+
+            synchronized (mMutex) {
+                final FaceLandmarksLines lines = mFrontLines;
+                mFrontLines = mBackLines;
+                mBackLines = lines;
             }
         }
 
-        invalidate();
+        postInvalidate();
     }
 
     @Override
@@ -120,118 +130,16 @@ public class FaceLandmarksOverlayView
         // Adjust stroke width.
         mStrokePaint.setStrokeWidth(mStrokeWidth / mScaleFromPreviewToView);
 
-        // Render all faces.
+        // Render the regions of all faces, a region at a time.
         synchronized (mMutex) {
-            for (int i = 0; i < mFaces.size(); ++i) {
-                final DLibFace face = mFaces.get(i);
-
-                // Render boundary.
-//                canvas.drawRect(face.getBound(), mStrokePaint);
-
-                // Render face's landmarks.
-                for (int j = 0; j < face.getAllLandmarks().size(); ++j) {
-                    // Render chin.
-//                    final List<DLibFace.Landmark> chinMarks = face.getChinLandmarks();
-//                    for (int k = 1; k < chinMarks.size(); ++k) {
-//                        final DLibFace.Landmark prev = chinMarks.get(k - 1);
-//                        final DLibFace.Landmark current = chinMarks.get(k);
-//
-//                        canvas.drawLine(prev.x, prev.y, current.x, current.y, mStrokePaint);
-//                    }
-
-                    // Render left eyebrow.
-//                    final List<DLibFace.Landmark> leftEyebrowMarks = face.getLeftEyebrowLandmarks();
-//                    for (int k = 1; k < leftEyebrowMarks.size(); ++k) {
-//                        final DLibFace.Landmark prev = leftEyebrowMarks.get(k - 1);
-//                        final DLibFace.Landmark current = leftEyebrowMarks.get(k);
-//
-//                        canvas.drawLine(prev.x, prev.y, current.x, current.y, mStrokePaint);
-//                    }
-
-                    // Render right eyebrow.
-//                    final List<DLibFace.Landmark> rightEyebrowMarks = face.getRightEyebrowLandmarks();
-//                    for (int k = 1; k < rightEyebrowMarks.size(); ++k) {
-//                        final DLibFace.Landmark prev = rightEyebrowMarks.get(k - 1);
-//                        final DLibFace.Landmark current = rightEyebrowMarks.get(k);
-//
-//                        canvas.drawLine(prev.x, prev.y, current.x, current.y, mStrokePaint);
-//                    }
-
-                    // Render left eye.
-//                    final List<DLibFace.Landmark> leftEyeMarks = face.getLeftEyeLandmarks();
-//                    for (int k = 1; k < leftEyeMarks.size(); ++k) {
-//                        final DLibFace.Landmark prev = leftEyeMarks.get(k - 1);
-//                        final DLibFace.Landmark current = leftEyeMarks.get(k);
-//
-//                        canvas.drawLine(prev.x, prev.y, current.x, current.y, mStrokePaint);
-//
-//                        if (k == leftEyeMarks.size() - 1) {
-//                            final DLibFace.Landmark first = leftEyeMarks.get(0);
-//                            canvas.drawLine(current.x, current.y,
-//                                            first.x, first.y, mStrokePaint);
-//                        }
-//                    }
-
-                    // Render right eye.
-//                    final List<DLibFace.Landmark> rightEyeMarks = face.getRightEyeLandmarks();
-//                    for (int k = 1; k < rightEyeMarks.size(); ++k) {
-//                        final DLibFace.Landmark prev = rightEyeMarks.get(k - 1);
-//                        final DLibFace.Landmark current = rightEyeMarks.get(k);
-//
-//                        canvas.drawLine(prev.x, prev.y, current.x, current.y, mStrokePaint);
-//
-//                        if (k == rightEyeMarks.size() - 1) {
-//                            final DLibFace.Landmark first = rightEyeMarks.get(0);
-//                            canvas.drawLine(current.x, current.y,
-//                                            first.x, first.y, mStrokePaint);
-//                        }
-//                    }
-
-                    // Render nose.
-//                    final List<DLibFace.Landmark> noseMarks = face.getNoseLandmarks();
-//                    for (int k = 1; k < noseMarks.size(); ++k) {
-//                        final DLibFace.Landmark prev = noseMarks.get(k - 1);
-//                        final DLibFace.Landmark current = noseMarks.get(k);
-//
-//                        canvas.drawLine(prev.x, prev.y, current.x, current.y, mStrokePaint);
-//                    }
-
-                    // Render inner lips.
-                    final List<DLibFace.Landmark> innerLipsMarks = face.getInnerLipsLandmarks();
-                    for (int k = 1; k < innerLipsMarks.size(); ++k) {
-                        final DLibFace.Landmark prev = innerLipsMarks.get(k - 1);
-                        final DLibFace.Landmark current = innerLipsMarks.get(k);
-
-                        canvas.drawLine(prev.x, prev.y, current.x, current.y, mStrokePaint);
-
-//                        if (k == 1) {
-//                            canvas.drawText(String.valueOf(k - 1),
-//                                            prev.x, prev.y,
-//                                            mStrokePaint);
-//                        }
-
-                        if (k == innerLipsMarks.size() - 1) {
-                            final DLibFace.Landmark first = innerLipsMarks.get(0);
-                            canvas.drawLine(current.x, current.y,
-                                            first.x, first.y, mStrokePaint);
-                        }
-                    }
-
-                    // Render outer lips.
-//                    final List<DLibFace.Landmark> outerLipsMarks = face.getOuterLipsLandmarks();
-//                    for (int k = 1; k < outerLipsMarks.size(); ++k) {
-//                        final DLibFace.Landmark prev = outerLipsMarks.get(k - 1);
-//                        final DLibFace.Landmark current = outerLipsMarks.get(k);
-//
-//                        canvas.drawLine(prev.x, prev.y, current.x, current.y, mStrokePaint);
-//
-//                        if (k == outerLipsMarks.size() - 1) {
-//                            final DLibFace.Landmark first = outerLipsMarks.get(0);
-//                            canvas.drawLine(current.x, current.y,
-//                                            first.x, first.y, mStrokePaint);
-//                        }
-//                    }
-                }
+            final FaceLandmarksLines lines = mFrontLines;
+            for (int region = 0; region < DLibFace.REGIONS_COUNT; ++region) {
+                if (lines.regionLengths[region] == 0) continue;
+
+                canvas.drawLines(lines.points,
+                                 lines.regionOffsets[region],
+                                 lines.regionLengths[region],
+                                 mStrokePaint);
             }
         }
 
@@ -0,0 +1,123 @@
+package com.my.demo.bigbite.game.detector;
+
+import com.my.jni.dlib.data.DLibFace;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public class DLibBiteDetectorTest {
+
+    private static final DLibFace CLOSED_MOUTH = FaceFixtures.createFace(0f);
+    private static final DLibFace OPENED_MOUTH = FaceFixtures.createFace(10f);
+    // The frames are 33 ms apart.
+    private static final long FRAME_INTERVAL_MS = 33;
+
+    private final FakeSystemClock mClock = new FakeSystemClock();
+
+    @Test
+    public void countsAnOpenAndCloseAsABite() throws Exception {
+        final DLibBiteDetector detector = new DLibBiteDetector(mClock);
+
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertFalse(detectNextFrame(detector, CLOSED_MOUTH));
+        }
+        for (int i = 0; i < 4; ++i) {
+            Assert.assertFalse(detectNextFrame(detector, OPENED_MOUTH));
+        }
+        int bites = 0;
+        for (int i = 0; i < 4; ++i) {
+            if (detectNextFrame(detector, CLOSED_MOUTH)) ++bites;
+        }
+
+        Assert.assertEquals(1, bites);
+        Assert.assertEquals(1, detector.getBiteCount());
+    }
+
+    @Test
+    public void ignoresTheFramesOfTheSameTimestamp() throws Exception {
+        final DLibBiteDetector detector = new DLibBiteDetector(mClock);
+
+        for (int i = 0; i < 3; ++i) detectNextFrame(detector, CLOSED_MOUTH);
+        for (int i = 0; i < 4; ++i) detectNextFrame(detector, OPENED_MOUTH);
+        for (int i = 0; i < 4; ++i) detectNextFrame(detector, CLOSED_MOUTH);
+        Assert.assertEquals(1, detector.getBiteCount());
+
+        // The same frame again isn't another bite.
+        Assert.assertFalse(detector.detect(CLOSED_MOUTH));
+        Assert.assertEquals(1, detector.getBiteCount());
+    }
+
+    @Test
+    public void detectsNothingWhileTheClockDoesNotAdvance() throws Exception {
+        final DLibBiteDetector detector = new DLibBiteDetector(mClock);
+        mClock.advance(FRAME_INTERVAL_MS);
+
+        // A clock that doesn't move, e.g. a CPU time of a waiting thread,
+        // records one frame only.
+        for (int i = 0; i < 3; ++i) Assert.assertFalse(detector.detect(CLOSED_MOUTH));
+        for (int i = 0; i < 4; ++i) Assert.assertFalse(detector.detect(OPENED_MOUTH));
+        for (int i = 0; i < 4; ++i) Assert.assertFalse(detector.detect(CLOSED_MOUTH));
+        Assert.assertEquals(0, detector.getBiteCount());
+
+        // And the detection goes on once it advances.
+        for (int i = 0; i < 3; ++i) detectNextFrame(detector, CLOSED_MOUTH);
+        for (int i = 0; i < 4; ++i) detectNextFrame(detector, OPENED_MOUTH);
+        for (int i = 0; i < 4; ++i) detectNextFrame(detector, CLOSED_MOUTH);
+        Assert.assertEquals(1, detector.getBiteCount());
+    }
+
+    @Test
+    public void detectAllocatesNothingInTheSteadyState() throws Exception {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("No allocation counter in this JVM",
+                          bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean counter =
+            (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue("The allocation counter is off",
+                          counter.isThreadAllocatedMemorySupported() &&
+                          counter.isThreadAllocatedMemoryEnabled());
+
+        final DLibBiteDetector detector = new DLibBiteDetector(mClock);
+        final long threadId = Thread.currentThread().getId();
+
+        // Warm up, so the code is compiled.
+        runBites(detector, 20000);
+
+        final int iterations = 200000;
+        final long start = System.nanoTime();
+        final long before = counter.getThreadAllocatedBytes(threadId);
+        runBites(detector, iterations);
+        final long allocated = counter.getThreadAllocatedBytes(threadId) - before;
+        final long duration = System.nanoTime() - start;
+
+        System.out.println(String.format(
+            "%d detections: %.1f ns and %.3f bytes per detection",
+            iterations, (double) duration / iterations,
+            (double) allocated / iterations));
+        // Allow a few bytes of the counter itself, but not a byte per frame.
+        Assert.assertEquals(0, allocated / iterations);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private boolean detectNextFrame(DLibBiteDetector detector,
+                                    DLibFace face) {
+        mClock.advance(FRAME_INTERVAL_MS);
+        return detector.detect(face);
+    }
+
+    /**
+     * Open and close the mouth every 5 frames.
+     */
+    private void runBites(DLibBiteDetector detector,
+                          int count) {
+        for (int i = 0; i < count; ++i) {
+            detectNextFrame(detector, (i / 5) % 2 == 0 ? CLOSED_MOUTH : OPENED_MOUTH);
+        }
+    }
+}
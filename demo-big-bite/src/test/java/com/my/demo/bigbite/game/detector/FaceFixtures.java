@@ -0,0 +1,51 @@
+package com.my.demo.bigbite.game.detector;
+
+import com.my.jni.dlib.data.DLibFace;
+import com.my.jni.dlib.data.DLibFace68;
+
+/**
+ * The faces for the bite detection tests.
+ */
+public final class FaceFixtures {
+
+    /**
+     * A face whose inner lips are 40 pixels wide and open by the given height
+     * at the top and the bottom.
+     */
+    public static DLibFace createFace(float openingHeight) {
+        return createFace(openingHeight, 0f);
+    }
+
+    /**
+     * A face 100 pixels wide at the given x, whose inner lips are 40 pixels
+     * wide and open by the given height at the top and the bottom.
+     */
+    public static DLibFace createFace(float openingHeight,
+                                      float x) {
+        final float[] packed = new float[DLibFace68.PACKED_FACE_SIZE];
+        // The other landmarks span the face bound.
+        for (int i = 0; i < DLibFace68.LANDMARKS_COUNT; ++i) {
+            packed[DLibFace68.PACKED_LANDMARKS_OFFSET + 2 * i] = x + 100f * (i % 2);
+            packed[DLibFace68.PACKED_LANDMARKS_OFFSET + 2 * i + 1] = 50f + 150f * (i % 2);
+        }
+        final int lips = DLibFace68.PACKED_LANDMARKS_OFFSET +
+                         2 * new DLibFace68().getRegionOffset(DLibFace.REGION_INNER_LIPS);
+        // The corners, the upper lip and the lower lip, see DLibBiteDetector.
+        final float[] xs = new float[]{0f, 10f, 20f, 30f, 40f, 30f, 20f, 10f};
+        final float[] ys = new float[]{0f, -openingHeight, -openingHeight, -openingHeight,
+                                       0f, openingHeight, openingHeight, openingHeight};
+        for (int i = 0; i < xs.length; ++i) {
+            packed[lips + 2 * i] = x + 30f + xs[i];
+            packed[lips + 2 * i + 1] = 150f + ys[i];
+        }
+
+        return new DLibFace68(packed, 0);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private FaceFixtures() {
+        // Static helpers only.
+    }
+}
@@ -0,0 +1,25 @@
+package com.my.demo.bigbite.game.detector;
+
+import com.my.core.protocol.ISystemClock;
+
+/**
+ * A clock only moved by the test.
+ */
+public final class FakeSystemClock implements ISystemClock {
+
+    private long mTimeMillis = 0;
+
+    public void advance(long millis) {
+        mTimeMillis += millis;
+    }
+
+    @Override
+    public long getCurrentTimeMillis() {
+        return mTimeMillis;
+    }
+
+    @Override
+    public long getCurrentTimeNanos() {
+        return mTimeMillis * 1000000L;
+    }
+}
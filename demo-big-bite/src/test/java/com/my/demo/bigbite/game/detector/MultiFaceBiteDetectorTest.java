@@ -0,0 +1,144 @@
+package com.my.demo.bigbite.game.detector;
+
+import com.my.jni.dlib.data.DLibFace;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public class MultiFaceBiteDetectorTest {
+
+    @Test
+    public void keepsTheTracksWhenTheFacesAreReordered() throws Exception {
+        final FakeSystemClock clock = new FakeSystemClock();
+        final MultiFaceBiteDetector detector = new MultiFaceBiteDetector(4, clock, null);
+        final DLibFace left = FaceFixtures.createFace(0f, 0f);
+        final DLibFace right = FaceFixtures.createFace(0f, 300f);
+
+        detect(detector, clock, left, right);
+        final int leftId = detector.getTrackId(0);
+        final int rightId = detector.getTrackId(1);
+        Assert.assertNotEquals(leftId, rightId);
+
+        detect(detector, clock, right, left);
+        Assert.assertEquals(rightId, detector.getTrackId(0));
+        Assert.assertEquals(leftId, detector.getTrackId(1));
+    }
+
+    @Test
+    public void countsTheBitesOfEveryPlayer() throws Exception {
+        final FakeSystemClock clock = new FakeSystemClock();
+        final MultiFaceBiteDetector detector = new MultiFaceBiteDetector(4, clock, null);
+
+        // Only the left player bites, while the faces swap in the list.
+        runBites(detector, clock, 2, 1);
+
+        Assert.assertEquals(1, detector.getBiteCount(0));
+        Assert.assertEquals(0, detector.getBiteCount(1));
+    }
+
+    @Test
+    public void newFaceStartsOver() throws Exception {
+        final FakeSystemClock clock = new FakeSystemClock();
+        final MultiFaceBiteDetector detector = new MultiFaceBiteDetector(4, clock, null);
+        runBites(detector, clock, 1, 1);
+        Assert.assertEquals(1, detector.getBiteCount(0));
+        final int oldId = detector.getTrackId(0);
+
+        // Another face far away is another player.
+        detect(detector, clock, FaceFixtures.createFace(0f, 600f));
+        Assert.assertNotEquals(oldId, detector.getTrackId(0));
+        Assert.assertEquals(0, detector.getBiteCount(0));
+    }
+
+    @Test
+    public void detectsTheBitesInParallel() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final FakeSystemClock clock = new FakeSystemClock();
+            final MultiFaceBiteDetector detector = new MultiFaceBiteDetector(
+                MultiFaceBiteDetector.PARALLEL_THRESHOLD, clock, executor);
+
+            runBites(detector, clock, MultiFaceBiteDetector.PARALLEL_THRESHOLD, 2);
+
+            for (int i = 0; i < MultiFaceBiteDetector.PARALLEL_THRESHOLD; ++i) {
+                Assert.assertEquals(i < 2 ? 1 : 0, detector.getBiteCount(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void detectsTheRejectedBitesInline() throws Exception {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            // Reject every other task.
+            final Executor executor = new Executor() {
+                int mCount = 0;
+
+                @Override
+                public void execute(Runnable task) {
+                    if (++mCount % 2 == 0) {
+                        throw new RejectedExecutionException("The executor is full");
+                    }
+                    pool.execute(task);
+                }
+            };
+            final FakeSystemClock clock = new FakeSystemClock();
+            final MultiFaceBiteDetector detector = new MultiFaceBiteDetector(
+                MultiFaceBiteDetector.PARALLEL_THRESHOLD, clock, executor);
+
+            runBites(detector, clock, MultiFaceBiteDetector.PARALLEL_THRESHOLD, 2);
+
+            for (int i = 0; i < MultiFaceBiteDetector.PARALLEL_THRESHOLD; ++i) {
+                Assert.assertEquals(i < 2 ? 1 : 0, detector.getBiteCount(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private static void detect(MultiFaceBiteDetector detector,
+                               FakeSystemClock clock,
+                               DLibFace... faces) {
+        // The frames are 33 ms apart.
+        clock.advance(33);
+        detector.detect(Arrays.asList(faces));
+    }
+
+    /**
+     * The given number of players side by side, where the first biting ones
+     * open and close the mouth once, and the faces are listed in the reverse
+     * order every other frame. The last frame is in the original order.
+     */
+    private static void runBites(MultiFaceBiteDetector detector,
+                                 FakeSystemClock clock,
+                                 int players,
+                                 int bitingPlayers) {
+        final float[] openings = new float[]{0f, 0f, 0f, 10f, 10f, 10f, 10f, 0f, 0f, 0f, 0f};
+        for (int frame = 0; frame < openings.length; ++frame) {
+            final List<DLibFace> faces = new ArrayList<>();
+            for (int i = 0; i < players; ++i) {
+                faces.add(FaceFixtures.createFace(i < bitingPlayers ? openings[frame] : 0f, 300f * i));
+            }
+            if (frame % 2 == 1) {
+                Collections.reverse(faces);
+            }
+
+            clock.advance(33);
+            detector.detect(faces);
+        }
+    }
+}
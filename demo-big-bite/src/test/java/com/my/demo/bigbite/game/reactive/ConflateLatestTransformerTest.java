@@ -0,0 +1,71 @@
+package com.my.demo.bigbite.game.reactive;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+
+public class ConflateLatestTransformerTest {
+
+    @Test
+    public void deliversOnlyTheLatestPendingValue() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final ConflateLatestTransformer<Integer> conflater =
+            new ConflateLatestTransformer<>(scheduler);
+        final PublishSubject<Integer> upstream = PublishSubject.create();
+        final TestObserver<Integer> o = upstream
+            .compose(conflater)
+            .test();
+
+        // The downstream is busy, so 1 and 2 are stale.
+        upstream.onNext(1);
+        upstream.onNext(2);
+        upstream.onNext(3);
+        o.assertNoValues();
+
+        scheduler.triggerActions();
+        o.assertValues(3);
+
+        upstream.onNext(4);
+        scheduler.triggerActions();
+        o.assertValues(3, 4);
+
+        Assert.assertEquals(2, conflater.getDeliveredCount());
+        Assert.assertEquals(2, conflater.getDroppedCount());
+    }
+
+    @Test
+    public void completesAfterThePendingValue() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final PublishSubject<Integer> upstream = PublishSubject.create();
+        final TestObserver<Integer> o = upstream
+            .compose(new ConflateLatestTransformer<Integer>(scheduler))
+            .test();
+
+        upstream.onNext(1);
+        upstream.onComplete();
+        o.assertNotComplete();
+
+        scheduler.triggerActions();
+        o.assertValues(1);
+        o.assertComplete();
+    }
+
+    @Test
+    public void dropsThePendingValueOnDispose() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final PublishSubject<Integer> upstream = PublishSubject.create();
+        final TestObserver<Integer> o = upstream
+            .compose(new ConflateLatestTransformer<Integer>(scheduler))
+            .test();
+
+        upstream.onNext(1);
+        o.dispose();
+        scheduler.triggerActions();
+
+        o.assertNoValues();
+        Assert.assertFalse(upstream.hasObservers());
+    }
+}
@@ -0,0 +1,92 @@
+package com.my.demo.bigbite.game.reactive;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import io.reactivex.observers.TestObserver;
+
+public class PreviewQualityGovernorTest {
+
+    private static final int WINDOW = 30;
+
+    @Test
+    public void stepsDownWhenTooSlowAndUpSlowly() throws Exception {
+        final PreviewQualityGovernor governor = createGovernor();
+        final TestObserver<PreviewQualityGovernor.Decision> o = governor
+            .getDecisions()
+            .test();
+        o.assertValueCount(1);
+        Assert.assertEquals(1, o.values().get(0).qualityIndex);
+
+        // A slow window steps down right away.
+        feed(governor, 80f, WINDOW);
+        o.assertValueCount(2);
+        Assert.assertEquals(0, o.values().get(1).qualityIndex);
+        Assert.assertEquals(PreviewQualityGovernor.Decision.REASON_TOO_SLOW,
+                            o.values().get(1).reason);
+
+        // The window of the camera restarting is skipped, and it takes 3 fast
+        // windows to step up.
+        feed(governor, 80f, WINDOW);
+        feed(governor, 10f, 2 * WINDOW);
+        o.assertValueCount(2);
+        feed(governor, 10f, WINDOW);
+        o.assertValueCount(3);
+        Assert.assertEquals(1, o.values().get(2).qualityIndex);
+    }
+
+    @Test
+    public void waitsLongerToStepUpAfterAFailedStepUp() throws Exception {
+        final PreviewQualityGovernor governor = createGovernor();
+        final TestObserver<PreviewQualityGovernor.Decision> o = governor
+            .getDecisions()
+            .test();
+
+        // Step up to #2, which turns out to be too slow.
+        feed(governor, 10f, 3 * WINDOW);
+        feed(governor, 0f, WINDOW);
+        feed(governor, 80f, WINDOW);
+        o.assertValueCount(3);
+        Assert.assertEquals(2, o.values().get(1).qualityIndex);
+        Assert.assertEquals(1, o.values().get(2).qualityIndex);
+
+        // Now it takes 6 fast windows.
+        feed(governor, 0f, WINDOW);
+        feed(governor, 10f, 5 * WINDOW);
+        o.assertValueCount(3);
+        feed(governor, 10f, WINDOW);
+        o.assertValueCount(4);
+    }
+
+    @Test
+    public void staysWithinTheBand() throws Exception {
+        final PreviewQualityGovernor governor = createGovernor();
+        final TestObserver<PreviewQualityGovernor.Decision> o = governor
+            .getDecisions()
+            .test();
+
+        feed(governor, 40f, 20 * WINDOW);
+        o.assertValueCount(1);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private static PreviewQualityGovernor createGovernor() {
+        return new PreviewQualityGovernor(
+            Arrays.asList(new PreviewQualityGovernor.Quality(320, 240, 24f),
+                          new PreviewQualityGovernor.Quality(480, 360, 24f),
+                          new PreviewQualityGovernor.Quality(640, 480, 24f)),
+            1, 40f);
+    }
+
+    private static void feed(PreviewQualityGovernor governor,
+                             float latencyMs,
+                             int count) {
+        for (int i = 0; i < count; ++i) {
+            governor.onFrameLatency(latencyMs);
+        }
+    }
+}
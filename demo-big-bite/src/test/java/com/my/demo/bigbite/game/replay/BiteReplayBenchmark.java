@@ -0,0 +1,175 @@
+package com.my.demo.bigbite.game.replay;
+
+import com.my.demo.bigbite.game.detector.DLibBiteDetector;
+import com.my.demo.bigbite.game.detector.FaceFixtures;
+import com.my.demo.bigbite.game.event.action.DetectBiteAction;
+import com.my.demo.bigbite.game.event.result.DetectBiteResult;
+import com.my.demo.bigbite.game.reactive.DLibBiteDetectorTransformer;
+import com.my.jni.dlib.data.DLibFace;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Replays the landmarks recordings through the bite detection pipeline of
+ * the game and reports the bites found, the latency per frame and the
+ * throughput. Record a game with RecordingDetector, pull the file from the
+ * device and replay it by
+ * {@code ./gradlew :demo-big-bite:testDebugUnitTest -PbigbiteReplayFile=...},
+ * with these optional system properties:
+ * <ul>
+ * <li>bigbite.replay.realTime: Replay at the recorded pace rather than as
+ * fast as possible.</li>
+ * <li>bigbite.replay.expectedBites: Fail unless this many bites are
+ * found.</li>
+ * </ul>
+ */
+public class BiteReplayBenchmark {
+
+    private static final long FRAME_INTERVAL_MS = 33;
+
+    @Test
+    public void replaysASyntheticRecording() throws Exception {
+        final File file = File.createTempFile("bites", ".bblr");
+        file.deleteOnExit();
+
+        // Three bites and a frame without face.
+        final LandmarksRecordingWriter writer = new LandmarksRecordingWriter(file, false);
+        long timestamp = 0;
+        for (int bite = 0; bite < 3; ++bite) {
+            for (int i = 0; i < 4; ++i) {
+                writer.write(timestamp += FRAME_INTERVAL_MS,
+                             Collections.singletonList(FaceFixtures.createFace(0f)), null, 0, 0);
+            }
+            for (int i = 0; i < 4; ++i) {
+                writer.write(timestamp += FRAME_INTERVAL_MS,
+                             Collections.singletonList(FaceFixtures.createFace(10f)), null, 0, 0);
+            }
+        }
+        for (int i = 0; i < 4; ++i) {
+            writer.write(timestamp += FRAME_INTERVAL_MS,
+                         Collections.singletonList(FaceFixtures.createFace(0f)), null, 0, 0);
+        }
+        writer.write(timestamp + FRAME_INTERVAL_MS,
+                     Collections.<DLibFace>emptyList(), null, 0, 0);
+        writer.close();
+
+        final Report report = replay(file, false);
+        System.out.println("Synthetic: " + report);
+        Assert.assertEquals(29, report.frames);
+        Assert.assertEquals(28, report.framesWithFaces);
+        Assert.assertEquals(3, report.bites);
+    }
+
+    @Test
+    public void replaysTheGivenRecording() throws Exception {
+        final String path = System.getProperty("bigbite.replay.file");
+        Assume.assumeTrue("No recording is given", path != null);
+
+        final Report report = replay(new File(path),
+                                     Boolean.getBoolean("bigbite.replay.realTime"));
+        System.out.println(path + ": " + report);
+
+        final String expectedBites = System.getProperty("bigbite.replay.expectedBites");
+        if (expectedBites != null) {
+            Assert.assertEquals(Integer.parseInt(expectedBites), report.bites);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    /**
+     * Run the frames through the same transformers as the game. The frames
+     * are processed on the replaying thread, so the bite detector is timed by
+     * the recorded timestamps.
+     */
+    private static Report replay(File file,
+                                 boolean isRealTime) {
+        final Report report = new Report();
+        final List<Double> latencies = new ArrayList<>();
+        final long[] frameStartTime = new long[1];
+
+        final LandmarksReplayObservable replay = LandmarksReplayObservable.create(file, isRealTime);
+        final long start = System.nanoTime();
+        replay
+            .filter(new Predicate<LandmarksFrame>() {
+                @Override
+                public boolean test(LandmarksFrame frame) throws Exception {
+                    frameStartTime[0] = System.nanoTime();
+                    ++report.frames;
+                    return !frame.faces.isEmpty();
+                }
+            })
+            .map(new Function<LandmarksFrame, DetectBiteAction>() {
+                @Override
+                public DetectBiteAction apply(LandmarksFrame frame) throws Exception {
+                    ++report.framesWithFaces;
+                    return new DetectBiteAction(frame.faces.get(0));
+                }
+            })
+            .compose(new DLibBiteDetectorTransformer(
+                new DLibBiteDetector(replay.getClock()),
+                Schedulers.trampoline()))
+            .blockingSubscribe(new Consumer<DetectBiteResult>() {
+                @Override
+                public void accept(DetectBiteResult result) throws Exception {
+                    latencies.add((System.nanoTime() - frameStartTime[0]) / 1e6);
+                    report.bites = result.biteCount;
+                }
+            });
+        final double duration = (System.nanoTime() - start) / 1e9;
+
+        final double[] sorted = new double[latencies.size()];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        report.p50LatencyMs = getPercentile(sorted, 0.5);
+        report.p95LatencyMs = getPercentile(sorted, 0.95);
+        report.fps = report.frames / duration;
+
+        return report;
+    }
+
+    private static double getPercentile(double[] sorted,
+                                        double percentile) {
+        if (sorted.length == 0) return 0;
+
+        // The nearest rank.
+        final int rank = (int) Math.ceil(percentile * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Clazz //////////////////////////////////////////////////////////////////
+
+    private static class Report {
+        int frames;
+        int framesWithFaces;
+        int bites;
+        double p50LatencyMs;
+        double p95LatencyMs;
+        double fps;
+
+        @Override
+        public String toString() {
+            return String.format("%d frames (%d with faces), %d bites, " +
+                                 "latency p50=%.3f ms, p95=%.3f ms, %.1f frames/s",
+                                 frames, framesWithFaces, bites,
+                                 p50LatencyMs, p95LatencyMs, fps);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.my.demo.bigbite.game.view;
+
+import com.my.jni.dlib.data.DLibFace;
+import com.my.jni.dlib.data.DLibFace68;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class FaceLandmarksLinesTest {
+
+    @Test
+    public void connectsTheLandmarksOfEveryRegion() throws Exception {
+        final FaceLandmarksLines lines = new FaceLandmarksLines();
+
+        lines.set(Collections.singletonList(createFace(0f)), 1f, 1f);
+
+        // The chin is open, 17 landmarks in 16 lines.
+        Assert.assertEquals(4 * 16, lines.regionLengths[DLibFace.REGION_CHIN]);
+        // The inner lips are closed, 8 landmarks in 8 lines.
+        Assert.assertEquals(4 * 8, lines.regionLengths[DLibFace.REGION_INNER_LIPS]);
+
+        // The last line of the inner lips ends at the first landmark.
+        final int lips = lines.regionOffsets[DLibFace.REGION_INNER_LIPS];
+        final int last = lips + lines.regionLengths[DLibFace.REGION_INNER_LIPS] - 4;
+        Assert.assertEquals(lines.points[lips], lines.points[last + 2], 0f);
+        Assert.assertEquals(lines.points[lips + 1], lines.points[last + 3], 0f);
+    }
+
+    @Test
+    public void groupsTheLinesByRegion() throws Exception {
+        final FaceLandmarksLines lines = new FaceLandmarksLines();
+
+        lines.set(Arrays.asList(createFace(0f), createFace(0.5f)), 100f, 200f);
+
+        // The regions are back to back and the first face goes first.
+        int offset = 0;
+        for (int region = 0; region < DLibFace.REGIONS_COUNT; ++region) {
+            Assert.assertEquals(offset, lines.regionOffsets[region]);
+            offset += lines.regionLengths[region];
+        }
+        final int chin = lines.regionOffsets[DLibFace.REGION_CHIN];
+        final int secondChin = chin + lines.regionLengths[DLibFace.REGION_CHIN] / 2;
+        Assert.assertEquals(0f, lines.points[chin], 0.0001f);
+        Assert.assertEquals(50f, lines.points[secondChin], 0.0001f);
+    }
+
+    @Test
+    public void reusesThePointsForTheSameFaces() throws Exception {
+        final FaceLandmarksLines lines = new FaceLandmarksLines();
+        lines.set(Arrays.asList(createFace(0f), createFace(0.5f)), 1f, 1f);
+        final float[] points = lines.points;
+
+        lines.set(Collections.singletonList(createFace(0.2f)), 1f, 1f);
+        lines.set(Arrays.asList(createFace(0.1f), createFace(0.6f)), 1f, 1f);
+
+        Assert.assertSame(points, lines.points);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    /**
+     * A face of the normalized landmarks at the given x, where the landmark i
+     * is at (x + i / 1000, i / 100).
+     */
+    private static DLibFace createFace(float x) {
+        final float[] packed = new float[DLibFace68.PACKED_FACE_SIZE];
+        for (int i = 0; i < DLibFace68.LANDMARKS_COUNT; ++i) {
+            packed[DLibFace68.PACKED_LANDMARKS_OFFSET + 2 * i] = x + i / 1000f;
+            packed[DLibFace68.PACKED_LANDMARKS_OFFSET + 2 * i + 1] = i / 100f;
+        }
+
+        return new DLibFace68(packed, 0);
+    }
+}
@@ -62,6 +62,10 @@ public class SampleOfFacesAndLandmarksActivity1
     implements ICameraMetadata,
                IProgressBarView {
 
+    // Run the face detection at most every N frames and track the faces in
+    // between.
+    private static final int FACE_DETECTION_INTERVAL = 6;
+
     // View.
     @BindView(R.id.camera)
     CameraSourcePreview mCameraView;
@@ -92,6 +96,7 @@ public class SampleOfFacesAndLandmarksActivity1
 
         // Init the face detector.
         mLandmarksDetector = new DLibLandmarks68Detector();
+        mLandmarksDetector.setTrackingInterval(FACE_DETECTION_INTERVAL);
     }
 
     @Override
@@ -67,6 +67,10 @@ public class SampleOfFacesAndLandmarksActivity2
     implements ICameraMetadata,
                IProgressBarView {
 
+    // Run the face detection at most every N frames and track the faces in
+    // between.
+    private static final int FACE_DETECTION_INTERVAL = 6;
+
     // View.
     @BindView(R.id.camera)
     CameraSourcePreview mCameraView;
@@ -97,6 +101,7 @@ public class SampleOfFacesAndLandmarksActivity2
 
         // Init the face detector.
         mLandmarksDetector = new DLibLandmarks68Detector();
+        mLandmarksDetector.setTrackingInterval(FACE_DETECTION_INTERVAL);
     }
 
     @Override
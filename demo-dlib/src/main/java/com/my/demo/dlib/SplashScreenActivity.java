@@ -24,6 +24,9 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 
+import com.my.jni.dlib.DLibLandmarks68Detector;
+import com.my.jni.dlib.DLibLibraryLoader;
+
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
@@ -39,6 +42,12 @@ public class SplashScreenActivity extends AppCompatActivity {
 //        Fabric.with(this, new Crashlytics());
 
         setContentView(R.layout.activity_splash_screen);
+
+        // Load the native libraries in the background while the splash screen
+        // is shown, so the detector doesn't load them on the main thread.
+        DLibLibraryLoader.loadAsync();
+        // Free the dlib models when the app goes to the background.
+        DLibLandmarks68Detector.registerMemoryTrimCallbacks(this);
     }
 
     @Override
@@ -21,12 +21,8 @@
 package com.my.demo.dlib.detector;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.YuvImage;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -39,8 +35,8 @@ import com.my.demo.dlib.protocol.ICameraMetadata;
 import com.my.demo.dlib.protocol.IDLibFaceOverlay;
 import com.my.jni.dlib.IDLibFaceDetector;
 import com.my.jni.dlib.data.DLibFace;
+import com.my.jni.dlib.data.DLibFace68;
 
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,8 +45,11 @@ import java.util.List;
  */
 public class DLibFaceAndLandmarksDetector extends Detector<DLibFace> {
 
+    private static final int MAX_FACES = 8;
+
     // State.
     private final SparseArray<DLibFace> mDetFaces = new SparseArray<>();
+    private final float[] mPackedFaces = new float[MAX_FACES * DLibFace68.PACKED_FACE_SIZE];
 
     private final ICameraMetadata mCameraMetadata;
     private final IDLibFaceDetector mFaceDetector;
@@ -82,29 +81,38 @@ public class DLibFaceAndLandmarksDetector extends Detector<DLibFace> {
         // Overlay preview dimension.
         final int ow = getUprightPreviewWidth(frame);
         final int oh = getUprightPreviewHeight(frame);
-        final Matrix transform = getCameraToViewTransform(frame);
 
         Log.d("xyz", String.format("frame (w=%d, h=%d), preview (w=%d, h=%d)",
                                    fw, fh,
                                    ow, oh));
 
-        // Get bitmap from YUV frame.
-        ProfilerUtil.startProfiling();
-        final Bitmap bitmap = getBitmapFromFrame(frame, transform);
-        Log.d("xyz", String.format("Extract bitmap (w=%d, h=%d) from YUV frame (took %.3f ms)",
-                                   bitmap.getWidth(), bitmap.getHeight(),
-                                   ProfilerUtil.stopProfiling()));
+        // The camera frame is either a Bitmap or a NV21 buffer. The detector
+        // reads the luma plane of the NV21 buffer directly.
+        final Bitmap bitmap = frame.getBitmap();
 
         // Detect faces and landmarks.
         try {
             ProfilerUtil.startProfiling();
-            List<DLibFace> detFaces = mFaceDetector.findFacesAndLandmarks(bitmap);
             mDetFaces.clear();
-            for (int i = 0; i < detFaces.size(); ++i) {
-                mDetFaces.put(i, detFaces.get(i));
+            if (bitmap != null) {
+                final List<DLibFace> detFaces = mFaceDetector.findFacesAndLandmarks(bitmap);
+                for (int i = 0; i < detFaces.size(); ++i) {
+                    mDetFaces.put(i, detFaces.get(i));
+                }
+            } else {
+                final int detCount = mFaceDetector.findFacesAndLandmarks(
+                    frame.getGrayscaleImageData(),
+                    fw, fh,
+                    getRotationDegrees(frame),
+                    mCameraMetadata.isFacingFront(),
+                    mPackedFaces);
+                for (int i = 0; i < detCount; ++i) {
+                    mDetFaces.put(i, new DLibFace68(
+                        mPackedFaces, i * DLibFace68.PACKED_FACE_SIZE));
+                }
             }
             Log.d("xyz", String.format("Detect %d face with landmarks (took %.3f ms)",
-                                       detFaces.size(),
+                                       mDetFaces.size(),
                                        ProfilerUtil.stopProfiling()));
 
             Log.d("xyz", String.format(
@@ -121,53 +129,16 @@ public class DLibFaceAndLandmarksDetector extends Detector<DLibFace> {
     ///////////////////////////////////////////////////////////////////////////
     // Protected / Private Methods ////////////////////////////////////////////
 
-    // TODO: This method could be an util method.
-    // TODO: Rotation and facing are important parameters.
-    private Matrix getCameraToViewTransform(final Frame frame) {
-        final Matrix transform = new Matrix();
+    private int getRotationDegrees(final Frame frame) {
         switch (frame.getMetadata().getRotation()) {
             case Frame.ROTATION_90:
-                transform.postRotate(90);
-                break;
+                return 90;
             case Frame.ROTATION_180:
-                transform.postRotate(180);
-                break;
+                return 180;
             case Frame.ROTATION_270:
-                transform.postRotate(270);
-                break;
-        }
-
-        if (mCameraMetadata.isFacingFront()) {
-            transform.postScale(-1, 1);
-        }
-
-        return transform;
-    }
-
-    private Bitmap getBitmapFromFrame(final Frame frame,
-                                      final Matrix transform) {
-        if (frame.getBitmap() != null) {
-            return frame.getBitmap();
-        } else {
-            final int width = frame.getMetadata().getWidth();
-            final int height = frame.getMetadata().getHeight();
-            final YuvImage yuvImage = new YuvImage(
-                frame.getGrayscaleImageData().array(),
-                ImageFormat.NV21, width, height, null);
-
-            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            yuvImage.compressToJpeg(new Rect(0, 0, width, height), 50, outputStream);
-
-            final byte[] jpegArray = outputStream.toByteArray();
-            final Bitmap rawBitmap = BitmapFactory.decodeByteArray(
-                jpegArray, 0, jpegArray.length);
-
-            final int bw = rawBitmap.getWidth();
-            final int bh = rawBitmap.getHeight();
-
-            return Bitmap.createBitmap(rawBitmap,
-                                       0, 0, bw, bh,
-                                       transform, false);
+                return 270;
+            default:
+                return 0;
         }
     }
 
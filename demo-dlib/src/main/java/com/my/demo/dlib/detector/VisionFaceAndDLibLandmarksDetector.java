@@ -21,26 +21,21 @@
 package com.my.demo.dlib.detector;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.YuvImage;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.my.core.util.ProfilerUtil;
 import com.my.demo.dlib.protocol.ICameraMetadata;
 import com.my.demo.dlib.protocol.IDLibFaceOverlay;
 import com.my.jni.dlib.IDLibFaceDetector;
 import com.my.jni.dlib.data.DLibFace;
+import com.my.jni.dlib.data.DLibFace68;
 
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,11 +46,14 @@ public class VisionFaceAndDLibLandmarksDetector extends Detector<DLibFace> {
 
     // State.
     private final SparseArray<DLibFace> mDetFaces = new SparseArray<>();
+    private float[] mPackedFaces = new float[0];
 
     private final ICameraMetadata mCameraMetadata;
     private final Detector<Face> mFaceDetector;
     private final IDLibFaceDetector mLandmarksDetector;
 
+    private volatile boolean mIsFrameLoggingEnabled = false;
+
     public VisionFaceAndDLibLandmarksDetector(final ICameraMetadata cameraMetadata,
                                               final Detector<Face> faceDetector,
                                               final IDLibFaceDetector landmarksDetector,
@@ -67,6 +65,14 @@ public class VisionFaceAndDLibLandmarksDetector extends Detector<DLibFace> {
         setProcessor(new PostProcessor(overlay));
     }
 
+    /**
+     * Log the timing of the tracking of every frame, which is costly and off
+     * by default.
+     */
+    public void setFrameLoggingEnabled(boolean enabled) {
+        mIsFrameLoggingEnabled = enabled;
+    }
+
     @Override
     public SparseArray<DLibFace> detect(Frame frame) {
         if (mCameraMetadata == null ||
@@ -78,6 +84,17 @@ public class VisionFaceAndDLibLandmarksDetector extends Detector<DLibFace> {
 
         mDetFaces.clear();
 
+        // Skip the Google Vision face detection if the faces are tracked from
+        // the previous frame.
+        final int trackedCount = trackLandmarks(frame);
+        if (trackedCount >= 0) {
+            for (int i = 0; i < trackedCount; ++i) {
+                mDetFaces.put(i, new DLibFace68(
+                    mPackedFaces, i * DLibFace68.PACKED_FACE_SIZE));
+            }
+            return mDetFaces;
+        }
+
         ProfilerUtil.startProfiling();
 
         // Use Google Vision face detector to get face bounds.
@@ -94,18 +111,14 @@ public class VisionFaceAndDLibLandmarksDetector extends Detector<DLibFace> {
         // Overlay preview dimension.
         final int ow = getUprightPreviewWidth(frame);
         final int oh = getUprightPreviewHeight(frame);
-        final Matrix transform = getCameraToViewTransform(frame);
 
         Log.d("xyz", String.format("frame (w=%d, h=%d), preview (w=%d, h=%d)",
                                    fw, fh,
                                    ow, oh));
 
-        // Get bitmap from YUV frame.
-        ProfilerUtil.startProfiling();
-        final Bitmap bitmap = getBitmapFromFrame(frame, transform);
-        Log.d("xyz", String.format("Extract bitmap (w=%d, h=%d) from YUV frame (took %.3f ms)",
-                                   bitmap.getWidth(), bitmap.getHeight(),
-                                   ProfilerUtil.stopProfiling()));
+        // The camera frame is either a Bitmap or a NV21 buffer. The landmarks
+        // detector reads the luma plane of the NV21 buffer directly.
+        final Bitmap bitmap = frame.getBitmap();
 
         // Translate the face bounds into something that DLib detector knows.
         final List<Rect> faceBounds = new ArrayList<>();
@@ -163,15 +176,29 @@ public class VisionFaceAndDLibLandmarksDetector extends Detector<DLibFace> {
         // Detect landmarks.
         try {
             ProfilerUtil.startProfiling();
-            List<DLibFace> detFaces = mLandmarksDetector.findLandmarksFromFaces(
-                bitmap,
-                faceBounds);
+            ensurePackedFaces(faceBounds.size());
+            final int detCount;
+            if (bitmap != null) {
+                detCount = mLandmarksDetector.findLandmarksFromFaces(
+                    bitmap,
+                    faceBounds,
+                    mPackedFaces);
+            } else {
+                detCount = mLandmarksDetector.findLandmarksFromFaces(
+                    frame.getGrayscaleImageData(),
+                    fw, fh,
+                    getRotationDegrees(frame),
+                    mCameraMetadata.isFacingFront(),
+                    faceBounds,
+                    mPackedFaces);
+            }
             mDetFaces.clear();
-            for (int i = 0; i < detFaces.size(); ++i) {
-                mDetFaces.put(i, detFaces.get(i));
+            for (int i = 0; i < detCount; ++i) {
+                mDetFaces.put(i, new DLibFace68(
+                    mPackedFaces, i * DLibFace68.PACKED_FACE_SIZE));
             }
             Log.d("xyz", String.format("Detect %d face with landmarks (took %.3f ms)",
-                                       detFaces.size(),
+                                       detCount,
                                        ProfilerUtil.stopProfiling()));
 //            Log.d("xyz", String.format("input rect=%s, output rect=%s",
 //                                       new RectF((float) faceBounds.get(0).left / ow,
@@ -185,7 +212,7 @@ public class VisionFaceAndDLibLandmarksDetector extends Detector<DLibFace> {
                 ProfilerUtil.stopProfiling()));
 
             return mDetFaces;
-        } catch (InvalidProtocolBufferException err) {
+        } catch (Throwable err) {
             err.printStackTrace();
             return null;
         }
@@ -194,53 +221,53 @@ public class VisionFaceAndDLibLandmarksDetector extends Detector<DLibFace> {
     ///////////////////////////////////////////////////////////////////////////
     // Protected / Private Methods ////////////////////////////////////////////
 
-    // TODO: This method could be an util method.
-    // TODO: Rotation and facing are important parameters.
-    private Matrix getCameraToViewTransform(final Frame frame) {
-        final Matrix transform = new Matrix();
-        switch (frame.getMetadata().getRotation()) {
-            case Frame.ROTATION_90:
-                transform.postRotate(90);
-                break;
-            case Frame.ROTATION_180:
-                transform.postRotate(180);
-                break;
-            case Frame.ROTATION_270:
-                transform.postRotate(270);
-                break;
-        }
+    /**
+     * Detect the landmarks of the faces tracked from the previous frame.
+     *
+     * @return The number of the faces, or -1 if the face detection is due.
+     */
+    private int trackLandmarks(final Frame frame) {
+        // The tracking only reads the NV21 buffer.
+        if (frame.getBitmap() != null) return -1;
 
-        if (mCameraMetadata.isFacingFront()) {
-            transform.postScale(-1, 1);
+        try {
+            ProfilerUtil.startProfiling();
+            final int count = mLandmarksDetector.trackLandmarks(
+                frame.getGrayscaleImageData(),
+                frame.getMetadata().getWidth(),
+                frame.getMetadata().getHeight(),
+                getRotationDegrees(frame),
+                mCameraMetadata.isFacingFront(),
+                mPackedFaces);
+            final float duration = ProfilerUtil.stopProfiling();
+            if (mIsFrameLoggingEnabled) {
+                Log.d("xyz", String.format("Track %d face with landmarks (took %.3f ms)",
+                                           count, duration));
+            }
+            return count;
+        } catch (Throwable err) {
+            err.printStackTrace();
+            return -1;
         }
-
-        return transform;
     }
 
-    private Bitmap getBitmapFromFrame(final Frame frame,
-                                      final Matrix transform) {
-        if (frame.getBitmap() != null) {
-            return frame.getBitmap();
-        } else {
-            final int width = frame.getMetadata().getWidth();
-            final int height = frame.getMetadata().getHeight();
-            final YuvImage yuvImage = new YuvImage(
-                frame.getGrayscaleImageData().array(),
-                ImageFormat.NV21, width, height, null);
-
-            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            yuvImage.compressToJpeg(new Rect(0, 0, width, height), 50, outputStream);
-
-            final byte[] jpegArray = outputStream.toByteArray();
-            final Bitmap rawBitmap = BitmapFactory.decodeByteArray(
-                jpegArray, 0, jpegArray.length);
-
-            final int bw = rawBitmap.getWidth();
-            final int bh = rawBitmap.getHeight();
+    private void ensurePackedFaces(int faceCount) {
+        final int size = faceCount * DLibFace68.PACKED_FACE_SIZE;
+        if (mPackedFaces.length < size) {
+            mPackedFaces = new float[size];
+        }
+    }
 
-            return Bitmap.createBitmap(rawBitmap,
-                                       0, 0, bw, bh,
-                                       transform, false);
+    private int getRotationDegrees(final Frame frame) {
+        switch (frame.getMetadata().getRotation()) {
+            case Frame.ROTATION_90:
+                return 90;
+            case Frame.ROTATION_180:
+                return 180;
+            case Frame.ROTATION_270:
+                return 270;
+            default:
+                return 0;
         }
     }
 
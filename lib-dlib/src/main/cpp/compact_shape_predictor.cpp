@@ -0,0 +1,329 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#include <unistd.h>
+#include <algorithm>
+#include <cmath>
+#include <cstring>
+#include <limits>
+#include <my/dlib/compact_shape_predictor.h>
+
+// "MYSP" in the little endian.
+#define COMPACT_MODEL_MAGIC 0x5053594Du
+#define COMPACT_MODEL_VERSION 1u
+
+namespace {
+
+template <typename T>
+void writeArray(std::ostream& out,
+                const T* data,
+                size_t count) {
+    out.write((const char*) data, (std::streamsize) (count * sizeof(T)));
+}
+
+/**
+ * Quantize the leaf values to the signed integers in [-max, max] with one
+ * scale, so that value ~= scale * quantized.
+ */
+template <typename T>
+float quantizeLeafValues(const dlib::matrix<float, 0, 1>& values,
+                         std::vector<T>& out) {
+    const float max = (float) std::numeric_limits<T>::max();
+
+    float maxAbs = 0;
+    for (long i = 0; i < values.size(); ++i) {
+        maxAbs = std::max(maxAbs, std::abs(values(i)));
+    }
+    const float scale = maxAbs / max;
+
+    for (long i = 0; i < values.size(); ++i) {
+        const float quantized = scale > 0 ? std::round(values(i) / scale) : 0;
+        out.push_back((T) std::max(-max, std::min(max, quantized)));
+    }
+
+    return scale;
+}
+
+template <typename T>
+void addQuantizedValues(const T* values,
+                        float scale,
+                        float* shape,
+                        size_t size) {
+    for (size_t i = 0; i < size; ++i) {
+        shape[i] += scale * (float) values[i];
+    }
+}
+
+} // namespace
+
+void CompactShapePredictor::convert(std::istream& in,
+                                    std::ostream& out,
+                                    Encoding encoding) {
+    // The same order as dlib::deserialize(shape_predictor&, std::istream&).
+    int version = 0;
+    dlib::matrix<float, 0, 1> initialShape;
+    std::vector<std::vector<dlib::impl::regression_tree> > forests;
+    std::vector<std::vector<unsigned long> > anchorIndices;
+    std::vector<std::vector<dlib::vector<float, 2> > > deltas;
+    dlib::deserialize(version, in);
+    if (version != 1) {
+        throw dlib::serialization_error("Unexpected version of the shape predictor.");
+    }
+    dlib::deserialize(initialShape, in);
+    dlib::deserialize(forests, in);
+    dlib::deserialize(anchorIndices, in);
+    dlib::deserialize(deltas, in);
+
+    // The compact layout needs the cascades, the trees and the features of
+    // the same size, which is always the case of a trained model.
+    if (forests.empty() || forests[0].empty() ||
+        anchorIndices.size() != forests.size() || deltas.size() != forests.size()) {
+        throw dlib::serialization_error("The shape predictor has no cascade.");
+    }
+    static_assert(sizeof(Split) == 8, "The split must be packed in 8 bytes.");
+
+    Header header;
+    header.magic = COMPACT_MODEL_MAGIC;
+    header.version = COMPACT_MODEL_VERSION;
+    header.encoding = (uint32_t) encoding;
+    header.partsCount = (uint32_t) (initialShape.size() / 2);
+    header.cascadesCount = (uint32_t) forests.size();
+    header.treesCount = (uint32_t) forests[0].size();
+    header.leavesCount = (uint32_t) forests[0][0].leaf_values.size();
+    header.featuresCount = (uint32_t) anchorIndices[0].size();
+    if (header.featuresCount > std::numeric_limits<uint16_t>::max()) {
+        throw dlib::serialization_error("Too many features per cascade.");
+    }
+    for (size_t i = 0; i < forests.size(); ++i) {
+        if (forests[i].size() != header.treesCount ||
+            anchorIndices[i].size() != header.featuresCount ||
+            deltas[i].size() != header.featuresCount) {
+            throw dlib::serialization_error("The cascades aren't in the same size.");
+        }
+        for (size_t j = 0; j < forests[i].size(); ++j) {
+            if (forests[i][j].leaf_values.size() != header.leavesCount ||
+                forests[i][j].splits.size() + 1 != header.leavesCount) {
+                throw dlib::serialization_error("The trees aren't in the same size.");
+            }
+        }
+    }
+
+    writeArray(out, &header, 1);
+    writeArray(out, &initialShape(0), (size_t) initialShape.size());
+    for (size_t i = 0; i < anchorIndices.size(); ++i) {
+        for (size_t j = 0; j < anchorIndices[i].size(); ++j) {
+            const uint32_t index = (uint32_t) anchorIndices[i][j];
+            writeArray(out, &index, 1);
+        }
+    }
+    for (size_t i = 0; i < deltas.size(); ++i) {
+        for (size_t j = 0; j < deltas[i].size(); ++j) {
+            const float delta[2] = {deltas[i][j].x(), deltas[i][j].y()};
+            writeArray(out, delta, 2);
+        }
+    }
+    for (size_t i = 0; i < forests.size(); ++i) {
+        for (size_t j = 0; j < forests[i].size(); ++j) {
+            const std::vector<dlib::impl::split_feature>& splits = forests[i][j].splits;
+            for (size_t k = 0; k < splits.size(); ++k) {
+                Split split;
+                split.index1 = (uint16_t) splits[k].idx1;
+                split.index2 = (uint16_t) splits[k].idx2;
+                split.threshold = splits[k].thresh;
+                writeArray(out, &split, 1);
+            }
+        }
+    }
+
+    // Quantize all the leaves first, then write the scales and the values.
+    std::vector<float> scales;
+    std::vector<int16_t> values16;
+    std::vector<int8_t> values8;
+    for (size_t i = 0; i < forests.size(); ++i) {
+        for (size_t j = 0; j < forests[i].size(); ++j) {
+            const std::vector<dlib::matrix<float, 0, 1> >& leaves = forests[i][j].leaf_values;
+            for (size_t k = 0; k < leaves.size(); ++k) {
+                if (leaves[k].size() != initialShape.size()) {
+                    throw dlib::serialization_error("The leaf isn't in the shape size.");
+                }
+
+                scales.push_back(encoding == ENCODING_INT16 ?
+                                 quantizeLeafValues(leaves[k], values16) :
+                                 quantizeLeafValues(leaves[k], values8));
+            }
+        }
+    }
+    writeArray(out, &scales[0], scales.size());
+    if (encoding == ENCODING_INT16) {
+        writeArray(out, &values16[0], values16.size());
+    } else {
+        writeArray(out, &values8[0], values8.size());
+    }
+
+    if (!out) {
+        throw dlib::serialization_error("Cannot write the compact shape predictor.");
+    }
+}
+
+bool CompactShapePredictor::isCompactModel(const char* data,
+                                           size_t size) {
+    uint32_t magic;
+    if (size < sizeof(magic)) return false;
+
+    memcpy(&magic, data, sizeof(magic));
+    return magic == COMPACT_MODEL_MAGIC;
+}
+
+CompactShapePredictor::CompactShapePredictor()
+    : mSplits(NULL),
+      mLeafScales(NULL),
+      mLeafValues(NULL) {
+    memset(&mHeader, 0, sizeof(mHeader));
+}
+
+void CompactShapePredictor::load(std::unique_ptr<MappedFile> file,
+                                 size_t chunkSize,
+                                 const std::function<void(size_t, size_t)>& onProgress) {
+    const char* data = file->data();
+    const size_t size = file->size();
+
+    Header header;
+    if (!isCompactModel(data, size) || size < sizeof(header)) {
+        throw dlib::serialization_error("It's not a compact shape predictor.");
+    }
+    memcpy(&header, data, sizeof(header));
+    if (header.version != COMPACT_MODEL_VERSION ||
+        (header.encoding != ENCODING_INT16 && header.encoding != ENCODING_INT8) ||
+        header.cascadesCount == 0 || header.treesCount == 0 || header.leavesCount < 2 ||
+        (header.leavesCount & (header.leavesCount - 1)) != 0 ||
+        size != getFileSize(header)) {
+        throw dlib::serialization_error("The compact shape predictor is corrupted.");
+    }
+
+    // Touch the pages chunk by chunk, while the kernel reads ahead.
+    const long pageSize = sysconf(_SC_PAGESIZE);
+    chunkSize = std::max((size_t) 1, chunkSize);
+    volatile char sum = 0;
+    for (size_t offset = 0; offset < size;) {
+        const size_t end = std::min(size, offset + chunkSize);
+        for (; offset < end; offset += (size_t) pageSize) {
+            sum += data[offset];
+        }
+        offset = end;
+
+        if (onProgress) onProgress(offset, size);
+    }
+    // The trees are read randomly by the predictions.
+    file->setSequential(false);
+
+    const size_t shapeSize = header.partsCount * 2;
+    const size_t featuresCount = header.cascadesCount * header.featuresCount;
+    const size_t treesCount = header.cascadesCount * header.treesCount;
+    const char* section = data + sizeof(header);
+
+    mInitialShape.set_size((long) shapeSize);
+    memcpy(&mInitialShape(0), section, shapeSize * sizeof(float));
+    section += shapeSize * sizeof(float);
+
+    const uint32_t* anchorIndices = (const uint32_t*) section;
+    section += featuresCount * sizeof(uint32_t);
+    const float* deltas = (const float*) section;
+    section += featuresCount * 2 * sizeof(float);
+    mAnchorIndices.assign(header.cascadesCount, std::vector<unsigned long>(header.featuresCount));
+    mDeltas.assign(header.cascadesCount, std::vector<dlib::vector<float, 2> >(header.featuresCount));
+    for (size_t i = 0; i < header.cascadesCount; ++i) {
+        for (size_t j = 0; j < header.featuresCount; ++j) {
+            const size_t k = i * header.featuresCount + j;
+            if (anchorIndices[k] >= header.partsCount) {
+                throw dlib::serialization_error("The compact shape predictor is corrupted.");
+            }
+
+            mAnchorIndices[i][j] = anchorIndices[k];
+            mDeltas[i][j] = dlib::vector<float, 2>(deltas[2 * k], deltas[2 * k + 1]);
+        }
+    }
+
+    mSplits = (const Split*) section;
+    section += treesCount * (header.leavesCount - 1) * sizeof(Split);
+    for (size_t i = 0; i < treesCount * (header.leavesCount - 1); ++i) {
+        if (mSplits[i].index1 >= header.featuresCount ||
+            mSplits[i].index2 >= header.featuresCount) {
+            throw dlib::serialization_error("The compact shape predictor is corrupted.");
+        }
+    }
+
+    mLeafScales = (const float*) section;
+    section += treesCount * header.leavesCount * sizeof(float);
+    mLeafValues = section;
+
+    mHeader = header;
+    mFile = std::move(file);
+}
+
+///////////////////////////////////////////////////////////////////////////////
+// Protected / Private Methods ////////////////////////////////////////////////
+
+size_t CompactShapePredictor::getFileSize(const Header& header) {
+    const size_t shapeSize = (size_t) header.partsCount * 2;
+    const size_t featuresCount = (size_t) header.cascadesCount * header.featuresCount;
+    const size_t leavesCount = (size_t) header.cascadesCount * header.treesCount * header.leavesCount;
+    const size_t valueSize = header.encoding == ENCODING_INT16 ? sizeof(int16_t) : sizeof(int8_t);
+
+    return sizeof(Header) +
+           shapeSize * sizeof(float) +
+           featuresCount * (sizeof(uint32_t) + 2 * sizeof(float)) +
+           (leavesCount - header.cascadesCount * header.treesCount) * sizeof(Split) +
+           leavesCount * sizeof(float) +
+           leavesCount * shapeSize * valueSize;
+}
+
+size_t CompactShapePredictor::findLeaf(size_t tree,
+                                       const std::vector<float>& featurePixelValues) const {
+    // The same traversal as dlib::impl::regression_tree, the children of the
+    // node i are 2i + 1 and 2i + 2.
+    const size_t splitsCount = mHeader.leavesCount - 1;
+    const Split* splits = mSplits + tree * splitsCount;
+
+    size_t i = 0;
+    while (i < splitsCount) {
+        const Split& split = splits[i];
+        if (featurePixelValues[split.index1] - featurePixelValues[split.index2] > split.threshold) {
+            i = 2 * i + 1;
+        } else {
+            i = 2 * i + 2;
+        }
+    }
+
+    return tree * mHeader.leavesCount + (i - splitsCount);
+}
+
+void CompactShapePredictor::addLeafValues(size_t leaf,
+                                          dlib::matrix<float, 0, 1>& shape) const {
+    const size_t shapeSize = (size_t) shape.size();
+    const float scale = mLeafScales[leaf];
+
+    if (mHeader.encoding == ENCODING_INT16) {
+        addQuantizedValues((const int16_t*) mLeafValues + leaf * shapeSize,
+                           scale, &shape(0), shapeSize);
+    } else {
+        addQuantizedValues((const int8_t*) mLeafValues + leaf * shapeSize,
+                           scale, &shape(0), shapeSize);
+    }
+}
@@ -19,27 +19,128 @@
 // THE SOFTWARE.
 
 #include <jni.h>
-#include <android/log.h>
-#include <android/bitmap.h>
+#include <algorithm>
+#include <atomic>
+#include <climits>
+#include <cmath>
+#include <cstring>
+#include <istream>
+#include <memory>
+#include <mutex>
+#include <stdexcept>
+#include <string>
+#include <vector>
 #include <dlib/image_processing/frontal_face_detector.h>
 #include <dlib/image_processing.h>
 #include <dlib/image_io.h>
 #include <my/jni.h>
 #include <my/profiler.h>
 #include <my/dlib/data/messages.pb.h>
+#include <my/dlib/frame_buffer.h>
+#include <my/dlib/frame_stats.h>
+#include <my/dlib/landmarks_model.h>
+#include <my/dlib/mapped_file.h>
+#include <my/dlib/worker_pool.h>
+
+// The host build (e.g. Linux x86_64) has no Android bitmap and log, so only
+// the buffer-based detections work there and the logs go to the stderr.
+#ifdef __ANDROID__
+#include <android/log.h>
+#include <android/bitmap.h>
 
 #define LOGI(...) \
   ((void)__android_log_print(ANDROID_LOG_INFO, "dlib-jni:", __VA_ARGS__))
+#else
+#include <cstdio>
+
+#define LOGI(...) \
+  ((void)fprintf(stderr, "dlib-jni: " __VA_ARGS__), (void)fputc('\n', stderr))
+#endif
+
+// The per-frame logs are opt-in, logging several times per frame is costly.
+// The timing is recorded in the frame stats regardless.
+#define LOGF(...) \
+  do { if (sIsFrameLoggingEnabled) LOGI(__VA_ARGS__); } while (0)
 
 #define JNI_METHOD(NAME) \
     Java_com_my_jni_dlib_DLibLandmarks68Detector_##NAME
 
 using namespace ::com::my::jni::dlib::data;
 
-// FIXME: Create a class inheriting from dlib::array2d<dlib::rgb_pixel>.
-void convertBitmapToArray2d(JNIEnv* env,
-                            jobject bitmap,
-                            dlib::array2d<dlib::rgb_pixel>& out) {
+std::atomic<bool> sIsFrameLoggingEnabled(false);
+
+/**
+ * The part of the whole image copied to a frame buffer.
+ */
+struct FrameRegion {
+    // The size of the whole image.
+    long imageWidth;
+    long imageHeight;
+    // How the image is turned upright from the source frame.
+    int rotation;
+    bool mirror;
+    // The copied part in the coordinate of the whole image.
+    dlib::rectangle roi;
+};
+
+/**
+ * Clip the requested ROI to the image, an empty ROI means the whole image.
+ */
+void setFrameRegion(const long imageWidth,
+                    const long imageHeight,
+                    const int rotation,
+                    const bool mirror,
+                    const dlib::rectangle& roi,
+                    FrameRegion& region) {
+    const dlib::rectangle image(0, 0, imageWidth - 1, imageHeight - 1);
+
+    region.imageWidth = imageWidth;
+    region.imageHeight = imageHeight;
+    region.rotation = rotation;
+    region.mirror = mirror;
+    region.roi = roi.is_empty() ? image : image.intersect(roi);
+}
+
+/**
+ * Copy the ROI of the RGBA_8888 pixels to the given frame buffer row by row.
+ * The frame buffer is reused across calls, so nothing is allocated unless the
+ * ROI is bigger than any ROI before.
+ *
+ * @param stride The bytes per row of the pixels.
+ * @param roi The part to copy, or an empty rectangle for the whole image.
+ * @param region The part actually copied, which is clipped to the image.
+ */
+void convertRgbaToFrameBuffer(const uint8_t* pixels,
+                              long width,
+                              long height,
+                              long stride,
+                              const dlib::rectangle& roi,
+                              FrameBuffer<dlib::rgb_pixel>& out,
+                              FrameRegion& region) {
+    setFrameRegion(width, height, 0, false, roi, region);
+    const long roiWidth = region.roi.width();
+    const long roiHeight = region.roi.height();
+    out.setSize(roiHeight, roiWidth);
+
+    const uint8_t* line = pixels +
+                          region.roi.top() * stride +
+                          region.roi.left() * 4;
+    for (long y = 0; y < roiHeight; ++y) {
+        convertRgbaRowToRgb(line, out[y], roiWidth);
+        line += stride;
+    }
+}
+
+/**
+ * Copy the ROI of the RGBA_8888 bitmap to the given frame buffer, see the one
+ * above.
+ */
+bool convertBitmapToFrameBuffer(JNIEnv* env,
+                                jobject bitmap,
+                                const dlib::rectangle& roi,
+                                FrameBuffer<dlib::rgb_pixel>& out,
+                                FrameRegion& region) {
+#ifdef __ANDROID__
     AndroidBitmapInfo bitmapInfo;
     void* pixels;
     int state;
@@ -47,48 +148,1259 @@ void convertBitmapToArray2d(JNIEnv* env,
     if (0 > (state = AndroidBitmap_getInfo(env, bitmap, &bitmapInfo))) {
         LOGI("L%d: AndroidBitmap_getInfo() failed! error=%d", __LINE__, state);
         throwException(env, "AndroidBitmap_getInfo() failed!");
-        return;
+        return false;
     } else if (bitmapInfo.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
-        LOGI("L%d: Bitmap format is not RGB_565!", __LINE__);
-        throwException(env, "Bitmap format is not RGB_565!");
+        LOGI("L%d: Bitmap format is not RGBA_8888!", __LINE__);
+        throwException(env, "Bitmap format is not RGBA_8888!");
+        return false;
     }
 
     // Lock the bitmap for copying the pixels safely.
     if (0 > (state = AndroidBitmap_lockPixels(env, bitmap, &pixels))) {
         LOGI("L%d: AndroidBitmap_lockPixels() failed! error=%d", __LINE__, state);
         throwException(env, "AndroidBitmap_lockPixels() failed!");
+        return false;
+    }
+
+    convertRgbaToFrameBuffer((const uint8_t*) pixels,
+                             (long) bitmapInfo.width,
+                             (long) bitmapInfo.height,
+                             (long) bitmapInfo.stride,
+                             roi, out, region);
+
+    // Unlock the bitmap.
+    AndroidBitmap_unlockPixels(env, bitmap);
+
+    return true;
+#else
+    throwException(env, "The bitmap is only supported on Android!");
+    return false;
+#endif
+}
+
+/**
+ * Copy the whole RGBA_8888 bitmap to the given frame buffer.
+ */
+bool convertBitmapToFrameBuffer(JNIEnv* env,
+                                jobject bitmap,
+                                FrameBuffer<dlib::rgb_pixel>& out) {
+    FrameRegion region;
+    return convertBitmapToFrameBuffer(env, bitmap, dlib::rectangle(), out, region);
+}
+
+// The packed layout of one face, which must be identical to the one described
+// in DLibFace68.java:
+//
+// [left, top, right, bottom, x0, y0, x1, y1, ..., x67, y67]
+//
+// All the values are normalized by the image width and height.
+#define PACKED_BOUND_OFFSET 0
+#define PACKED_LANDMARKS_OFFSET 4
+#define PACKED_LANDMARKS_COUNT 68
+#define PACKED_FACE_SIZE (PACKED_LANDMARKS_OFFSET + 2 * PACKED_LANDMARKS_COUNT)
+
+void writePackedFace(const dlib::rectangle& bound,
+                     const dlib::full_object_detection& shape,
+                     const float width,
+                     const float height,
+                     float* out) {
+    out[PACKED_BOUND_OFFSET] = (float) bound.left() / width;
+    out[PACKED_BOUND_OFFSET + 1] = (float) bound.top() / height;
+    out[PACKED_BOUND_OFFSET + 2] = (float) bound.right() / width;
+    out[PACKED_BOUND_OFFSET + 3] = (float) bound.bottom() / height;
+
+    float* landmarks = out + PACKED_LANDMARKS_OFFSET;
+    const unsigned long count = shape.num_parts();
+    for (unsigned long i = 0; i < PACKED_LANDMARKS_COUNT; ++i) {
+        if (i < count) {
+            const dlib::point& pt = shape.part(i);
+            landmarks[2 * i] = (float) pt.x() / width;
+            landmarks[2 * i + 1] = (float) pt.y() / height;
+        } else {
+            landmarks[2 * i] = 0.f;
+            landmarks[2 * i + 1] = 0.f;
+        }
+    }
+}
+
+/**
+ * Where the packed faces go, either a direct float buffer or a float array.
+ */
+struct PackedOutput {
+    float* buffer;
+    jfloatArray array;
+    jint maxFaces;
+};
+
+bool getPackedOutput(JNIEnv* env,
+                     jobject outBuffer,
+                     jfloatArray outArray,
+                     PackedOutput& out) {
+    jlong capacity;
+
+    out.buffer = NULL;
+    out.array = NULL;
+    out.maxFaces = 0;
+
+    if (outBuffer != NULL) {
+        out.buffer = (float*) env->GetDirectBufferAddress(outBuffer);
+        capacity = env->GetDirectBufferCapacity(outBuffer);
+        if (out.buffer == NULL || capacity < 0) {
+            throwException(env, "The output buffer is not a direct buffer!");
+            return false;
+        }
+    } else if (outArray != NULL) {
+        out.array = outArray;
+        capacity = env->GetArrayLength(outArray);
+    } else {
+        throwException(env, "No output buffer is given!");
+        return false;
+    }
+
+    out.maxFaces = (jint) (capacity / PACKED_FACE_SIZE);
+    return true;
+}
+
+void writePackedOutput(JNIEnv* env,
+                       PackedOutput& out,
+                       const jint index,
+                       const dlib::rectangle& bound,
+                       const dlib::full_object_detection& shape,
+                       const float width,
+                       const float height) {
+    if (out.buffer != NULL) {
+        writePackedFace(bound, shape, width, height,
+                        out.buffer + index * PACKED_FACE_SIZE);
+    } else {
+        float packed[PACKED_FACE_SIZE];
+        writePackedFace(bound, shape, width, height, packed);
+        env->SetFloatArrayRegion(out.array,
+                                 index * PACKED_FACE_SIZE,
+                                 PACKED_FACE_SIZE,
+                                 packed);
+    }
+}
+
+bool readFaceBounds(JNIEnv* env,
+                    jintArray faceBounds,
+                    jint faceCount,
+                    std::vector<dlib::rectangle>& out) {
+    out.clear();
+    if (faceCount <= 0) return true;
+
+    // [left, top, right, bottom] per face.
+    std::vector<jint> raw((size_t) (4 * faceCount));
+    env->GetIntArrayRegion(faceBounds, 0, 4 * faceCount, &raw[0]);
+    if (env->ExceptionCheck()) return false;
+
+    for (jint i = 0; i < faceCount; ++i) {
+        out.push_back(dlib::rectangle(raw[4 * i],
+                                      raw[4 * i + 1],
+                                      raw[4 * i + 2],
+                                      raw[4 * i + 3]));
+    }
+
+    return true;
+}
+
+bool checkFrameFormat(JNIEnv* env,
+                      jint width,
+                      jint height,
+                      jint rotation) {
+    if (width <= 0 || height <= 0) {
+        throwException(env, "Invalid frame dimension!");
+        return false;
+    }
+    if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+        throwException(env, "The rotation must be one of 0, 90, 180 and 270!");
+        return false;
+    }
+
+    return true;
+}
+
+/**
+ * Copy the luma (Y) plane of a NV21 (or any YUV 4:2:0) camera frame to a
+ * grayscale image, rotating it clockwise by the given degrees and then
+ * mirroring it horizontally if asked. It's the same transform as what the
+ * Java code did with the android.graphics.Matrix before.
+ * <br/>
+ * Only the given ROI of the transformed (upright) frame is copied.
+ */
+void convertLumaToFrameBuffer(const unsigned char* luma,
+                              const long width,
+                              const long height,
+                              const int rotation,
+                              const bool mirror,
+                              const dlib::rectangle& roi,
+                              FrameBuffer<unsigned char>& out) {
+    const bool isTransposed = (rotation == 90 || rotation == 270);
+    const long uprightWidth = isTransposed ? height : width;
+    const long outWidth = roi.width();
+    const long outHeight = roi.height();
+
+    out.setSize(outHeight, outWidth);
+
+    // The first column to copy in the rotated frame, before mirroring.
+    const long x0 = mirror ? uprightWidth - 1 - roi.right() : roi.left();
+
+    for (long i = 0; i < outHeight; ++i) {
+        const long y = roi.top() + i;
+        unsigned char* dst = out[i];
+
+        switch (rotation) {
+            case 90: {
+                // dst(x, y) = src(y, height - 1 - x)
+                const unsigned char* src = luma + (height - 1 - x0) * width + y;
+                for (long x = 0; x < outWidth; ++x) {
+                    dst[x] = *src;
+                    src -= width;
+                }
+                break;
+            }
+            case 180: {
+                // dst(x, y) = src(width - 1 - x, height - 1 - y)
+                const unsigned char* src = luma + (height - 1 - y) * width + (width - 1 - x0);
+                for (long x = 0; x < outWidth; ++x) {
+                    dst[x] = *(src - x);
+                }
+                break;
+            }
+            case 270: {
+                // dst(x, y) = src(width - 1 - y, x)
+                const unsigned char* src = luma + x0 * width + (width - 1 - y);
+                for (long x = 0; x < outWidth; ++x) {
+                    dst[x] = *src;
+                    src += width;
+                }
+                break;
+            }
+            default: {
+                memcpy(dst, luma + y * width + x0, (size_t) outWidth);
+                break;
+            }
+        }
+
+        if (mirror) {
+            std::reverse(dst, dst + outWidth);
+        }
+    }
+}
+
+/**
+ * Read the luma plane from either the direct buffer or the byte array and
+ * convert the ROI of it to a grayscale image.
+ *
+ * @param roi The part to copy in the upright frame, or an empty rectangle for
+ *            the whole frame.
+ * @param region The part actually copied, which is clipped to the frame.
+ */
+bool readLumaFromYuv(JNIEnv* env,
+                     jobject yuvBuffer,
+                     jbyteArray yuvArray,
+                     jint yuvOffset,
+                     jint width,
+                     jint height,
+                     jint rotation,
+                     jboolean mirror,
+                     const dlib::rectangle& roi,
+                     FrameBuffer<unsigned char>& out,
+                     FrameRegion& region) {
+    if (!checkFrameFormat(env, width, height, rotation)) return false;
+    if (yuvOffset < 0) {
+        throwException(env, "Invalid frame offset!");
+        return false;
+    }
+
+    const bool isTransposed = (rotation == 90 || rotation == 270);
+    setFrameRegion(isTransposed ? height : width,
+                   isTransposed ? width : height,
+                   rotation, mirror == JNI_TRUE,
+                   roi, region);
+
+    const jlong lumaSize = (jlong) width * height;
+    if (yuvBuffer != NULL) {
+        unsigned char* bytes = (unsigned char*) env->GetDirectBufferAddress(yuvBuffer);
+        const jlong capacity = env->GetDirectBufferCapacity(yuvBuffer);
+        if (bytes == NULL || capacity < yuvOffset + lumaSize) {
+            throwException(env, "The frame buffer is too small or not direct!");
+            return false;
+        }
+
+        convertLumaToFrameBuffer(bytes + yuvOffset, width, height,
+                                 rotation, mirror == JNI_TRUE, region.roi, out);
+    } else if (yuvArray != NULL) {
+        if (env->GetArrayLength(yuvArray) < yuvOffset + lumaSize) {
+            throwException(env, "The frame array is too small!");
+            return false;
+        }
+
+        // Pin the array as short as possible, it only lasts for one copy.
+        unsigned char* bytes = (unsigned char*) env->GetPrimitiveArrayCritical(yuvArray, NULL);
+        if (bytes == NULL) {
+            throwException(env, "Cannot access the frame array!");
+            return false;
+        }
+        convertLumaToFrameBuffer(bytes + yuvOffset, width, height,
+                                 rotation, mirror == JNI_TRUE, region.roi, out);
+        env->ReleasePrimitiveArrayCritical(yuvArray, bytes, JNI_ABORT);
+    } else {
+        throwException(env, "No frame is given!");
+        return false;
+    }
+
+    return true;
+}
+
+/**
+ * Read the whole luma plane, see the one above.
+ */
+bool readLumaFromYuv(JNIEnv* env,
+                     jobject yuvBuffer,
+                     jbyteArray yuvArray,
+                     jint yuvOffset,
+                     jint width,
+                     jint height,
+                     jint rotation,
+                     jboolean mirror,
+                     FrameBuffer<unsigned char>& out) {
+    FrameRegion region;
+    return readLumaFromYuv(env, yuvBuffer, yuvArray, yuvOffset,
+                           width, height, rotation, mirror,
+                           dlib::rectangle(), out, region);
+}
+
+// The padding added to every side of a face bound, relative to the bound
+// size, when only the face ROI is converted. The shape predictor samples the
+// pixels around the landmarks, which could be a little out of the bound.
+#define FACE_ROI_PADDING 0.5
+
+/**
+ * Get the union of the padded face bounds.
+ */
+dlib::rectangle getFacesRoi(const std::vector<dlib::rectangle>& bounds) {
+    dlib::rectangle roi;
+    for (size_t j = 0; j < bounds.size(); ++j) {
+        roi += dlib::grow_rect(bounds[j],
+                               (long) (FACE_ROI_PADDING * bounds[j].width()),
+                               (long) (FACE_ROI_PADDING * bounds[j].height()));
+    }
+
+    return roi;
+}
+
+/**
+ * Translate the face bounds in the whole image to the ROI coordinate.
+ */
+void translateBoundsToRoi(const FrameRegion& region,
+                          const std::vector<dlib::rectangle>& bounds,
+                          std::vector<dlib::rectangle>& roiBounds) {
+    roiBounds.resize(bounds.size());
+    for (size_t j = 0; j < bounds.size(); ++j) {
+        roiBounds[j] = dlib::translate_rect(bounds[j],
+                                            -region.roi.left(),
+                                            -region.roi.top());
+    }
+}
+
+/**
+ * Translate the landmarks of the given shapes from the ROI coordinate back to
+ * the whole image.
+ */
+void translateShapesFromRoi(const FrameRegion& region,
+                            std::vector<dlib::full_object_detection>& shapes,
+                            const size_t count) {
+    const dlib::point offset(region.roi.left(), region.roi.top());
+    for (size_t j = 0; j < count; ++j) {
+        dlib::full_object_detection& shape = shapes[j];
+        for (unsigned long i = 0; i < shape.num_parts(); ++i) {
+            if (shape.part(i) != dlib::OBJECT_PART_NOT_PRESENT) {
+                shape.part(i) += offset;
+            }
+        }
+    }
+}
+
+// Detector Handle ////////////////////////////////////////////////////////////
+
+/**
+ * The face detection options. The face detection runs on a copy of the frame
+ * scaled by scale * 2^upsampleCount, while the landmarks are always predicted
+ * on the frame itself. The faces smaller than minFaceSize pixels are dropped.
+ */
+struct FaceDetectionOptions {
+    FaceDetectionOptions()
+        : scale(1.0),
+          minFaceSize(0),
+          upsampleCount(0) {}
+
+    double scale;
+    long minFaceSize;
+    int upsampleCount;
+};
+
+/**
+ * The state of one thread of the batch detection. The HOG detector and the
+ * frame buffers cannot be shared by the threads, so every thread has its own.
+ */
+struct BatchWorker {
+    dlib::frontal_face_detector faceDetector;
+    FrameBuffer<unsigned char> lumaFrame;
+    FrameBuffer<unsigned char> scaledLumaFrame;
+};
+
+// The number of the latest frames kept for the rolling percentiles.
+#define FRAME_STATS_HISTORY_SIZE 120
+
+/**
+ * A face tracked from the previous frame by its landmarks.
+ */
+struct FaceTrack {
+    // The face bound seeding the landmarks prediction of the next frame.
+    dlib::rectangle bound;
+    // The face bound relative to the bound of its landmarks, in the unit of
+    // the landmarks bound size. It's measured when the face is detected, so
+    // the seeded bounds keep the framing of the detector.
+    dlib::drectangle relativeBound;
+};
+
+/**
+ * The native state owned by one DLibLandmarks68Detector instance. Everything
+ * mutated by a detection lives here, so different instances could run on
+ * different threads at the same time. One instance is still meant to be used
+ * by one thread at a time.
+ */
+struct DetectorHandle {
+    DetectorHandle()
+        : isFaceDetectorPrepared(false),
+          detectInterval(0),
+          framesSinceDetection(0),
+          isTrackingLost(false),
+          statsHistory(FRAME_STATS_HISTORY_SIZE) {}
+
+    // The HOG detector isn't const-callable (it keeps the scanner state), so
+    // every handle has its own copy.
+    dlib::frontal_face_detector faceDetector;
+    // The shape predictor is read-only once loaded, so the model is shared
+    // by all the handles. The handle only pins it during a detection, see
+    // ScopedLandmarksModel, so releasing the shared models frees it.
+    std::shared_ptr<const LandmarksModel> landmarksDetector;
+    std::weak_ptr<const LandmarksModel> landmarksModelRef;
+
+    // What's prepared, so the released models are loaded again lazily by
+    // the next detection.
+    bool isFaceDetectorPrepared;
+    std::string landmarksModelPath;
+
+    // The frame buffers are reused by every detection, so that a stream of
+    // camera frames in the same size doesn't allocate anything.
+    FrameBuffer<dlib::rgb_pixel> rgbFrame;
+    FrameBuffer<unsigned char> lumaFrame;
+
+    // The face detection options, and the scaled frames for the face
+    // detection.
+    FaceDetectionOptions detectionOptions;
+    FrameBuffer<dlib::rgb_pixel> scaledRgbFrame;
+    FrameBuffer<unsigned char> scaledLumaFrame;
+
+    // The optional pool predicting the landmarks of different faces in
+    // parallel, null for the sequential prediction.
+    std::unique_ptr<WorkerPool> workerPool;
+    // The predicted shapes, in the same order as the face bounds.
+    std::vector<dlib::full_object_detection> shapes;
+    // The face bounds translated to the converted ROI.
+    std::vector<dlib::rectangle> roiBounds;
+
+    // The detect-then-track state. The face detection runs at most every
+    // detectInterval frames, and the faces in between are tracked by their
+    // landmarks in the previous frame. 1 or less turns the tracking off.
+    int detectInterval;
+    int framesSinceDetection;
+    bool isTrackingLost;
+    std::vector<FaceTrack> tracks;
+    // The frame the tracked bounds are in, e.g. the camera could restart in
+    // another preview size.
+    FrameRegion trackedFrame;
+    std::vector<dlib::rectangle> trackedBounds;
+
+    // The batch detection state, one worker per thread, and the reusable
+    // batch output.
+    std::vector<std::unique_ptr<BatchWorker> > batchWorkers;
+    std::vector<float> batchFaces;
+    std::vector<jint> batchFacesCounts;
+
+    // The stats of the frame being detected, and of the latest frames.
+    FrameStats frameStats;
+    FrameStatsHistory statsHistory;
+};
+
+// The models shared by all the handles, guarded by the mutex. It's only held
+// to read or publish the models, never while loading them.
+std::mutex sModelMutex;
+// Serialize the loading, so a model is loaded once across the threads.
+std::mutex sModelLoadMutex;
+std::shared_ptr<const dlib::frontal_face_detector> sFaceDetectorModel;
+std::shared_ptr<const LandmarksModel> sLandmarksDetectorModel;
+// The path is kept after the model is released, so loading it again is
+// reported as a reload.
+std::string sLandmarksDetectorModelPath;
+bool sIsFaceDetectorModelLoaded = false;
+
+jfieldID sNativeHandleField = NULL;
+
+/**
+ * Get the native handle of the given DLibLandmarks68Detector. A Java exception
+ * is thrown if the detector is already disposed.
+ */
+DetectorHandle* getHandle(JNIEnv* env,
+                          jobject thiz) {
+    if (sNativeHandleField == NULL) {
+        jclass clazz = env->GetObjectClass(thiz);
+        sNativeHandleField = env->GetFieldID(clazz, "mNativeHandle", "J");
+        env->DeleteLocalRef(clazz);
+    }
+
+    DetectorHandle* handle = (DetectorHandle*) (intptr_t) env->GetLongField(thiz, sNativeHandleField);
+    if (handle == NULL) {
+        throwException(env, "The detector is already disposed!");
+    }
+
+    return handle;
+}
+
+/**
+ * Tell DLibLibraryLoader the time taken by loading a model, or by loading it
+ * again after it's released.
+ */
+void reportModelLoadTime(JNIEnv* env,
+                         const char* model,
+                         double interval,
+                         bool isReload) {
+    jclass clazz = env->FindClass("com/my/jni/dlib/DLibLibraryLoader");
+    if (clazz == NULL) {
+        env->ExceptionClear();
         return;
     }
 
-    LOGI("L%d: info.width=%d, info.height=%d", __LINE__, bitmapInfo.width, bitmapInfo.height);
-    out.set_size((long) bitmapInfo.height, (long) bitmapInfo.width);
+    jmethodID onModelLoaded = env->GetStaticMethodID(
+        clazz, "onModelLoaded", "(Ljava/lang/String;JZ)V");
+    if (onModelLoaded != NULL) {
+        jstring name = env->NewStringUTF(model);
+        env->CallStaticVoidMethod(clazz, onModelLoaded, name,
+                                  (jlong) interval, isReload ? JNI_TRUE : JNI_FALSE);
+        env->DeleteLocalRef(name);
+    }
+    // The report is best-effort, it never fails the loading.
+    env->ExceptionClear();
+    env->DeleteLocalRef(clazz);
+}
 
-    char* line = (char*) pixels;
-    for (int h = 0; h < bitmapInfo.height; ++h) {
-        for (int w = 0; w < bitmapInfo.width; ++w) {
-            uint32_t* color = (uint32_t*) (line + 4 * w);
+/**
+ * Copy the shared face detector to the handle, building the shared one first
+ * if it's never built or it's released.
+ */
+void copyFaceDetector(JNIEnv* env,
+                      DetectorHandle* handle) {
+    std::shared_ptr<const dlib::frontal_face_detector> model;
+    bool isReload = false;
+    double interval = -1;
+    {
+        std::lock_guard<std::mutex> loadLock(sModelLoadMutex);
+        {
+            std::lock_guard<std::mutex> lock(sModelMutex);
+            model = sFaceDetectorModel;
+            isReload = sIsFaceDetectorModelLoaded;
+        }
 
-            out[h][w].red = (unsigned char) (0xFF & ((*color) >> 24));
-            out[h][w].green = (unsigned char) (0xFF & ((*color) >> 16));
-            out[h][w].blue = (unsigned char) (0xFF & ((*color) >> 8));
+        if (!model) {
+            Profiler profiler;
+            profiler.start();
+
+            model = std::make_shared<dlib::frontal_face_detector>(
+                dlib::get_frontal_face_detector());
+            interval = profiler.stopAndGetInterval();
+
+            std::lock_guard<std::mutex> lock(sModelMutex);
+            sFaceDetectorModel = model;
+            sIsFaceDetectorModelLoaded = true;
         }
+    }
 
-        line = line + bitmapInfo.stride;
+    // Call back the Java with no lock held.
+    if (interval >= 0) {
+        LOGI("L%d: The face detector is built (took %.3f ms)", __LINE__, interval);
+        reportModelLoadTime(env, "frontal_face_detector", interval, isReload);
     }
 
-    // Unlock the bitmap.
-    AndroidBitmap_unlockPixels(env, bitmap);
+    handle->faceDetector = *model;
+}
+
+/**
+ * Check the face detector of the handle, and copy it again if it's released
+ * by DLibLandmarks68Detector#release().
+ */
+bool checkFaceDetector(JNIEnv* env,
+                       DetectorHandle* handle) {
+    if (handle->faceDetector.num_detectors() > 0) return true;
+
+    if (!handle->isFaceDetectorPrepared) {
+        LOGI("L%d: The face detector is not initialized!", __LINE__);
+        throwException(env, "The face detector is not initialized!");
+        return false;
+    }
+
+    copyFaceDetector(env, handle);
+    return true;
+}
+
+std::shared_ptr<const LandmarksModel> loadLandmarksModel(JNIEnv* env,
+                                                         const char* path,
+                                                         jobject listener);
+
+/**
+ * Pin the shared landmarks model to handle->landmarksDetector for one
+ * detection, loading it again if it's released. The pin is dropped when it
+ * goes out of scope, so the handle never keeps a released model alive.
+ * <br/>
+ * Usage:
+ * <pre>
+ * ScopedLandmarksModel landmarksModel(env, handle);
+ * if (!landmarksModel.isReady()) return 0;
+ * </pre>
+ */
+class ScopedLandmarksModel {
+private:
+
+    DetectorHandle* mHandle;
+
+    ScopedLandmarksModel(const ScopedLandmarksModel&);
+
+    ScopedLandmarksModel& operator=(const ScopedLandmarksModel&);
+
+public:
+
+    ScopedLandmarksModel(JNIEnv* env,
+                         DetectorHandle* handle)
+        : mHandle(handle) {
+        handle->landmarksDetector = handle->landmarksModelRef.lock();
+        if (handle->landmarksDetector) return;
+
+        if (handle->landmarksModelPath.empty()) {
+            LOGI("L%d: The face landmarks detector is not initialized!", __LINE__);
+            throwException(env, "The face landmarks detector is not initialized!");
+            return;
+        }
+
+        // It's released, load it again.
+        handle->landmarksDetector = loadLandmarksModel(
+            env, handle->landmarksModelPath.c_str(), NULL);
+        handle->landmarksModelRef = handle->landmarksDetector;
+    }
+
+    ~ScopedLandmarksModel() {
+        mHandle->landmarksDetector.reset();
+    }
+
+    bool isReady() const { return (bool) mHandle->landmarksDetector; }
+};
+
+// Frame Stats ////////////////////////////////////////////////////////////////
+
+/**
+ * Start recording the stats of a frame. Call it at the beginning of a
+ * detection with the profiler measuring the whole detection started.
+ */
+void beginFrameStats(DetectorHandle* handle,
+                     Profiler& frameProfiler) {
+    handle->frameStats.clear();
+    frameProfiler.start();
+}
+
+/**
+ * Add the time taken by the given stage to the stats of the current frame.
+ *
+ * @return The given duration.
+ */
+double addStageDuration(DetectorHandle* handle,
+                        const int stage,
+                        const double duration) {
+    handle->frameStats.durations[stage] += duration;
+    return duration;
+}
+
+/**
+ * Finish recording the stats of a frame and add them to the history. Not
+ * called if the detection fails.
+ *
+ * @return The given number of faces.
+ */
+jint endFrameStats(DetectorHandle* handle,
+                   Profiler& frameProfiler,
+                   const jint facesCount) {
+    FrameStats& stats = handle->frameStats;
+    stats.durations[STAGE_TOTAL] = frameProfiler.stopAndGetInterval();
+    stats.facesCount = facesCount;
+    handle->statsHistory.add(stats);
+
+    LOGF("L%d: %d faces (convert=%.3f ms, detect=%.3f ms, landmarks=%.3f ms, "
+         "serialize=%.3f ms, total=%.3f ms)",
+         __LINE__, facesCount,
+         stats.durations[STAGE_CONVERT],
+         stats.durations[STAGE_DETECT],
+         stats.durations[STAGE_LANDMARKS],
+         stats.durations[STAGE_SERIALIZE],
+         stats.durations[STAGE_TOTAL]);
+
+    return facesCount;
+}
+
+/**
+ * Predict the landmarks of the first count faces into handle->shapes, on the
+ * worker pool if there's one. The shapes are always in the order of the given
+ * bounds.
+ */
+template <typename image_type>
+void predictLandmarks(DetectorHandle* handle,
+                      const image_type& img,
+                      const std::vector<dlib::rectangle>& bounds,
+                      const size_t count) {
+    Profiler profiler;
+    profiler.start();
+
+    const LandmarksModel& landmarksDetector = *handle->landmarksDetector;
+    std::vector<dlib::full_object_detection>& shapes = handle->shapes;
+    shapes.resize(count);
+
+    if (handle->workerPool) {
+        handle->workerPool->parallelFor(count, [&](size_t j) {
+            shapes[j] = landmarksDetector(img, bounds[j]);
+        });
+    } else {
+        for (size_t j = 0; j < count; ++j) {
+            shapes[j] = landmarksDetector(img, bounds[j]);
+        }
+    }
+
+    const double interval = addStageDuration(
+        handle, STAGE_LANDMARKS, profiler.stopAndGetInterval());
+    LOGF("L%d: landmarks of %u faces detected (took %.3f ms)",
+         __LINE__, (unsigned int) count, interval);
+}
+
+// Face Detection /////////////////////////////////////////////////////////////
+
+FrameBuffer<dlib::rgb_pixel>& getScaledFrame(DetectorHandle* handle,
+                                             const FrameBuffer<dlib::rgb_pixel>& img) {
+    return handle->scaledRgbFrame;
+}
+
+FrameBuffer<unsigned char>& getScaledFrame(DetectorHandle* handle,
+                                           const FrameBuffer<unsigned char>& img) {
+    return handle->scaledLumaFrame;
+}
+
+/**
+ * Detect the face bounds with the given options. The bounds are in the
+ * coordinate of the given image regardless of the scale.
+ *
+ * @param scaledImg The reusable frame buffer for the scaled image.
+ */
+template <typename image_type>
+std::vector<dlib::rectangle> scanFaceBounds(dlib::frontal_face_detector& faceDetector,
+                                            const FaceDetectionOptions& options,
+                                            const image_type& img,
+                                            image_type& scaledImg) {
+    const double scale = options.scale * std::pow(2.0, options.upsampleCount);
+    const long scaledWidth = (long) std::lround(img.nc() * scale);
+    const long scaledHeight = (long) std::lround(img.nr() * scale);
+
+    std::vector<dlib::rectangle> dets;
+    if (scale == 1.0 || scaledWidth <= 0 || scaledHeight <= 0) {
+        dets = faceDetector(img);
+    } else {
+        scaledImg.setSize(scaledHeight, scaledWidth);
+        dlib::resize_image(img, scaledImg);
+
+        dets = faceDetector(scaledImg);
+
+        // Back to the coordinate of the given image.
+        const double sx = (double) img.nc() / scaledWidth;
+        const double sy = (double) img.nr() / scaledHeight;
+        for (size_t i = 0; i < dets.size(); ++i) {
+            const dlib::rectangle& det = dets[i];
+            dets[i] = dlib::rectangle((long) std::lround(det.left() * sx),
+                                      (long) std::lround(det.top() * sy),
+                                      (long) std::lround(det.right() * sx),
+                                      (long) std::lround(det.bottom() * sy));
+        }
+    }
+
+    // Drop the small faces.
+    if (options.minFaceSize > 0) {
+        const unsigned long minFaceSize = (unsigned long) options.minFaceSize;
+        dets.erase(std::remove_if(dets.begin(), dets.end(), [=](const dlib::rectangle& det) {
+            return std::min(det.width(), det.height()) < minFaceSize;
+        }), dets.end());
+    }
+
+    return dets;
+}
+
+/**
+ * Detect the face bounds with the face detection options of the handle. The
+ * bounds are in the coordinate of the given image regardless of the scale.
+ */
+template <typename image_type>
+std::vector<dlib::rectangle> detectFaceBounds(DetectorHandle* handle,
+                                              const image_type& img) {
+    Profiler profiler;
+    profiler.start();
+
+    // The scaled frame is reused as well.
+    std::vector<dlib::rectangle> dets = scanFaceBounds(
+        handle->faceDetector, handle->detectionOptions,
+        img, getScaledFrame(handle, img));
+
+    const double interval = addStageDuration(
+        handle, STAGE_DETECT, profiler.stopAndGetInterval());
+    LOGF("L%d: Number of faces detected: %u (took %.3f ms)",
+         __LINE__, (unsigned int) dets.size(), interval);
+
+    return dets;
+}
+
+// Tracking ///////////////////////////////////////////////////////////////////
+
+// A tracked face is considered lost if its bound moves more than this between
+// two frames, relative to the bound size.
+#define TRACKING_MAX_SHIFT 0.5
+// ... or if its bound is scaled more than this between two frames.
+#define TRACKING_MAX_SCALE 1.5
+
+dlib::rectangle getLandmarksBound(const dlib::full_object_detection& shape) {
+    dlib::rectangle bound;
+    for (unsigned long i = 0; i < shape.num_parts(); ++i) {
+        if (shape.part(i) != dlib::OBJECT_PART_NOT_PRESENT) {
+            bound += shape.part(i);
+        }
+    }
+
+    return bound;
+}
+
+bool isTrackingEnabled(const DetectorHandle* handle) {
+    return handle->detectInterval > 1;
+}
+
+/**
+ * Whether the face detection has to run for the next frame. It's due if the
+ * tracking is off, nothing is tracked, a tracked face is lost or the detection
+ * interval is reached.
+ */
+bool isDetectionDue(const DetectorHandle* handle) {
+    return !isTrackingEnabled(handle) ||
+           handle->tracks.empty() ||
+           handle->isTrackingLost ||
+           handle->framesSinceDetection + 1 >= handle->detectInterval;
+}
+
+/**
+ * Drop the tracked faces if the given frame isn't in the size and the
+ * orientation of the frame they're tracked in, since their bounds would be
+ * in the wrong coordinate.
+ */
+void dropTracksOfOtherFrame(DetectorHandle* handle,
+                            const jint width,
+                            const jint height,
+                            const jint rotation,
+                            const jboolean mirror) {
+    if (handle->tracks.empty()) return;
+
+    const bool isTransposed = (rotation == 90 || rotation == 270);
+    const FrameRegion& tracked = handle->trackedFrame;
+    if (tracked.imageWidth != (isTransposed ? height : width) ||
+        tracked.imageHeight != (isTransposed ? width : height) ||
+        tracked.rotation != rotation ||
+        tracked.mirror != (mirror == JNI_TRUE)) {
+        LOGF("L%d: the frame is changed, drop %u tracked faces",
+             __LINE__, (unsigned int) handle->tracks.size());
+        handle->tracks.clear();
+    }
+}
+
+/**
+ * Start tracking the detected faces with the predicted landmarks in
+ * handle->shapes.
+ */
+void startTracks(DetectorHandle* handle,
+                 const FrameRegion& region,
+                 const std::vector<dlib::rectangle>& bounds,
+                 const size_t count) {
+    handle->tracks.resize(count);
+    handle->trackedFrame = region;
+    handle->framesSinceDetection = 0;
+    handle->isTrackingLost = false;
+
+    for (size_t j = 0; j < count; ++j) {
+        const dlib::rectangle landmarksBound = getLandmarksBound(handle->shapes[j]);
+        const double w = (double) std::max(1UL, landmarksBound.width());
+        const double h = (double) std::max(1UL, landmarksBound.height());
+
+        FaceTrack& track = handle->tracks[j];
+        track.bound = bounds[j];
+        track.relativeBound = dlib::drectangle((bounds[j].left() - landmarksBound.left()) / w,
+                                               (bounds[j].top() - landmarksBound.top()) / h,
+                                               (bounds[j].right() - landmarksBound.left()) / w,
+                                               (bounds[j].bottom() - landmarksBound.top()) / h);
+    }
+}
+
+/**
+ * Move the tracked faces to the landmarks just predicted in handle->shapes.
+ * The tracking is lost if the landmarks drift out of the frame or they don't
+ * fit the seeded bound anymore, which is the sign of a wrong alignment.
+ */
+void updateTracks(DetectorHandle* handle,
+                  const FrameRegion& region,
+                  const size_t count) {
+    const dlib::rectangle image(0, 0, region.imageWidth - 1, region.imageHeight - 1);
+
+    ++handle->framesSinceDetection;
+    handle->tracks.resize(count);
+
+    for (size_t j = 0; j < count; ++j) {
+        FaceTrack& track = handle->tracks[j];
+        const dlib::rectangle landmarksBound = getLandmarksBound(handle->shapes[j]);
+        const double w = (double) landmarksBound.width();
+        const double h = (double) landmarksBound.height();
+        const dlib::rectangle bound(
+            landmarksBound.left() + (long) std::floor(track.relativeBound.left() * w + 0.5),
+            landmarksBound.top() + (long) std::floor(track.relativeBound.top() * h + 0.5),
+            landmarksBound.left() + (long) std::floor(track.relativeBound.right() * w + 0.5),
+            landmarksBound.top() + (long) std::floor(track.relativeBound.bottom() * h + 0.5));
+
+        const double scale = (double) bound.width() / std::max(1UL, track.bound.width());
+        const dlib::point shift = dlib::center(bound) - dlib::center(track.bound);
+        if (!image.contains(landmarksBound) ||
+            scale > TRACKING_MAX_SCALE ||
+            scale < 1.0 / TRACKING_MAX_SCALE ||
+            std::abs(shift.x()) > TRACKING_MAX_SHIFT * track.bound.width() ||
+            std::abs(shift.y()) > TRACKING_MAX_SHIFT * track.bound.height()) {
+            LOGF("L%d: #%u face is lost", __LINE__, (unsigned int) j);
+            handle->isTrackingLost = true;
+        }
+
+        track.bound = bound;
+    }
+}
+
+// Model Loading //////////////////////////////////////////////////////////////
+
+// The progress is reported every chunk of the model file.
+#define MODEL_PROGRESS_CHUNK_SIZE (1 << 20)
+
+/**
+ * Read the landmarks model from a memory mapping of the model file, reporting
+ * the progress to the given IModelLoadProgressListener if it's not null. The
+ * compact model converted by CompactShapePredictor is used straight from the
+ * mapping, and the stock model is deserialized from it. It falls back to the
+ * file stream if the file cannot be mapped.
+ *
+ * @return The model, or null if it fails and a Java exception might be
+ *         pending.
+ */
+std::shared_ptr<const LandmarksModel> readLandmarksModel(JNIEnv* env,
+                                                         const char* path,
+                                                         jobject listener) {
+    std::unique_ptr<MappedFile> file(new MappedFile());
+    if (!file->open(path)) {
+        LOGI("L%d: Cannot map %s, read it as a stream", __LINE__, path);
+        std::unique_ptr<dlib::shape_predictor> model(new dlib::shape_predictor());
+        dlib::deserialize(path) >> *model;
+        return std::make_shared<const LandmarksModel>(std::move(model));
+    }
+
+    jmethodID onProgress = NULL;
+    if (listener != NULL) {
+        jclass clazz = env->GetObjectClass(listener);
+        onProgress = env->GetMethodID(clazz, "onProgress", "(JJ)V");
+        env->DeleteLocalRef(clazz);
+        if (onProgress == NULL) return std::shared_ptr<const LandmarksModel>();
+    }
+    auto reportProgress = [&](size_t loaded, size_t total) {
+        if (onProgress == NULL) return;
+
+        env->CallVoidMethod(listener, onProgress, (jlong) loaded, (jlong) total);
+        if (env->ExceptionCheck()) {
+            // Abort the loading, the Java exception is kept pending.
+            throw std::runtime_error("The progress listener throws!");
+        }
+    };
+
+    std::shared_ptr<const LandmarksModel> model;
+    if (CompactShapePredictor::isCompactModel(file->data(), file->size())) {
+        std::unique_ptr<CompactShapePredictor> compactModel(new CompactShapePredictor());
+        compactModel->load(std::move(file), MODEL_PROGRESS_CHUNK_SIZE, reportProgress);
+        model = std::make_shared<const LandmarksModel>(std::move(compactModel));
+    } else {
+        MappedStreamBuf buffer(file->data(), file->size(), MODEL_PROGRESS_CHUNK_SIZE,
+                               reportProgress);
+        std::istream in(&buffer);
+        std::unique_ptr<dlib::shape_predictor> denseModel(new dlib::shape_predictor());
+        dlib::deserialize(*denseModel, in);
+        model = std::make_shared<const LandmarksModel>(std::move(denseModel));
+    }
+
+    return env->ExceptionCheck() ? std::shared_ptr<const LandmarksModel>() : model;
+}
+
+/**
+ * Load the landmarks model of the given model file, or share the cached one
+ * if it's loaded. The cached model is shared across the detectors and the
+ * activities until releaseModelsNative() drops it, e.g. on a memory trim, and
+ * the next detection loads it again lazily, see ScopedLandmarksModel.
+ *
+ * @return The model, or null with a Java exception thrown.
+ */
+std::shared_ptr<const LandmarksModel> loadLandmarksModel(JNIEnv* env,
+                                                         const char* path,
+                                                         jobject listener) {
+    // Profiler.
+    Profiler profiler;
+    profiler.start();
+
+    std::shared_ptr<const LandmarksModel> model;
+    bool isReload = false;
+    double interval = 0;
+    {
+        // The deserializing takes seconds and calls back the listener, so it
+        // holds the loading mutex only, and the detections and the releasing
+        // go on meanwhile.
+        std::lock_guard<std::mutex> loadLock(sModelLoadMutex);
+        {
+            std::lock_guard<std::mutex> lock(sModelMutex);
+            if (sLandmarksDetectorModel && sLandmarksDetectorModelPath == path) {
+                LOGI("L%d: The face landmarks detector is shared (took %.3f ms)",
+                     __LINE__, profiler.stopAndGetInterval());
+                return sLandmarksDetectorModel;
+            }
+            isReload = sLandmarksDetectorModelPath == path;
+        }
+
+        // We need a shape_predictor. This is the tool that will predict face
+        // landmark positions given an image and face bounding box.
+        try {
+            model = readLandmarksModel(env, path, listener);
+        } catch (std::exception& error) {
+            LOGI("L%d: %s", __LINE__, error.what());
+        }
+        if (!model) {
+            if (!env->ExceptionCheck()) {
+                throwException(env, "Cannot deserialize the face landmarks detector!");
+            }
+            return std::shared_ptr<const LandmarksModel>();
+        }
+
+        interval = profiler.stopAndGetInterval();
+        LOGI("L%d: The face landmarks detector is initialized (took %.3f ms)",
+             __LINE__, interval);
+        LOGI("L%d: landmarksDetector.num_parts()=%lu, isCompact=%d",
+             __LINE__, model->num_parts(), model->isCompact());
+
+        if (model->num_parts() != 68) {
+            throwException(env, "It's not a 68 landmarks detector!");
+            return std::shared_ptr<const LandmarksModel>();
+        }
+
+        std::lock_guard<std::mutex> lock(sModelMutex);
+        sLandmarksDetectorModel = model;
+        sLandmarksDetectorModelPath = path;
+    }
+
+    // Call back the Java with no lock held.
+    reportModelLoadTime(env, path, interval, isReload);
+
+    return model;
 }
 
 // JNI ////////////////////////////////////////////////////////////////////////
 
-dlib::shape_predictor sFaceLandmarksDetector;
-dlib::frontal_face_detector sFaceDetector;
+extern "C" JNIEXPORT jlong JNICALL
+JNI_METHOD(nativeCreate)(JNIEnv* env,
+                         jobject thiz) {
+    return (jlong) (intptr_t) new DetectorHandle();
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(nativeDestroy)(JNIEnv* env,
+                          jobject thiz,
+                          jlong handle) {
+    delete (DetectorHandle*) (intptr_t) handle;
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(setParallelism)(JNIEnv* env,
+                           jobject thiz,
+                           jint parallelism) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
+    // More threads than the cores only adds the context switches.
+    const jint cores = (jint) std::max(1u, std::thread::hardware_concurrency());
+    parallelism = std::min(parallelism, cores);
+
+    if (parallelism <= 1) {
+        handle->workerPool.reset();
+    } else if (!handle->workerPool ||
+               handle->workerPool->getParallelism() != (size_t) parallelism) {
+        handle->workerPool.reset(new WorkerPool((size_t) parallelism));
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(setFaceDetectionOptions)(JNIEnv* env,
+                                    jobject thiz,
+                                    jfloat scale,
+                                    jint minFaceSize,
+                                    jint upsampleCount) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
+    if (!(scale > 0.f) || minFaceSize < 0 || upsampleCount < 0) {
+        throwException(env, "Invalid face detection options!");
+        return;
+    }
+
+    handle->detectionOptions.scale = scale;
+    handle->detectionOptions.minFaceSize = minFaceSize;
+    handle->detectionOptions.upsampleCount = upsampleCount;
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(setTrackingInterval)(JNIEnv* env,
+                                jobject thiz,
+                                jint detectInterval) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
+    handle->detectInterval = detectInterval;
+    handle->tracks.clear();
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(resetTracking)(JNIEnv* env,
+                          jobject thiz) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
+    handle->tracks.clear();
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(release)(JNIEnv* env,
+                    jobject thiz) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
+    // Keep what's prepared, the detectors are copied or loaded again by the
+    // next detection.
+    handle->faceDetector = dlib::frontal_face_detector();
+    handle->landmarksModelRef.reset();
+
+    // The buffers only grow, so swap them with the empty ones to free them.
+    FrameBuffer<dlib::rgb_pixel>().swap(handle->rgbFrame);
+    FrameBuffer<unsigned char>().swap(handle->lumaFrame);
+    FrameBuffer<dlib::rgb_pixel>().swap(handle->scaledRgbFrame);
+    FrameBuffer<unsigned char>().swap(handle->scaledLumaFrame);
+    std::vector<dlib::full_object_detection>().swap(handle->shapes);
+    std::vector<dlib::rectangle>().swap(handle->roiBounds);
+    std::vector<dlib::rectangle>().swap(handle->trackedBounds);
+    std::vector<FaceTrack>().swap(handle->tracks);
+    std::vector<std::unique_ptr<BatchWorker> >().swap(handle->batchWorkers);
+    std::vector<float>().swap(handle->batchFaces);
+    std::vector<jint>().swap(handle->batchFacesCounts);
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+JNI_METHOD(releaseModelsNative)(JNIEnv* env,
+                                jclass clazz) {
+    // It's called on the main thread, so never wait for a model being
+    // loaded, which is wanted anyway.
+    std::unique_lock<std::mutex> loadLock(sModelLoadMutex, std::try_to_lock);
+    if (!loadLock.owns_lock()) {
+        LOGI("L%d: A model is being loaded, skip releasing", __LINE__);
+        return JNI_FALSE;
+    }
+    std::lock_guard<std::mutex> lock(sModelMutex);
+
+    // The handles only pin the landmarks model during a detection, so it's
+    // freed right away or when the running detection ends.
+    sFaceDetectorModel.reset();
+    sLandmarksDetectorModel.reset();
+
+    LOGI("L%d: The shared models are released", __LINE__);
+    return JNI_TRUE;
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(setFrameLoggingEnabledNative)(JNIEnv* env,
+                                         jclass clazz,
+                                         jboolean enabled) {
+    sIsFrameLoggingEnabled = (bool) enabled;
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(getLastFrameStats)(JNIEnv* env,
+                              jobject thiz,
+                              jfloatArray out) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
+    // [durations..., facesCount], see DLibFrameStats.java.
+    const FrameStats stats = handle->statsHistory.getLast();
+    jfloat raw[STAGES_COUNT + 1];
+    for (int i = 0; i < STAGES_COUNT; ++i) {
+        raw[i] = (jfloat) stats.durations[i];
+    }
+    raw[STAGES_COUNT] = (jfloat) stats.facesCount;
+
+    env->SetFloatArrayRegion(out, 0, STAGES_COUNT + 1, raw);
+}
+
+extern "C" JNIEXPORT jfloat JNICALL
+JNI_METHOD(getFrameStatsPercentile)(JNIEnv* env,
+                                    jobject thiz,
+                                    jint stage,
+                                    jfloat percentile) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0.f;
+
+    return (jfloat) handle->statsHistory.getPercentile(stage, percentile);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(getFrameStatsCount)(JNIEnv* env,
+                               jobject thiz) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+
+    return (jint) handle->statsHistory.getCount();
+}
+
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(resetFrameStats)(JNIEnv* env,
+                            jobject thiz) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
+    handle->statsHistory.clear();
+}
 
 extern "C" JNIEXPORT jboolean JNICALL
 JNI_METHOD(isFaceDetectorReady)(JNIEnv* env,
                                 jobject thiz) {
-    if (sFaceDetector.num_detectors() > 0) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle != NULL && handle->isFaceDetectorPrepared) {
         return JNI_TRUE;
     } else {
         return JNI_FALSE;
@@ -98,7 +1410,8 @@ JNI_METHOD(isFaceDetectorReady)(JNIEnv* env,
 extern "C" JNIEXPORT jboolean JNICALL
 JNI_METHOD(isFaceLandmarksDetectorReady)(JNIEnv* env,
                                          jobject thiz) {
-    if (sFaceLandmarksDetector.num_parts() > 0) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle != NULL && !handle->landmarksModelPath.empty()) {
         return JNI_TRUE;
     } else {
         return JNI_FALSE;
@@ -108,82 +1421,108 @@ JNI_METHOD(isFaceLandmarksDetectorReady)(JNIEnv* env,
 extern "C" JNIEXPORT void JNICALL
 JNI_METHOD(prepareFaceDetector)(JNIEnv *env,
                                 jobject thiz) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
     // Profiler.
     Profiler profiler;
     profiler.start();
 
-    // Prepare the detector.
-    sFaceDetector = dlib::get_frontal_face_detector();
+    // Prepare the detector, only the first one pays the deserialization and
+    // the others copy it.
+    copyFaceDetector(env, handle);
+    handle->isFaceDetectorPrepared = true;
 
     double interval = profiler.stopAndGetInterval();
 
-    LOGI("L%d: sFaceDetector is initialized (took %.3f ms)", __LINE__, interval);
-    LOGI("L%d: sFaceDetector.num_detectors()=%lu", __LINE__, sFaceDetector.num_detectors());
+    LOGI("L%d: The face detector is initialized (took %.3f ms)", __LINE__, interval);
+    LOGI("L%d: faceDetector.num_detectors()=%lu", __LINE__, handle->faceDetector.num_detectors());
 }
 
 extern "C" JNIEXPORT void JNICALL
 JNI_METHOD(prepareFaceLandmarksDetector)(JNIEnv *env,
                                          jobject thiz,
                                          jstring detectorPath) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return;
+
     const char *path = env->GetStringUTFChars(detectorPath, JNI_FALSE);
 
-    // Profiler.
-    Profiler profiler;
-    profiler.start();
+    std::shared_ptr<const LandmarksModel> model = loadLandmarksModel(env, path, NULL);
+    if (model) {
+        handle->landmarksModelRef = model;
+        handle->landmarksModelPath = path;
+    }
 
-    // We need a shape_predictor. This is the tool that will predict face
-    // landmark positions given an image and face bounding box.  Here we are just
-    // loading the model from the shape_predictor_68_face_landmarks.dat file you gave
-    // as a command line argument.
-    // Deserialize the shape detector.
-    dlib::deserialize(path) >> sFaceLandmarksDetector;
+    env->ReleaseStringUTFChars(detectorPath, path);
+}
 
-    double interval = profiler.stopAndGetInterval();
+extern "C" JNIEXPORT void JNICALL
+JNI_METHOD(preloadFaceLandmarksModelNative)(JNIEnv *env,
+                                            jclass clazz,
+                                            jstring modelPath,
+                                            jobject listener) {
+    const char *path = env->GetStringUTFChars(modelPath, JNI_FALSE);
 
-    LOGI("L%d: sFaceLandmarksDetector is initialized (took %.3f ms)", __LINE__, interval);
-    LOGI("L%d: sFaceLandmarksDetector.num_parts()=%lu", __LINE__, sFaceLandmarksDetector.num_parts());
+    loadLandmarksModel(env, path, listener);
 
-    env->ReleaseStringUTFChars(detectorPath, path);
+    env->ReleaseStringUTFChars(modelPath, path);
+}
 
-    if (sFaceLandmarksDetector.num_parts() != 68) {
-        throwException(env, "It's not a 68 landmarks detector!");
+extern "C" JNIEXPORT jboolean JNICALL
+JNI_METHOD(isFaceLandmarksModelLoadedNative)(JNIEnv *env,
+                                             jclass clazz,
+                                             jstring modelPath) {
+    const char *path = env->GetStringUTFChars(modelPath, JNI_FALSE);
+
+    jboolean isLoaded;
+    {
+        std::lock_guard<std::mutex> lock(sModelMutex);
+        isLoaded = (sLandmarksDetectorModel &&
+                    sLandmarksDetectorModelPath == path) ? JNI_TRUE : JNI_FALSE;
     }
+
+    env->ReleaseStringUTFChars(modelPath, path);
+
+    return isLoaded;
 }
 
 extern "C" JNIEXPORT jbyteArray JNICALL
 JNI_METHOD(detectFaces)(JNIEnv *env,
                         jobject thiz,
                         jobject bitmap) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return NULL;
+    if (!checkFaceDetector(env, handle)) return NULL;
+
     // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
     Profiler profiler;
     profiler.start();
 
-    // Convert bitmap to dlib::array2d.
-    dlib::array2d<dlib::rgb_pixel> img;
-    convertBitmapToArray2d(env, bitmap, img);
+    // Copy bitmap to the frame buffer.
+    FrameBuffer<dlib::rgb_pixel>& img = handle->rgbFrame;
+    if (!convertBitmapToFrameBuffer(env, bitmap, img)) return NULL;
 
-    double interval = profiler.stopAndGetInterval();
+    double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
 
     const long width = img.nc();
     const long height = img.nr();
-    LOGI("L%d: input image (w=%ld, h=%ld) is read (took %.3f ms)",
+    LOGF("L%d: input image (w=%ld, h=%ld) is read (took %.3f ms)",
          __LINE__, width, height, interval);
 
-    profiler.start();
-
     // Now tell the face detector to give us a list of bounding boxes
     // around all the faces in the image.
-    std::vector<dlib::rectangle> dets = sFaceDetector(img);
-    interval = profiler.stopAndGetInterval();
-    LOGI("L%d: Number of faces detected: %u (took %.3f ms)",
-         __LINE__, (unsigned int) dets.size(), interval);
+    std::vector<dlib::rectangle> dets = detectFaceBounds(handle, img);
+
+    // Profiler.
+    profiler.start();
 
     // To protobuf message.
     FaceList faces;
     for (unsigned long i = 0; i < dets.size(); ++i) {
-        // Profiler.
-        profiler.start();
-
         dlib::rectangle& det = dets.at(i);
 
         Face* face = faces.add_faces();
@@ -193,15 +1532,8 @@ JNI_METHOD(detectFaces)(JNIEnv *env,
         bound->set_top((float) det.top() / height);
         bound->set_right((float) det.right() / width);
         bound->set_bottom((float) det.bottom() / height);
-
-        interval = profiler.stopAndGetInterval();
-        LOGI("L%d: Convert face #%lu to protobuf message (took %.3f ms)",
-             __LINE__, i, interval);
     }
 
-    // Profiler.
-    profiler.start();
-
     // Prepare the return message.
     int outSize = faces.ByteSize();
     jbyteArray out = env->NewByteArray(outSize);
@@ -211,10 +1543,13 @@ JNI_METHOD(detectFaces)(JNIEnv *env,
     env->SetByteArrayRegion(out, 0, outSize, buffer);
     delete[] buffer;
 
-    interval = profiler.stopAndGetInterval();
-    LOGI("L%d: Convert faces to protobuf message (took %.3f ms)",
+    interval = addStageDuration(
+        handle, STAGE_SERIALIZE, profiler.stopAndGetInterval());
+    LOGF("L%d: Convert faces to protobuf message (took %.3f ms)",
          __LINE__, interval);
 
+    endFrameStats(handle, frameProfiler, (jint) dets.size());
+
     return out;
 }
 
@@ -226,29 +1561,36 @@ JNI_METHOD(detectLandmarksFromFace)(JNIEnv *env,
                                     jlong top,
                                     jlong right,
                                     jlong bottom) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return NULL;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return NULL;
+
     // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
     Profiler profiler;
     profiler.start();
 
-    // Convert bitmap to dlib::array2d.
-    dlib::array2d<dlib::rgb_pixel> img;
-    convertBitmapToArray2d(env, bitmap, img);
+    // Copy the face part of the bitmap to the frame buffer.
+    const std::vector<dlib::rectangle> bounds(1, dlib::rectangle(left, top, right, bottom));
+    FrameBuffer<dlib::rgb_pixel>& img = handle->rgbFrame;
+    FrameRegion region;
+    if (!convertBitmapToFrameBuffer(env, bitmap, getFacesRoi(bounds), img, region)) return NULL;
 
-    double interval = profiler.stopAndGetInterval();
+    double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
 
-    const long width = img.nc();
-    const long height = img.nr();
-    LOGI("L%d: input image (w=%ld, h=%ld) is read (took %.3f ms)",
-         __LINE__, width, height, interval);
-
-    profiler.start();
+    const long width = region.imageWidth;
+    const long height = region.imageHeight;
+    LOGF("L%d: input image ROI (w=%ld, h=%ld) is read (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), interval);
 
     // Detect landmarks.
-    dlib::rectangle bound(left, top, right, bottom);
-    dlib::full_object_detection shape = sFaceLandmarksDetector(img, bound);
-    interval = profiler.stopAndGetInterval();
-    LOGI("L%d: %lu landmarks detected (took %.3f ms)",
-         __LINE__, shape.num_parts(), interval);
+    translateBoundsToRoi(region, bounds, handle->roiBounds);
+    predictLandmarks(handle, img, handle->roiBounds, 1);
+    translateShapesFromRoi(region, handle->shapes, 1);
+    const dlib::full_object_detection& shape = handle->shapes[0];
 
     profiler.start();
     // Protobuf message.
@@ -257,19 +1599,12 @@ JNI_METHOD(detectLandmarksFromFace)(JNIEnv *env,
     // you want them.  Here we just store them in shapes so we can
     // put them on the screen.
     for (unsigned long i = 0 ; i < shape.num_parts(); ++i) {
-        dlib::point& pt = shape.part(i);
+        const dlib::point& pt = shape.part(i);
 
         Landmark* landmark = landmarks.add_landmarks();
         landmark->set_x((float) pt.x() / width);
         landmark->set_y((float) pt.y() / height);
     }
-    interval = profiler.stopAndGetInterval();
-    LOGI("L%d: Convert #%lu landmarks to protobuf message (took %.3f ms)",
-         __LINE__, shape.num_parts(), interval);
-
-    // Profiler.
-    profiler.start();
-
     // TODO: Make a JNI function to convert a message to byte[] living in
     // TODO: lib-protobuf project.
     // Prepare the return message.
@@ -281,10 +1616,13 @@ JNI_METHOD(detectLandmarksFromFace)(JNIEnv *env,
     env->SetByteArrayRegion(out, 0, outSize, buffer);
     delete[] buffer;
 
-    interval = profiler.stopAndGetInterval();
-    LOGI("L%d: Convert faces to protobuf message (took %.3f ms)",
+    interval = addStageDuration(
+        handle, STAGE_SERIALIZE, profiler.stopAndGetInterval());
+    LOGF("L%d: Convert landmarks to protobuf message (took %.3f ms)",
          __LINE__, interval);
 
+    endFrameStats(handle, frameProfiler, 1);
+
     return out;
 }
 
@@ -293,22 +1631,17 @@ JNI_METHOD(detectLandmarksFromFaces)(JNIEnv *env,
                                      jobject thiz,
                                      jobject bitmap,
                                      jbyteArray faceRects) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return NULL;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return NULL;
+
     // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
     Profiler profiler;
     profiler.start();
 
-    // Convert bitmap to dlib::array2d.
-    dlib::array2d<dlib::rgb_pixel> img;
-    convertBitmapToArray2d(env, bitmap, img);
-
-    const long width = img.nc();
-    const long height = img.nr();
-    LOGI("L%d: input image (w=%ld, h=%ld) is read (took %.3f ms)",
-         __LINE__, width, height,
-         profiler.stopAndGetInterval());
-
-    profiler.start();
-
     // Translate the input face-rects message into something we recognize here.
     jbyte* pFaceRects = env->GetByteArrayElements(faceRects, NULL);
     jsize pFaceRectsLen = env->GetArrayLength(faceRects);
@@ -323,20 +1656,35 @@ JNI_METHOD(detectLandmarksFromFaces)(JNIEnv *env,
                                          (long) msgBound.right(),
                                          (long) msgBound.bottom()));
     }
-    LOGI("L%d: input face rects (size=%d) is read (took %.3f ms)",
-         __LINE__, msgBounds.rects().size(),
-         profiler.stopAndGetInterval());
+    double interval = addStageDuration(
+        handle, STAGE_SERIALIZE, profiler.stopAndGetInterval());
+    LOGF("L%d: input face rects (size=%d) is read (took %.3f ms)",
+         __LINE__, msgBounds.rects().size(), interval);
+
+    profiler.start();
+
+    // Copy the faces part of the bitmap to the frame buffer.
+    FrameBuffer<dlib::rgb_pixel>& img = handle->rgbFrame;
+    FrameRegion region;
+    if (!convertBitmapToFrameBuffer(env, bitmap, getFacesRoi(bounds), img, region)) return NULL;
+
+    const long width = region.imageWidth;
+    const long height = region.imageHeight;
+    interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
+    LOGF("L%d: input image ROI (w=%ld, h=%ld) is read (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), interval);
 
     // Detect landmarks and return protobuf message.
+    translateBoundsToRoi(region, bounds, handle->roiBounds);
+    predictLandmarks(handle, img, handle->roiBounds, bounds.size());
+    translateShapesFromRoi(region, handle->shapes, bounds.size());
+
+    profiler.start();
+
     FaceList faces;
     for (unsigned long j = 0; j < bounds.size(); ++j) {
-        profiler.start();
-        dlib::full_object_detection shape = sFaceLandmarksDetector(img, bounds[j]);
-        LOGI("L%d: #%lu face, %lu landmarks detected (took %.3f ms)",
-             __LINE__, j, shape.num_parts(),
-             profiler.stopAndGetInterval());
-
-        profiler.start();
+        const dlib::full_object_detection& shape = handle->shapes[j];
 
         // To protobuf message.
         Face* face = faces.add_faces();
@@ -348,19 +1696,14 @@ JNI_METHOD(detectLandmarksFromFaces)(JNIEnv *env,
         bound->set_bottom((float) bounds[j].bottom() / height);
         // Transfer face landmarks.
         for (u_long i = 0 ; i < shape.num_parts(); ++i) {
-            dlib::point& pt = shape.part(i);
+            const dlib::point& pt = shape.part(i);
 
             Landmark* landmark = face->add_landmarks();
             landmark->set_x((float) pt.x() / width);
             landmark->set_y((float) pt.y() / height);
         }
-        LOGI("L%d: Convert #%lu face to protobuf message (took %.3f ms)",
-             __LINE__, j,
-             profiler.stopAndGetInterval());
     }
 
-    profiler.start();
-
     // Prepare the return message.
     int outSize = faces.ByteSize();
     jbyteArray out = env->NewByteArray(outSize);
@@ -370,67 +1713,465 @@ JNI_METHOD(detectLandmarksFromFaces)(JNIEnv *env,
     env->SetByteArrayRegion(out, 0, outSize, buffer);
     delete[] buffer;
 
-    LOGI("L%d: Convert faces to protobuf message (took %.3f ms)",
-         __LINE__, profiler.stopAndGetInterval());
+    interval = addStageDuration(
+        handle, STAGE_SERIALIZE, profiler.stopAndGetInterval());
+    LOGF("L%d: Convert faces to protobuf message (took %.3f ms)",
+         __LINE__, interval);
+
+    endFrameStats(handle, frameProfiler, (jint) bounds.size());
 
     return out;
 }
 
+/**
+ * Predict the landmarks in the given bounds and write the packed faces. The
+ * image could be just the ROI of the whole image described by the region,
+ * while the bounds and the written faces are in the whole image.
+ * <br/>
+ * The faces start being tracked if the tracking is on, or the tracked faces
+ * are moved if the bounds are seeded by them.
+ *
+ * @param isTracked True if the bounds are seeded by the tracked faces.
+ * @return The number of faces written.
+ */
+template <typename image_type>
+jint detectLandmarksToPackedOutput(JNIEnv* env,
+                                   DetectorHandle* handle,
+                                   const image_type& img,
+                                   const FrameRegion& region,
+                                   const std::vector<dlib::rectangle>& bounds,
+                                   const bool isTracked,
+                                   PackedOutput& out) {
+    const float width = (float) region.imageWidth;
+    const float height = (float) region.imageHeight;
+    const jint count = std::min((jint) bounds.size(), out.maxFaces);
+
+    translateBoundsToRoi(region, bounds, handle->roiBounds);
+    predictLandmarks(handle, img, handle->roiBounds, (size_t) count);
+    translateShapesFromRoi(region, handle->shapes, (size_t) count);
+
+    if (isTracked) {
+        updateTracks(handle, region, (size_t) count);
+    } else if (isTrackingEnabled(handle)) {
+        startTracks(handle, region, bounds, (size_t) count);
+    }
+
+    Profiler profiler;
+    profiler.start();
+
+    for (jint j = 0; j < count; ++j) {
+        const dlib::rectangle& bound = isTracked ? handle->tracks[j].bound : bounds[j];
+        writePackedOutput(env, out, j, bound, handle->shapes[j], width, height);
+    }
+
+    addStageDuration(handle, STAGE_SERIALIZE, profiler.stopAndGetInterval());
+
+    return count;
+}
+
+/**
+ * Predict the landmarks of the faces tracked from the previous frame. Only the
+ * ROI of the tracked faces is read from the luma plane.
+ *
+ * @return The number of faces written, or -1 if the luma plane can't be read.
+ */
+jint trackLandmarksInYuv(JNIEnv* env,
+                         DetectorHandle* handle,
+                         jobject yuvBuffer,
+                         jbyteArray yuvArray,
+                         jint yuvOffset,
+                         jint width,
+                         jint height,
+                         jint rotation,
+                         jboolean mirror,
+                         PackedOutput& out) {
+    std::vector<dlib::rectangle>& bounds = handle->trackedBounds;
+    bounds.clear();
+    for (size_t j = 0; j < handle->tracks.size(); ++j) {
+        bounds.push_back(handle->tracks[j].bound);
+    }
+
+    // Profiler.
+    Profiler profiler;
+    profiler.start();
+
+    FrameBuffer<unsigned char>& img = handle->lumaFrame;
+    FrameRegion region;
+    if (!readLumaFromYuv(env, yuvBuffer, yuvArray, yuvOffset,
+                         width, height, rotation, mirror,
+                         getFacesRoi(bounds), img, region)) return -1;
+
+    const double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
+    LOGF("L%d: input luma ROI (w=%ld, h=%ld) is read for %u tracked faces (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), (unsigned int) bounds.size(), interval);
+
+    return detectLandmarksToPackedOutput(env, handle, img, region, bounds, true, out);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(detectLandmarksFromFacesPacked)(JNIEnv *env,
+                                           jobject thiz,
+                                           jobject bitmap,
+                                           jintArray faceBounds,
+                                           jint faceCount,
+                                           jobject outBuffer,
+                                           jfloatArray outArray) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return 0;
+
+    // Figure out where to write and how many faces it could hold.
+    PackedOutput out;
+    if (!getPackedOutput(env, outBuffer, outArray, out)) return 0;
+
+    std::vector<dlib::rectangle> bounds;
+    if (!readFaceBounds(env, faceBounds, std::min(faceCount, out.maxFaces), bounds)) return 0;
+    if (bounds.empty()) return 0;
+
+    // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
+    Profiler profiler;
+    profiler.start();
+
+    // Copy the faces part of the bitmap to the frame buffer.
+    FrameBuffer<dlib::rgb_pixel>& img = handle->rgbFrame;
+    FrameRegion region;
+    if (!convertBitmapToFrameBuffer(env, bitmap, getFacesRoi(bounds), img, region)) return 0;
+
+    const double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
+    LOGF("L%d: input image ROI (w=%ld, h=%ld) is read (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), interval);
+
+    return endFrameStats(handle, frameProfiler,
+                         detectLandmarksToPackedOutput(env, handle, img, region, bounds, false, out));
+}
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(detectLandmarksFromFacesInYuvPacked)(JNIEnv *env,
+                                                jobject thiz,
+                                                jobject yuvBuffer,
+                                                jbyteArray yuvArray,
+                                                jint yuvOffset,
+                                                jint width,
+                                                jint height,
+                                                jint rotation,
+                                                jboolean mirror,
+                                                jintArray faceBounds,
+                                                jint faceCount,
+                                                jobject outBuffer,
+                                                jfloatArray outArray) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return 0;
+
+    PackedOutput out;
+    if (!getPackedOutput(env, outBuffer, outArray, out)) return 0;
+
+    std::vector<dlib::rectangle> bounds;
+    if (!readFaceBounds(env, faceBounds, std::min(faceCount, out.maxFaces), bounds)) return 0;
+    if (bounds.empty()) return 0;
+
+    // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
+    Profiler profiler;
+    profiler.start();
+
+    // Copy the faces part of the luma plane, no color conversion is needed.
+    FrameBuffer<unsigned char>& img = handle->lumaFrame;
+    FrameRegion region;
+    if (!readLumaFromYuv(env, yuvBuffer, yuvArray, yuvOffset,
+                         width, height, rotation, mirror,
+                         getFacesRoi(bounds), img, region)) return 0;
+
+    const double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
+    LOGF("L%d: input luma ROI (w=%ld, h=%ld) is read (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), interval);
+
+    return endFrameStats(handle, frameProfiler,
+                         detectLandmarksToPackedOutput(env, handle, img, region, bounds, false, out));
+}
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(detectFacesAndLandmarksInYuvPacked)(JNIEnv *env,
+                                               jobject thiz,
+                                               jobject yuvBuffer,
+                                               jbyteArray yuvArray,
+                                               jint yuvOffset,
+                                               jint width,
+                                               jint height,
+                                               jint rotation,
+                                               jboolean mirror,
+                                               jobject outBuffer,
+                                               jfloatArray outArray) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+    if (!checkFaceDetector(env, handle)) return 0;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return 0;
+
+    PackedOutput out;
+    if (!getPackedOutput(env, outBuffer, outArray, out)) return 0;
+
+    // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
+
+    // Skip the face detection if the faces are tracked from the previous
+    // frame.
+    dropTracksOfOtherFrame(handle, width, height, rotation, mirror);
+    if (!isDetectionDue(handle)) {
+        const jint count = trackLandmarksInYuv(env, handle, yuvBuffer, yuvArray, yuvOffset,
+                                               width, height, rotation, mirror, out);
+        if (count < 0) return 0;
+
+        return endFrameStats(handle, frameProfiler, count);
+    }
+
+    Profiler profiler;
+    profiler.start();
+
+    // Copy the luma plane, no color conversion is needed.
+    FrameBuffer<unsigned char>& img = handle->lumaFrame;
+    FrameRegion region;
+    if (!readLumaFromYuv(env, yuvBuffer, yuvArray, yuvOffset,
+                         width, height, rotation, mirror,
+                         dlib::rectangle(), img, region)) return 0;
+
+    const double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
+    LOGF("L%d: input luma (w=%ld, h=%ld) is read (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), interval);
+
+    // Now tell the face detector to give us a list of bounding boxes
+    // around all the faces in the image.
+    std::vector<dlib::rectangle> dets = detectFaceBounds(handle, img);
+
+    return endFrameStats(handle, frameProfiler,
+                         detectLandmarksToPackedOutput(env, handle, img, region, dets, false, out));
+}
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(trackLandmarksInYuvPacked)(JNIEnv *env,
+                                      jobject thiz,
+                                      jobject yuvBuffer,
+                                      jbyteArray yuvArray,
+                                      jint yuvOffset,
+                                      jint width,
+                                      jint height,
+                                      jint rotation,
+                                      jboolean mirror,
+                                      jobject outBuffer,
+                                      jfloatArray outArray) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return 0;
+
+    // Tell the caller to run the face detection.
+    dropTracksOfOtherFrame(handle, width, height, rotation, mirror);
+    if (isDetectionDue(handle)) return -1;
+
+    PackedOutput out;
+    if (!getPackedOutput(env, outBuffer, outArray, out)) return 0;
+
+    // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
+
+    const jint count = trackLandmarksInYuv(env, handle, yuvBuffer, yuvArray, yuvOffset,
+                                           width, height, rotation, mirror, out);
+    if (count < 0) return 0;
+
+    return endFrameStats(handle, frameProfiler, count);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(detectFacesPacked)(JNIEnv *env,
+                              jobject thiz,
+                              jobject bitmap,
+                              jobject outBuffer,
+                              jfloatArray outArray) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+    if (!checkFaceDetector(env, handle)) return 0;
+
+    PackedOutput out;
+    if (!getPackedOutput(env, outBuffer, outArray, out)) return 0;
+
+    // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
+    Profiler profiler;
+    profiler.start();
+
+    // Copy bitmap to the frame buffer.
+    FrameBuffer<dlib::rgb_pixel>& img = handle->rgbFrame;
+    if (!convertBitmapToFrameBuffer(env, bitmap, img)) return 0;
+
+    const double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
+    LOGF("L%d: input image (w=%ld, h=%ld) is read (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), interval);
+
+    std::vector<dlib::rectangle> dets = detectFaceBounds(handle, img);
+
+    profiler.start();
+
+    // Only the bounds, the landmarks are left zero.
+    const dlib::full_object_detection noShape;
+    const jint count = std::min((jint) dets.size(), out.maxFaces);
+    for (jint j = 0; j < count; ++j) {
+        writePackedOutput(env, out, j, dets[j], noShape,
+                          (float) img.nc(), (float) img.nr());
+    }
+
+    addStageDuration(handle, STAGE_SERIALIZE, profiler.stopAndGetInterval());
+
+    return endFrameStats(handle, frameProfiler, count);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(detectFacesAndLandmarksPacked)(JNIEnv *env,
+                                          jobject thiz,
+                                          jobject bitmap,
+                                          jobject outBuffer,
+                                          jfloatArray outArray) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+    if (!checkFaceDetector(env, handle)) return 0;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return 0;
+
+    PackedOutput out;
+    if (!getPackedOutput(env, outBuffer, outArray, out)) return 0;
+
+    // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
+    Profiler profiler;
+    profiler.start();
+
+    // Copy bitmap to the frame buffer.
+    FrameBuffer<dlib::rgb_pixel>& img = handle->rgbFrame;
+    FrameRegion region;
+    if (!convertBitmapToFrameBuffer(env, bitmap, dlib::rectangle(), img, region)) return 0;
+
+    const double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
+    LOGF("L%d: input image (w=%ld, h=%ld) is read (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), interval);
+
+    std::vector<dlib::rectangle> dets = detectFaceBounds(handle, img);
+
+    return endFrameStats(handle, frameProfiler,
+                         detectLandmarksToPackedOutput(env, handle, img, region, dets, false, out));
+}
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(detectFacesAndLandmarksInRgbaPacked)(JNIEnv *env,
+                                                jobject thiz,
+                                                jobject rgbaBuffer,
+                                                jint width,
+                                                jint height,
+                                                jint rowStride,
+                                                jobject outBuffer,
+                                                jfloatArray outArray) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+    if (!checkFaceDetector(env, handle)) return 0;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return 0;
+    if (!checkFrameFormat(env, width, height, 0)) return 0;
+    if (rowStride < 4 * width) {
+        throwException(env, "The row stride is less than the row!");
+        return 0;
+    }
+
+    const uint8_t* pixels = (const uint8_t*) env->GetDirectBufferAddress(rgbaBuffer);
+    const jlong capacity = env->GetDirectBufferCapacity(rgbaBuffer);
+    if (pixels == NULL || capacity < (jlong) rowStride * (height - 1) + 4 * width) {
+        throwException(env, "The pixel buffer is too small or not direct!");
+        return 0;
+    }
+
+    PackedOutput out;
+    if (!getPackedOutput(env, outBuffer, outArray, out)) return 0;
+
+    // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
+    Profiler profiler;
+    profiler.start();
+
+    // Copy the pixels to the frame buffer.
+    FrameBuffer<dlib::rgb_pixel>& img = handle->rgbFrame;
+    FrameRegion region;
+    convertRgbaToFrameBuffer(pixels, width, height, rowStride, dlib::rectangle(), img, region);
+
+    const double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
+    LOGF("L%d: input image (w=%ld, h=%ld) is read (took %.3f ms)",
+         __LINE__, img.nc(), img.nr(), interval);
+
+    std::vector<dlib::rectangle> dets = detectFaceBounds(handle, img);
+
+    return endFrameStats(handle, frameProfiler,
+                         detectLandmarksToPackedOutput(env, handle, img, region, dets, false, out));
+}
+
 extern "C" JNIEXPORT jbyteArray JNICALL
 JNI_METHOD(detectFacesAndLandmarks)(JNIEnv *env,
                                     jobject thiz,
                                     jobject bitmap) {
-    if (sFaceDetector.num_detectors() == 0) {
-        LOGI("L%d: sFaceDetector is not initialized!", __LINE__);
-        throwException(env, "sFaceDetector is not initialized!");
-        return NULL;
-    }
-    if (sFaceLandmarksDetector.num_parts() == 0) {
-        LOGI("L%d: sFaceLandmarksDetector is not initialized!", __LINE__);
-        throwException(env, "sFaceLandmarksDetector is not initialized!");
-        return NULL;
-    }
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return NULL;
+    if (!checkFaceDetector(env, handle)) return NULL;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return NULL;
 
     // Profiler.
+    Profiler frameProfiler;
+    beginFrameStats(handle, frameProfiler);
     Profiler profiler;
     profiler.start();
 
-    // Convert bitmap to dlib::array2d.
-    dlib::array2d<dlib::rgb_pixel> img;
-    convertBitmapToArray2d(env, bitmap, img);
+    // Copy bitmap to the frame buffer.
+    FrameBuffer<dlib::rgb_pixel>& img = handle->rgbFrame;
+    if (!convertBitmapToFrameBuffer(env, bitmap, img)) return NULL;
 
-    double interval = profiler.stopAndGetInterval();
+    double interval = addStageDuration(
+        handle, STAGE_CONVERT, profiler.stopAndGetInterval());
 
     const float width = (float) img.nc();
     const float height = (float) img.nr();
-    LOGI("L%d: input image (w=%f, h=%f) is read (took %.3f ms)",
+    LOGF("L%d: input image (w=%f, h=%f) is read (took %.3f ms)",
          __LINE__, width, height, interval);
 
 //    // Make the image larger so we can detect small faces.
 //    dlib::pyramid_up(img);
 //    LOGI("L%d: pyramid_up the input image (w=%lu, h=%lu).", __LINE__, img.nc(), img.nr());
 
-    profiler.start();
-
     // Now tell the face detector to give us a list of bounding boxes
     // around all the faces in the image.
-    std::vector<dlib::rectangle> dets = sFaceDetector(img);
-    interval = profiler.stopAndGetInterval();
-    LOGI("L%d: Number of faces detected: %u (took %.3f ms)",
-         __LINE__, (unsigned int) dets.size(), interval);
+    std::vector<dlib::rectangle> dets = detectFaceBounds(handle, img);
 
-    // Protobuf message.
-    FaceList faces;
     // Now we will go ask the shape_predictor to tell us the pose of
     // each face we detected.
-    for (unsigned long j = 0; j < dets.size(); ++j) {
-        profiler.start();
-        dlib::full_object_detection shape = sFaceLandmarksDetector(img, dets[j]);
-        interval = profiler.stopAndGetInterval();
-        LOGI("L%d: #%lu face, %lu landmarks detected (took %.3f ms)",
-             __LINE__, j, shape.num_parts(), interval);
+    predictLandmarks(handle, img, dets, dets.size());
 
-        profiler.start();
+    profiler.start();
+
+    // Protobuf message.
+    FaceList faces;
+    for (unsigned long j = 0; j < dets.size(); ++j) {
+        const dlib::full_object_detection& shape = handle->shapes[j];
 
         // To protobuf message.
         Face* face = faces.add_faces();
@@ -442,19 +2183,14 @@ JNI_METHOD(detectFacesAndLandmarks)(JNIEnv *env,
         bound->set_bottom((float) dets[j].bottom() / height);
         // Transfer face landmarks.
         for (u_long i = 0 ; i < shape.num_parts(); ++i) {
-            dlib::point& pt = shape.part(i);
+            const dlib::point& pt = shape.part(i);
 
             Landmark* landmark = face->add_landmarks();
             landmark->set_x((float) pt.x() / width);
             landmark->set_y((float) pt.y() / height);
         }
-        interval = profiler.stopAndGetInterval();
-        LOGI("L%d: Convert #%lu face to protobuf message (took %.3f ms)",
-             __LINE__, j, interval);
     }
 
-    profiler.start();
-
     // Prepare the return message.
     int outSize = faces.ByteSize();
     jbyteArray out = env->NewByteArray(outSize);
@@ -464,9 +2200,130 @@ JNI_METHOD(detectFacesAndLandmarks)(JNIEnv *env,
     env->SetByteArrayRegion(out, 0, outSize, buffer);
     delete[] buffer;
 
-    interval = profiler.stopAndGetInterval();
-    LOGI("L%d: Convert faces to protobuf message (took %.3f ms)",
+    interval = addStageDuration(
+        handle, STAGE_SERIALIZE, profiler.stopAndGetInterval());
+    LOGF("L%d: Convert faces to protobuf message (took %.3f ms)",
          __LINE__, interval);
 
+    endFrameStats(handle, frameProfiler, (jint) dets.size());
+
     return out;
 }
+
+extern "C" JNIEXPORT jint JNICALL
+JNI_METHOD(detectFacesAndLandmarksInYuvBatch)(JNIEnv *env,
+                                              jobject thiz,
+                                              jobjectArray frames,
+                                              jint frameCount,
+                                              jint width,
+                                              jint height,
+                                              jint rotation,
+                                              jboolean mirror,
+                                              jint maxFacesPerFrame,
+                                              jfloatArray outFaces,
+                                              jintArray outFacesCounts) {
+    DetectorHandle* handle = getHandle(env, thiz);
+    if (handle == NULL) return 0;
+    if (!checkFaceDetector(env, handle)) return 0;
+    ScopedLandmarksModel landmarksModel(env, handle);
+    if (!landmarksModel.isReady()) return 0;
+    if (!checkFrameFormat(env, width, height, rotation)) return 0;
+    if (frameCount <= 0) return 0;
+
+    // Sized in size_t, the product could wrap a jsize.
+    const size_t frameStride = (size_t) std::max(maxFacesPerFrame, 0) * PACKED_FACE_SIZE;
+    const size_t facesSize = (size_t) frameCount * frameStride;
+    if (maxFacesPerFrame <= 0 ||
+        facesSize > (size_t) INT_MAX ||
+        facesSize > (size_t) env->GetArrayLength(outFaces) ||
+        env->GetArrayLength(outFacesCounts) < frameCount) {
+        throwException(env, "The output arrays are too small!");
+        return 0;
+    }
+
+    // Profiler.
+    Profiler profiler;
+    profiler.start();
+
+    // Only the addresses of the direct buffers are read here, the workers
+    // never touch the JNI.
+    const jlong lumaSize = (jlong) width * height;
+    std::vector<const unsigned char*> lumas((size_t) frameCount);
+    for (jint i = 0; i < frameCount; ++i) {
+        jobject frame = env->GetObjectArrayElement(frames, i);
+        lumas[i] = (const unsigned char*) env->GetDirectBufferAddress(frame);
+        const jlong capacity = env->GetDirectBufferCapacity(frame);
+        env->DeleteLocalRef(frame);
+
+        if (lumas[i] == NULL || capacity < lumaSize) {
+            throwException(env, "The frame buffer is too small or not direct!");
+            return 0;
+        }
+    }
+
+    // One worker per thread, the calling thread included.
+    const size_t parallelism = handle->workerPool ? handle->workerPool->getParallelism() : 1;
+    const size_t workerCount = std::min(parallelism, (size_t) frameCount);
+    while (handle->batchWorkers.size() < workerCount) {
+        std::unique_ptr<BatchWorker> worker(new BatchWorker());
+        worker->faceDetector = handle->faceDetector;
+        handle->batchWorkers.push_back(std::move(worker));
+    }
+
+    std::vector<float>& faces = handle->batchFaces;
+    std::vector<jint>& facesCounts = handle->batchFacesCounts;
+    faces.resize(facesSize);
+    facesCounts.resize((size_t) frameCount);
+
+    const bool isTransposed = (rotation == 90 || rotation == 270);
+    FrameRegion region;
+    setFrameRegion(isTransposed ? height : width,
+                   isTransposed ? width : height,
+                   rotation, mirror == JNI_TRUE,
+                   dlib::rectangle(), region);
+
+    const LandmarksModel& landmarksDetector = *handle->landmarksDetector;
+    const FaceDetectionOptions options = handle->detectionOptions;
+    std::atomic<size_t> nextFrame(0);
+
+    // Every worker takes the next frame until all are taken, and writes the
+    // faces to the slot of the frame, so the output is in the frame order.
+    auto runWorker = [&](size_t w) {
+        BatchWorker& worker = *handle->batchWorkers[w];
+
+        size_t i;
+        while ((i = nextFrame++) < (size_t) frameCount) {
+            convertLumaToFrameBuffer(lumas[i], width, height,
+                                     rotation, mirror == JNI_TRUE,
+                                     region.roi, worker.lumaFrame);
+
+            const std::vector<dlib::rectangle> dets = scanFaceBounds(
+                worker.faceDetector, options,
+                worker.lumaFrame, worker.scaledLumaFrame);
+
+            const size_t count = std::min(dets.size(), (size_t) maxFacesPerFrame);
+            for (size_t j = 0; j < count; ++j) {
+                writePackedFace(dets[j],
+                                landmarksDetector(worker.lumaFrame, dets[j]),
+                                (float) region.imageWidth,
+                                (float) region.imageHeight,
+                                &faces[i * frameStride + j * PACKED_FACE_SIZE]);
+            }
+            facesCounts[i] = (jint) count;
+        }
+    };
+    if (workerCount > 1) {
+        handle->workerPool->parallelFor(workerCount, runWorker);
+    } else {
+        runWorker(0);
+    }
+
+    env->SetFloatArrayRegion(outFaces, 0, (jsize) faces.size(), &faces[0]);
+    env->SetIntArrayRegion(outFacesCounts, 0, frameCount, &facesCounts[0]);
+
+    LOGF("L%d: %d frames are detected on %u threads (took %.3f ms)",
+         __LINE__, frameCount, (unsigned int) workerCount,
+         profiler.stopAndGetInterval());
+
+    return frameCount;
+}
@@ -0,0 +1,84 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#include <algorithm>
+#include <cmath>
+#include <my/dlib/frame_stats.h>
+
+FrameStats::FrameStats() {
+    clear();
+}
+
+void FrameStats::clear() {
+    std::fill(durations, durations + STAGES_COUNT, 0.0);
+    facesCount = 0;
+}
+
+FrameStatsHistory::FrameStatsHistory(size_t capacity)
+    : mFrames(std::max((size_t) 1, capacity)),
+      mNextIndex(0),
+      mCount(0),
+      mSorted(std::max((size_t) 1, capacity)) {}
+
+void FrameStatsHistory::add(const FrameStats& stats) {
+    std::lock_guard<std::mutex> lock(mMutex);
+
+    mFrames[mNextIndex] = stats;
+    mNextIndex = (mNextIndex + 1) % mFrames.size();
+    mCount = std::min(mCount + 1, mFrames.size());
+    mLast = stats;
+}
+
+void FrameStatsHistory::clear() {
+    std::lock_guard<std::mutex> lock(mMutex);
+
+    mNextIndex = 0;
+    mCount = 0;
+    mLast.clear();
+}
+
+size_t FrameStatsHistory::getCount() const {
+    std::lock_guard<std::mutex> lock(mMutex);
+
+    return mCount;
+}
+
+FrameStats FrameStatsHistory::getLast() const {
+    std::lock_guard<std::mutex> lock(mMutex);
+
+    return mLast;
+}
+
+double FrameStatsHistory::getPercentile(int stage, double percentile) const {
+    std::lock_guard<std::mutex> lock(mMutex);
+
+    if (mCount == 0 || stage < 0 || stage >= STAGES_COUNT) return 0.0;
+
+    // The nearest-rank percentile.
+    for (size_t i = 0; i < mCount; ++i) {
+        mSorted[i] = mFrames[i].durations[stage];
+    }
+    const double p = std::min(1.0, std::max(0.0, percentile));
+    const size_t rank = (size_t) std::ceil(p * mCount);
+    const size_t index = rank == 0 ? 0 : rank - 1;
+    std::nth_element(mSorted.begin(), mSorted.begin() + index, mSorted.begin() + mCount);
+
+    return mSorted[index];
+}
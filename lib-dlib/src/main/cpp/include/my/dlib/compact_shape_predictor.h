@@ -0,0 +1,201 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#ifndef COM_MY_JNI_DLIB_COMPACT_SHAPE_PREDICTOR_H
+#define COM_MY_JNI_DLIB_COMPACT_SHAPE_PREDICTOR_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include <functional>
+#include <istream>
+#include <memory>
+#include <ostream>
+#include <vector>
+#include <dlib/image_processing/shape_predictor.h>
+#include <my/dlib/mapped_file.h>
+
+/**
+ * A read-only dlib::shape_predictor whose leaf values, which are almost all of
+ * the model, are quantized to 16 or 8 bits with a scale per leaf. The model is
+ * used straight from a memory mapping of the file converted by
+ * {@link #convert}, so loading it costs no parsing and its pages are backed by
+ * the file rather than the native heap.
+ * <br/>
+ * The predictions are the same as the ones of the original model but for the
+ * quantization error, see tools/shape_predictor_tool.cpp for the comparison.
+ * <br/>
+ * Usage:
+ * <pre>
+ * // Offline.
+ * std::ifstream in("shape_predictor_68_face_landmarks.dat", std::ios::binary);
+ * std::ofstream out("shape_predictor_68_face_landmarks.q8", std::ios::binary);
+ * CompactShapePredictor::convert(in, out, CompactShapePredictor::ENCODING_INT8);
+ *
+ * // On the device.
+ * std::unique_ptr<MappedFile> file(new MappedFile());
+ * file->open(path);
+ * CompactShapePredictor model;
+ * model.load(std::move(file), 1 << 20, NULL);
+ * dlib::full_object_detection shape = model(img, faceBound);
+ * </pre>
+ */
+class CompactShapePredictor {
+public:
+
+    enum Encoding {
+        ENCODING_INT16 = 1,
+        ENCODING_INT8 = 2
+    };
+
+private:
+
+    // The file layout, all in the little endian. The header is followed by
+    // the sections in the order below, every one 4-byte aligned:
+    //   float    initialShape[partsCount * 2]
+    //   uint32_t anchorIndices[cascadesCount * featuresCount]
+    //   float    deltas[cascadesCount * featuresCount * 2]
+    //   Split    splits[cascadesCount * treesCount * (leavesCount - 1)]
+    //   float    leafScales[cascadesCount * treesCount * leavesCount]
+    //   int16_t or int8_t leafValues[cascadesCount * treesCount * leavesCount * partsCount * 2]
+    struct Header {
+        uint32_t magic;
+        uint32_t version;
+        uint32_t encoding;
+        uint32_t partsCount;
+        uint32_t cascadesCount;
+        uint32_t treesCount;
+        uint32_t leavesCount;
+        uint32_t featuresCount;
+    };
+
+    struct Split {
+        uint16_t index1;
+        uint16_t index2;
+        float threshold;
+    };
+
+    std::unique_ptr<MappedFile> mFile;
+    Header mHeader;
+
+    // The small parts are copied out for dlib's feature extraction.
+    dlib::matrix<float, 0, 1> mInitialShape;
+    std::vector<std::vector<unsigned long> > mAnchorIndices;
+    std::vector<std::vector<dlib::vector<float, 2> > > mDeltas;
+
+    // The big parts point into the mapping.
+    const Split* mSplits;
+    const float* mLeafScales;
+    const void* mLeafValues;
+
+    static size_t getFileSize(const Header& header);
+
+    /**
+     * Find the leaf of the given tree for the given feature pixels.
+     */
+    size_t findLeaf(size_t tree,
+                    const std::vector<float>& featurePixelValues) const;
+
+    /**
+     * Add the values of the given leaf to the shape.
+     */
+    void addLeafValues(size_t leaf,
+                       dlib::matrix<float, 0, 1>& shape) const;
+
+    CompactShapePredictor(const CompactShapePredictor&);
+
+    CompactShapePredictor& operator=(const CompactShapePredictor&);
+
+public:
+
+    /**
+     * Convert the dlib::shape_predictor serialized in the given stream, e.g.
+     * shape_predictor_68_face_landmarks.dat, to the compact model.
+     *
+     * @throws dlib::serialization_error Fired if the model cannot be read or
+     *                                   it's not made of the full trees of the
+     *                                   same size.
+     */
+    static void convert(std::istream& in,
+                        std::ostream& out,
+                        Encoding encoding);
+
+    /**
+     * Whether the given file content is a compact model.
+     */
+    static bool isCompactModel(const char* data,
+                               size_t size);
+
+    CompactShapePredictor();
+
+    /**
+     * Use the compact model in the given mapping. The pages are read ahead
+     * chunk by chunk, so the first prediction doesn't wait for the disk.
+     *
+     * @param onProgress Called with the bytes read and the total bytes every
+     *                   chunk, or null.
+     * @throws dlib::serialization_error Fired if it's not a valid compact
+     *                                   model.
+     */
+    void load(std::unique_ptr<MappedFile> file,
+              size_t chunkSize,
+              const std::function<void(size_t, size_t)>& onProgress);
+
+    unsigned long num_parts() const { return mInitialShape.size() / 2; }
+
+    Encoding getEncoding() const { return (Encoding) mHeader.encoding; }
+
+    /**
+     * The size of the mapped model in bytes.
+     */
+    size_t getModelSize() const { return mFile ? mFile->size() : 0; }
+
+    /**
+     * The same as dlib::shape_predictor::operator().
+     */
+    template <typename image_type>
+    dlib::full_object_detection operator()(const image_type& img,
+                                           const dlib::rectangle& rect) const {
+        dlib::matrix<float, 0, 1> currentShape = mInitialShape;
+        std::vector<float> featurePixelValues;
+
+        for (size_t cascade = 0; cascade < mHeader.cascadesCount; ++cascade) {
+            dlib::impl::extract_feature_pixel_values(img, rect, currentShape, mInitialShape,
+                                                     mAnchorIndices[cascade], mDeltas[cascade],
+                                                     featurePixelValues);
+
+            // Evaluate all the trees of the cascade.
+            const size_t firstTree = cascade * mHeader.treesCount;
+            for (size_t tree = firstTree; tree < firstTree + mHeader.treesCount; ++tree) {
+                addLeafValues(findLeaf(tree, featurePixelValues), currentShape);
+            }
+        }
+
+        // Convert the normalized shape to the image coordinate.
+        const dlib::point_transform_affine toImage = dlib::impl::unnormalizing_tform(rect);
+        std::vector<dlib::point> parts(currentShape.size() / 2);
+        for (size_t i = 0; i < parts.size(); ++i) {
+            parts[i] = toImage(dlib::impl::location(currentShape, i));
+        }
+
+        return dlib::full_object_detection(rect, parts);
+    }
+};
+
+#endif //COM_MY_JNI_DLIB_COMPACT_SHAPE_PREDICTOR_H
@@ -0,0 +1,170 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#ifndef COM_MY_JNI_DLIB_FRAME_BUFFER_H
+#define COM_MY_JNI_DLIB_FRAME_BUFFER_H
+
+#include <stdint.h>
+#include <algorithm>
+#include <vector>
+#include <dlib/image_processing/generic_image.h>
+#include <dlib/pixel.h>
+
+#if defined(__ARM_NEON__) || defined(__ARM_NEON)
+#include <arm_neon.h>
+#endif
+
+/**
+ * A row-major image that is meant to live as long as the detector does. Unlike
+ * dlib::array2d, resizing it never gives the memory back, so feeding it camera
+ * frames of the same (or a smaller) size costs no allocation at all.
+ * <br/>
+ * It implements dlib's generic image interface, so it could be passed to the
+ * dlib::frontal_face_detector and dlib::shape_predictor directly.
+ * <br/>
+ * Usage:
+ * <pre>
+ * FrameBuffer<dlib::rgb_pixel> frame;
+ *
+ * frame.setSize(height, width);
+ * for (long y = 0; y < frame.nr(); ++y) {
+ *     dlib::rgb_pixel* row = frame[y];
+ *     // Fill the row...
+ * }
+ * </pre>
+ */
+template <typename pixel_type>
+class FrameBuffer {
+private:
+
+    std::vector<pixel_type> mPixels;
+    long mRows;
+    long mColumns;
+
+public:
+
+    FrameBuffer()
+        : mRows(0),
+          mColumns(0) {}
+
+    /**
+     * Change the dimension of the frame. The underlying memory only grows, so
+     * the content is undefined after calling it.
+     */
+    void setSize(long rows, long columns) {
+        const size_t size = (size_t) (rows * columns);
+        if (mPixels.size() < size) {
+            mPixels.resize(size);
+        }
+
+        mRows = rows;
+        mColumns = columns;
+    }
+
+    long nr() const { return mRows; }
+
+    long nc() const { return mColumns; }
+
+    /**
+     * The number of pixels it could hold without allocating again.
+     */
+    size_t capacity() const { return mPixels.size(); }
+
+    pixel_type* operator[](long row) { return &mPixels[row * mColumns]; }
+
+    const pixel_type* operator[](long row) const { return &mPixels[row * mColumns]; }
+
+    void swap(FrameBuffer<pixel_type>& other) {
+        mPixels.swap(other.mPixels);
+        std::swap(mRows, other.mRows);
+        std::swap(mColumns, other.mColumns);
+    }
+};
+
+// dlib generic image interface ///////////////////////////////////////////////
+
+namespace dlib {
+
+template <typename T>
+struct image_traits<FrameBuffer<T> > {
+    typedef T pixel_type;
+};
+
+} // namespace dlib
+
+template <typename T>
+inline long num_rows(const FrameBuffer<T>& img) { return img.nr(); }
+
+template <typename T>
+inline long num_columns(const FrameBuffer<T>& img) { return img.nc(); }
+
+template <typename T>
+inline void set_image_size(FrameBuffer<T>& img, long rows, long cols) { img.setSize(rows, cols); }
+
+template <typename T>
+inline void* image_data(FrameBuffer<T>& img) {
+    return (img.nr() > 0 && img.nc() > 0) ? img[0] : 0;
+}
+
+template <typename T>
+inline const void* image_data(const FrameBuffer<T>& img) {
+    return (img.nr() > 0 && img.nc() > 0) ? img[0] : 0;
+}
+
+template <typename T>
+inline long width_step(const FrameBuffer<T>& img) { return img.nc() * sizeof(T); }
+
+template <typename T>
+inline void swap(FrameBuffer<T>& a, FrameBuffer<T>& b) { a.swap(b); }
+
+// Row Converters /////////////////////////////////////////////////////////////
+
+/**
+ * Convert one row of RGBA_8888 pixels (byte order R, G, B, A) to RGB pixels,
+ * dropping the alpha channel. The NEON path de-interleaves 16 pixels at a
+ * time and the rest is done one by one.
+ */
+inline void convertRgbaRowToRgb(const uint8_t* src,
+                                dlib::rgb_pixel* dst,
+                                long width) {
+    long x = 0;
+
+#if defined(__ARM_NEON__) || defined(__ARM_NEON)
+    uint8_t* out = (uint8_t*) dst;
+    for (; x + 16 <= width; x += 16) {
+        const uint8x16x4_t rgba = vld4q_u8(src + 4 * x);
+        uint8x16x3_t rgb;
+        rgb.val[0] = rgba.val[0];
+        rgb.val[1] = rgba.val[1];
+        rgb.val[2] = rgba.val[2];
+        vst3q_u8(out + 3 * x, rgb);
+    }
+#endif
+
+    for (; x < width; ++x) {
+        const uint8_t* color = src + 4 * x;
+
+        dst[x].red = color[0];
+        dst[x].green = color[1];
+        dst[x].blue = color[2];
+    }
+}
+
+#endif //COM_MY_JNI_DLIB_FRAME_BUFFER_H
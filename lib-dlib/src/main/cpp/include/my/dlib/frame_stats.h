@@ -0,0 +1,104 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#ifndef COM_MY_JNI_DLIB_FRAME_STATS_H
+#define COM_MY_JNI_DLIB_FRAME_STATS_H
+
+#include <mutex>
+#include <vector>
+
+// The stages of a detection, which must be identical to the ones in
+// DLibFrameStats.java.
+#define STAGE_CONVERT 0
+#define STAGE_DETECT 1
+#define STAGE_LANDMARKS 2
+#define STAGE_SERIALIZE 3
+#define STAGE_TOTAL 4
+#define STAGES_COUNT 5
+
+/**
+ * The time taken by every stage of one detection in milliseconds.
+ */
+struct FrameStats {
+    double durations[STAGES_COUNT];
+    long facesCount;
+
+    FrameStats();
+
+    void clear();
+};
+
+/**
+ * The stats of the latest frames in a fixed-size ring, so recording a frame
+ * never allocates. It's guarded by a mutex, so the stats could be read by a
+ * thread other than the detecting one.
+ * <br/>
+ * Usage:
+ * <pre>
+ * FrameStatsHistory history(120);
+ *
+ * history.add(stats);
+ *
+ * // The p95 of the face detection time of the latest 120 frames.
+ * double p95 = history.getPercentile(STAGE_DETECT, 0.95);
+ * </pre>
+ */
+class FrameStatsHistory {
+private:
+
+    mutable std::mutex mMutex;
+
+    std::vector<FrameStats> mFrames;
+    size_t mNextIndex;
+    size_t mCount;
+    FrameStats mLast;
+
+    // The reusable scratch for the percentiles.
+    mutable std::vector<double> mSorted;
+
+public:
+
+    /**
+     * @param capacity The number of the latest frames kept.
+     */
+    explicit FrameStatsHistory(size_t capacity);
+
+    void add(const FrameStats& stats);
+
+    void clear();
+
+    /**
+     * The number of frames kept, up to the capacity.
+     */
+    size_t getCount() const;
+
+    /**
+     * The stats of the latest frame, all zero if there's none.
+     */
+    FrameStats getLast() const;
+
+    /**
+     * The given percentile, from 0 to 1, of the time taken by the given stage
+     * over the frames kept. Zero if there's no frame.
+     */
+    double getPercentile(int stage, double percentile) const;
+};
+
+#endif //COM_MY_JNI_DLIB_FRAME_STATS_H
@@ -0,0 +1,107 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#ifndef COM_MY_JNI_DLIB_MAPPED_FILE_H
+#define COM_MY_JNI_DLIB_MAPPED_FILE_H
+
+#include <stddef.h>
+#include <functional>
+#include <streambuf>
+
+/**
+ * A read-only memory mapping of a whole file, unmapped when it's destroyed.
+ */
+class MappedFile {
+private:
+
+    const char* mData;
+    size_t mSize;
+
+    MappedFile(const MappedFile&);
+
+    MappedFile& operator=(const MappedFile&);
+
+public:
+
+    MappedFile();
+
+    ~MappedFile();
+
+    /**
+     * Map the given file, which is read sequentially.
+     *
+     * @return False if the file cannot be opened or mapped.
+     */
+    bool open(const char* path);
+
+    void close();
+
+    /**
+     * Tell the kernel whether the mapping is read sequentially or randomly
+     * from now on. It's sequential once opened.
+     */
+    void setSequential(bool isSequential);
+
+    const char* data() const { return mData; }
+
+    size_t size() const { return mSize; }
+};
+
+/**
+ * A read-only stream buffer over the given memory, e.g. a MappedFile, so a
+ * std::istream reads it without any read() call or stream buffer copy. The
+ * memory is exposed chunk by chunk, so the progress is reported every chunk.
+ * <br/>
+ * Usage:
+ * <pre>
+ * MappedStreamBuf buffer(file.data(), file.size(), 1 << 20,
+ *                        [](size_t loaded, size_t total) {
+ *     // Report the progress...
+ * });
+ * std::istream in(&buffer);
+ * dlib::deserialize(model, in);
+ * </pre>
+ */
+class MappedStreamBuf : public std::streambuf {
+private:
+
+    char* mBegin;
+    char* mEnd;
+    char* mNext;
+    size_t mChunkSize;
+    std::function<void(size_t, size_t)> mOnProgress;
+
+protected:
+
+    virtual int_type underflow();
+
+public:
+
+    /**
+     * @param onProgress Called with the bytes read and the total bytes every
+     *                   chunk, or null.
+     */
+    MappedStreamBuf(const char* data,
+                    size_t size,
+                    size_t chunkSize,
+                    const std::function<void(size_t, size_t)>& onProgress);
+};
+
+#endif //COM_MY_JNI_DLIB_MAPPED_FILE_H
@@ -0,0 +1,87 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#ifndef COM_MY_JNI_DLIB_WORKER_POOL_H
+#define COM_MY_JNI_DLIB_WORKER_POOL_H
+
+#include <condition_variable>
+#include <functional>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+/**
+ * A fixed-size pool of worker threads running the indexed tasks of one
+ * parallel-for at a time. The calling thread takes tasks as well, so a pool
+ * with the parallelism N only spawns N - 1 threads.
+ * <br/>
+ * Usage:
+ * <pre>
+ * WorkerPool pool(4);
+ *
+ * // Block until task(0) ... task(count - 1) are all done.
+ * pool.parallelFor(count, [&](size_t i) {
+ *     results[i] = doSomething(inputs[i]);
+ * });
+ * </pre>
+ */
+class WorkerPool {
+private:
+
+    std::vector<std::thread> mThreads;
+
+    std::mutex mMutex;
+    std::condition_variable mJobCondition;
+    std::condition_variable mDoneCondition;
+
+    // The current job, guarded by the mutex.
+    const std::function<void(size_t)>* mTask;
+    size_t mTaskCount;
+    size_t mNextIndex;
+    size_t mDoneCount;
+    unsigned long mGeneration;
+    bool mIsStopped;
+
+    void runWorker();
+
+    void runTasks(std::unique_lock<std::mutex>& lock,
+                  unsigned long generation);
+
+public:
+
+    /**
+     * @param parallelism The max number of threads, including the calling
+     *                    one, running the tasks.
+     */
+    explicit WorkerPool(size_t parallelism);
+
+    ~WorkerPool();
+
+    size_t getParallelism() const;
+
+    /**
+     * Run task(0) to task(count - 1) on the workers and the calling thread and
+     * block until all of them are done. It must not be called concurrently.
+     */
+    void parallelFor(size_t count,
+                     const std::function<void(size_t)>& task);
+};
+
+#endif //COM_MY_JNI_DLIB_WORKER_POOL_H
@@ -0,0 +1,103 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
+#include <algorithm>
+#include <my/dlib/mapped_file.h>
+
+MappedFile::MappedFile()
+    : mData(NULL),
+      mSize(0) {}
+
+MappedFile::~MappedFile() {
+    close();
+}
+
+bool MappedFile::open(const char* path) {
+    close();
+
+    const int fd = ::open(path, O_RDONLY);
+    if (fd < 0) return false;
+
+    struct stat info;
+    if (fstat(fd, &info) != 0 || info.st_size <= 0) {
+        ::close(fd);
+        return false;
+    }
+
+    void* data = mmap(NULL, (size_t) info.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
+    // The mapping holds the file, the descriptor is no longer needed.
+    ::close(fd);
+    if (data == MAP_FAILED) return false;
+
+    // Ask the kernel to read ahead aggressively.
+    madvise(data, (size_t) info.st_size, MADV_SEQUENTIAL);
+
+    mData = (const char*) data;
+    mSize = (size_t) info.st_size;
+
+    return true;
+}
+
+void MappedFile::close() {
+    if (mData != NULL) {
+        munmap((void*) mData, mSize);
+        mData = NULL;
+        mSize = 0;
+    }
+}
+
+void MappedFile::setSequential(bool isSequential) {
+    if (mData != NULL) {
+        madvise((void*) mData, mSize, isSequential ? MADV_SEQUENTIAL : MADV_NORMAL);
+    }
+}
+
+MappedStreamBuf::MappedStreamBuf(const char* data,
+                                 size_t size,
+                                 size_t chunkSize,
+                                 const std::function<void(size_t, size_t)>& onProgress)
+    // The get area is never written, std::streambuf just wants char*.
+    : mBegin(const_cast<char*>(data)),
+      mEnd(const_cast<char*>(data) + size),
+      mNext(const_cast<char*>(data)),
+      mChunkSize(std::max((size_t) 1, chunkSize)),
+      mOnProgress(onProgress) {
+    setg(mBegin, mBegin, mBegin);
+}
+
+MappedStreamBuf::int_type MappedStreamBuf::underflow() {
+    if (gptr() < egptr()) return traits_type::to_int_type(*gptr());
+    if (mNext >= mEnd) return traits_type::eof();
+
+    // Expose the next chunk.
+    char* chunk = mNext;
+    mNext += std::min(mChunkSize, (size_t) (mEnd - mNext));
+    setg(chunk, chunk, mNext);
+
+    if (mOnProgress) {
+        mOnProgress((size_t) (mNext - mBegin), (size_t) (mEnd - mBegin));
+    }
+
+    return traits_type::to_int_type(*gptr());
+}
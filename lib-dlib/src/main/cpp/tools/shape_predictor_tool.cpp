@@ -0,0 +1,191 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+// The host tool converting the stock shape predictor to the compact one, and
+// comparing the accuracy of the two on a fixed landmarks test set, e.g. the
+// iBUG 300-W test set in dlib's imglab XML format.
+//
+// Usage:
+//   shape_predictor_tool convert <in.dat> <out> [int16|int8]
+//   shape_predictor_tool compare <dense.dat> <compact> <test-set.xml> [max-error-increase]
+//
+// The compare command reports the mean error of both models against the
+// labels, normalized by the inter-ocular distance, and exits with 1 if the
+// compact model is worse than the dense one by more than max-error-increase
+// (0.005 by default).
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <fstream>
+#include <memory>
+#include <string>
+#include <vector>
+#include <dlib/data_io.h>
+#include <dlib/image_processing.h>
+#include <my/dlib/compact_shape_predictor.h>
+
+namespace {
+
+// The outer corners of the eyes of the 68 landmarks.
+const unsigned long LEFT_EYE_CORNER = 36;
+const unsigned long RIGHT_EYE_CORNER = 45;
+
+double getMilliseconds(const std::chrono::steady_clock::time_point& start) {
+    return std::chrono::duration<double, std::milli>(
+        std::chrono::steady_clock::now() - start).count();
+}
+
+/**
+ * The mean distance between the predicted and the labeled landmarks,
+ * normalized by the inter-ocular distance of the labels.
+ */
+double getNormalizedError(const dlib::full_object_detection& predicted,
+                          const dlib::full_object_detection& labeled) {
+    const double interOcular = dlib::length(labeled.part(LEFT_EYE_CORNER) -
+                                            labeled.part(RIGHT_EYE_CORNER));
+    double sum = 0;
+    unsigned long count = 0;
+    for (unsigned long i = 0; i < labeled.num_parts(); ++i) {
+        if (labeled.part(i) == dlib::OBJECT_PART_NOT_PRESENT) continue;
+
+        sum += dlib::length(predicted.part(i) - labeled.part(i));
+        ++count;
+    }
+
+    return count > 0 && interOcular > 0 ? sum / count / interOcular : 0;
+}
+
+int convert(const char* inPath,
+            const char* outPath,
+            const char* encodingName) {
+    CompactShapePredictor::Encoding encoding;
+    if (strcmp(encodingName, "int16") == 0) {
+        encoding = CompactShapePredictor::ENCODING_INT16;
+    } else if (strcmp(encodingName, "int8") == 0) {
+        encoding = CompactShapePredictor::ENCODING_INT8;
+    } else {
+        fprintf(stderr, "Unknown encoding %s\n", encodingName);
+        return 2;
+    }
+
+    std::ifstream in(inPath, std::ios::binary);
+    std::ofstream out(outPath, std::ios::binary);
+    CompactShapePredictor::convert(in, out, encoding);
+    out.close();
+
+    printf("%s (%ld bytes) -> %s (%ld bytes)\n",
+           inPath, (long) std::ifstream(inPath, std::ios::binary | std::ios::ate).tellg(),
+           outPath, (long) std::ifstream(outPath, std::ios::binary | std::ios::ate).tellg());
+    return 0;
+}
+
+int compare(const char* densePath,
+            const char* compactPath,
+            const char* testSetPath,
+            double maxErrorIncrease) {
+    std::chrono::steady_clock::time_point start = std::chrono::steady_clock::now();
+    dlib::shape_predictor denseModel;
+    dlib::deserialize(densePath) >> denseModel;
+    printf("Dense model loaded (took %.3f ms)\n", getMilliseconds(start));
+
+    start = std::chrono::steady_clock::now();
+    std::unique_ptr<MappedFile> file(new MappedFile());
+    if (!file->open(compactPath)) {
+        fprintf(stderr, "Cannot map %s\n", compactPath);
+        return 2;
+    }
+    CompactShapePredictor compactModel;
+    compactModel.load(std::move(file), 1 << 20, NULL);
+    printf("Compact model loaded (took %.3f ms)\n", getMilliseconds(start));
+
+    dlib::array<dlib::array2d<unsigned char> > images;
+    std::vector<std::vector<dlib::full_object_detection> > labels;
+    dlib::load_image_dataset(images, labels, testSetPath);
+
+    double denseError = 0;
+    double compactError = 0;
+    double maxDeviation = 0;
+    double denseTime = 0;
+    double compactTime = 0;
+    unsigned long facesCount = 0;
+    for (unsigned long i = 0; i < images.size(); ++i) {
+        for (unsigned long j = 0; j < labels[i].size(); ++j) {
+            const dlib::full_object_detection& label = labels[i][j];
+
+            start = std::chrono::steady_clock::now();
+            const dlib::full_object_detection dense = denseModel(images[i], label.get_rect());
+            denseTime += getMilliseconds(start);
+
+            start = std::chrono::steady_clock::now();
+            const dlib::full_object_detection compact = compactModel(images[i], label.get_rect());
+            compactTime += getMilliseconds(start);
+
+            denseError += getNormalizedError(dense, label);
+            compactError += getNormalizedError(compact, label);
+            maxDeviation = std::max(maxDeviation, getNormalizedError(compact, dense));
+            ++facesCount;
+        }
+    }
+    if (facesCount == 0) {
+        fprintf(stderr, "No face in %s\n", testSetPath);
+        return 2;
+    }
+
+    denseError /= facesCount;
+    compactError /= facesCount;
+    printf("Faces: %lu\n", facesCount);
+    printf("Dense error: %.5f (%.3f ms per face)\n", denseError, denseTime / facesCount);
+    printf("Compact error: %.5f (%.3f ms per face)\n", compactError, compactTime / facesCount);
+    printf("Max deviation from the dense model: %.5f\n", maxDeviation);
+
+    if (compactError - denseError > maxErrorIncrease) {
+        printf("FAILED: the error increases by more than %.5f\n", maxErrorIncrease);
+        return 1;
+    }
+    printf("PASSED\n");
+    return 0;
+}
+
+} // namespace
+
+int main(int argc,
+         char** argv) {
+    try {
+        if (argc >= 4 && strcmp(argv[1], "convert") == 0) {
+            return convert(argv[2], argv[3], argc >= 5 ? argv[4] : "int16");
+        } else if (argc >= 5 && strcmp(argv[1], "compare") == 0) {
+            return compare(argv[2], argv[3], argv[4],
+                           argc >= 6 ? atof(argv[5]) : 0.005);
+        }
+    } catch (std::exception& error) {
+        fprintf(stderr, "%s\n", error.what());
+        return 2;
+    }
+
+    fprintf(stderr,
+            "Usage:\n"
+            "  %s convert <in.dat> <out> [int16|int8]\n"
+            "  %s compare <dense.dat> <compact> <test-set.xml> [max-error-increase]\n",
+            argv[0], argv[0]);
+    return 2;
+}
@@ -0,0 +1,112 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+#include <my/dlib/worker_pool.h>
+
+WorkerPool::WorkerPool(size_t parallelism)
+    : mTask(NULL),
+      mTaskCount(0),
+      mNextIndex(0),
+      mDoneCount(0),
+      mGeneration(0),
+      mIsStopped(false) {
+    for (size_t i = 1; i < parallelism; ++i) {
+        mThreads.push_back(std::thread(&WorkerPool::runWorker, this));
+    }
+}
+
+WorkerPool::~WorkerPool() {
+    {
+        std::lock_guard<std::mutex> lock(mMutex);
+        mIsStopped = true;
+    }
+    mJobCondition.notify_all();
+
+    for (size_t i = 0; i < mThreads.size(); ++i) {
+        mThreads[i].join();
+    }
+}
+
+size_t WorkerPool::getParallelism() const {
+    return mThreads.size() + 1;
+}
+
+void WorkerPool::parallelFor(size_t count,
+                             const std::function<void(size_t)>& task) {
+    // Not worth waking the workers up.
+    if (mThreads.empty() || count <= 1) {
+        for (size_t i = 0; i < count; ++i) {
+            task(i);
+        }
+        return;
+    }
+
+    std::unique_lock<std::mutex> lock(mMutex);
+    mTask = &task;
+    mTaskCount = count;
+    mNextIndex = 0;
+    mDoneCount = 0;
+    const unsigned long generation = ++mGeneration;
+    mJobCondition.notify_all();
+
+    runTasks(lock, generation);
+
+    // Wait for the tasks taken by the workers.
+    while (mDoneCount < mTaskCount) {
+        mDoneCondition.wait(lock);
+    }
+    mTask = NULL;
+}
+
+///////////////////////////////////////////////////////////////////////////////
+// Protected / Private Methods ////////////////////////////////////////////////
+
+void WorkerPool::runWorker() {
+    unsigned long generation = 0;
+
+    std::unique_lock<std::mutex> lock(mMutex);
+    while (true) {
+        while (!mIsStopped && mGeneration == generation) {
+            mJobCondition.wait(lock);
+        }
+        if (mIsStopped) return;
+
+        generation = mGeneration;
+        runTasks(lock, generation);
+    }
+}
+
+void WorkerPool::runTasks(std::unique_lock<std::mutex>& lock,
+                          unsigned long generation) {
+    // Take the tasks one by one. An index is only taken for the same job, so
+    // the task is alive until it's marked done.
+    while (mGeneration == generation && mNextIndex < mTaskCount) {
+        const size_t index = mNextIndex++;
+        const std::function<void(size_t)>& task = *mTask;
+
+        lock.unlock();
+        task(index);
+        lock.lock();
+
+        if (++mDoneCount == mTaskCount) {
+            mDoneCondition.notify_all();
+        }
+    }
+}
@@ -20,6 +20,9 @@
 
 package com.my.jni.dlib;
 
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.util.Log;
@@ -27,67 +30,232 @@ import android.util.Log;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.my.jni.dlib.data.DLibFace;
 import com.my.jni.dlib.data.DLibFace68;
+import com.my.jni.dlib.data.DLibFaceList;
+import com.my.jni.dlib.data.DLibFrameStats;
 import com.my.jni.dlib.data.Messages;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The dlib 68 face landmarks detector.
+ * <br/>
+ * Every instance owns a native handle holding its own face detector and frame
+ * buffers, while the landmarks model is loaded once and shared read-only by
+ * all the instances. So different instances could run on different threads
+ * at the same time, but one instance should be used by one thread at a time.
+ * <br/>
+ * Call {@link #dispose()} to free the native resources once it's no longer
+ * used.
+ */
 public class DLibLandmarks68Detector implements IDLibFaceDetector {
 
+    // The Java per-frame logs follow the native ones.
+    private static volatile boolean sIsFrameLoggingEnabled = false;
+
+    private static boolean sIsMemoryTrimCallbacksRegistered = false;
+
     private boolean mIsEnabled = true;
 
-    public DLibLandmarks68Detector() {
-        // TODO: Load library in worker thread?
-        try {
-            System.loadLibrary("c++_shared");
-            Log.d("jni", "libc++_shared.so is loaded");
-        } catch (UnsatisfiedLinkError error) {
-            throw new RuntimeException(
-                "\"c++_shared\" not found; check that the correct native " +
-                "libraries are present in the APK.");
-        }
+    // The pointer to the native detector handle, read by the JNI. Zero if it
+    // is disposed.
+    private long mNativeHandle;
 
-        // TODO: Load library in worker thread?
-        try {
-            System.loadLibrary("my_core_jni");
-            Log.d("jni", "my_core_jni.so is loaded");
-        } catch (UnsatisfiedLinkError error) {
-            throw new RuntimeException(
-                "\"my_core_jni\" not found; check that the correct native " +
-                "libraries are present in the APK.");
-        }
+    // The reusable face bounds, [left, top, right, bottom] per face, passed to
+    // the JNI.
+    private int[] mFaceBounds = new int[0];
+    // The reusable frames of the batch detection passed to the JNI.
+    private ByteBuffer[] mBatchFrames = new ByteBuffer[0];
 
-        // TODO: Load library in worker thread?
-        try {
-            System.loadLibrary("protobuf-lite-3.2.0");
-            Log.d("jni", "libprotobuf-lite-3.2.0.so is loaded");
-        } catch (UnsatisfiedLinkError error) {
-            throw new RuntimeException(
-                "\"protobuf-lite-3.2.0\" not found; check that the correct " +
-                "native libraries are present in the APK.");
-        }
+    /**
+     * Allocate a direct buffer in the native byte order for
+     * {@link #findLandmarksFromFaces(Bitmap, List, FloatBuffer)}.
+     *
+     * @param maxFaces The max number of faces the buffer could hold.
+     */
+    public static FloatBuffer allocatePackedBuffer(int maxFaces) {
+        return ByteBuffer
+            .allocateDirect(4 * DLibFace68.PACKED_FACE_SIZE * maxFaces)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    }
 
-        // TODO: Load library in worker thread?
-        try {
-            System.loadLibrary("dlib");
-            Log.d("jni", "libdlib.so is loaded");
-        } catch (UnsatisfiedLinkError error) {
-            throw new RuntimeException(
-                "\"dlib\" not found; check that the correct native libraries " +
-                "are present in the APK.");
+    /**
+     * Load the face landmarks model into the cache shared by all the
+     * detectors, so {@link #prepareFaceLandmarksDetector(String)} takes no
+     * time afterwards. The model file is memory-mapped and deserialized
+     * straight from the mapping, or used as it is if it's the compact model
+     * whose leaves are quantized to 16 or 8 bits, which takes a half or a
+     * quarter of the memory. The cached model lives as long as the
+     * process does, so the activities created later don't load it again.
+     * <br/>
+     * It blocks until the model is loaded, and it returns immediately if the
+     * model is already loaded.
+     *
+     * @param path The model file.
+     * @param listener The progress listener, or null.
+     * @throws RuntimeException Fired if the model cannot be loaded.
+     */
+    public static void preloadFaceLandmarksModel(String path,
+                                                 IModelLoadProgressListener listener) {
+        DLibLibraryLoader.load();
+        preloadFaceLandmarksModelNative(path, listener);
+    }
+
+    /**
+     * The same as
+     * {@link #preloadFaceLandmarksModel(String, IModelLoadProgressListener)}
+     * but loads the model on a background thread.
+     *
+     * @param path The model file.
+     * @param listener The progress listener called on the background thread,
+     *                 or null.
+     * @return The future done when the model is loaded.
+     */
+    public static Future<Void> preloadFaceLandmarksModelAsync(final String path,
+                                                              final IModelLoadProgressListener listener) {
+        final FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                preloadFaceLandmarksModel(path, listener);
+                return null;
+            }
+        });
+
+        final Thread thread = new Thread(task, "dlib-model-loader");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+
+        return task;
+    }
+
+    /**
+     * Whether the given face landmarks model is loaded into the cache.
+     */
+    public static boolean isFaceLandmarksModelLoaded(String path) {
+        DLibLibraryLoader.load();
+        return isFaceLandmarksModelLoadedNative(path);
+    }
+
+    /**
+     * Turn the per-frame logs on or off for all the detectors. It's off by
+     * default, since logging several times per frame is costly. The timing
+     * is recorded regardless, see {@link #getLastFrameStats(DLibFrameStats)}.
+     * <br/>
+     * The native libraries must be loaded first, e.g. by
+     * {@link DLibLibraryLoader#load()}.
+     */
+    public static void setFrameLoggingEnabled(boolean enabled) {
+        setFrameLoggingEnabledNative(enabled);
+        sIsFrameLoggingEnabled = enabled;
+    }
+
+    /**
+     * Release the models shared by all the instances. A model in use by a
+     * running detection is freed when the detection ends, and the instances
+     * reload the models lazily on their next detection. The reload time is
+     * reported by {@link DLibLibraryLoader#getModelLoadTimes()}.
+     *
+     * @return False if a model is being loaded, so nothing is released.
+     */
+    public static boolean releaseModels() {
+        // Nothing could be loaded yet.
+        if (!DLibLibraryLoader.isLoaded()) return true;
+
+        return releaseModelsNative();
+    }
+
+    /**
+     * Release the shared models, see {@link #releaseModels()}, when the app
+     * goes to the background or the system runs low on memory. It's
+     * registered once per process no matter how many times it's called.
+     */
+    public static void registerMemoryTrimCallbacks(Context context) {
+        synchronized (DLibLandmarks68Detector.class) {
+            if (sIsMemoryTrimCallbacksRegistered) return;
+            sIsMemoryTrimCallbacksRegistered = true;
         }
 
-        // TODO: Load library in worker thread?
-        try {
-            System.loadLibrary("dlib_jni");
-            Log.d("jni", "libdlib_jni.so is loaded");
-        } catch (UnsatisfiedLinkError error) {
-            throw new RuntimeException(
-                "\"dlib_jni\" not found; check that the correct native " +
-                "libraries are present in the APK.");
+        context.getApplicationContext().registerComponentCallbacks(
+            new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                        releaseModels();
+                    }
+                }
+
+                @Override
+                public void onLowMemory() {
+                    releaseModels();
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                    // DO NOTHING.
+                }
+            });
+    }
+
+    public DLibLandmarks68Detector() {
+        // Load the libraries or wait for the background loading, see
+        // DLibLibraryLoader#loadAsync().
+        DLibLibraryLoader.load();
+
+        mNativeHandle = nativeCreate();
+    }
+
+    /**
+     * Free the native resources. The shared landmarks model stays loaded for
+     * the other instances. The detector cannot be used anymore afterwards.
+     */
+    public synchronized void dispose() {
+        if (mNativeHandle != 0) {
+            nativeDestroy(mNativeHandle);
+            mNativeHandle = 0;
         }
     }
 
+    /**
+     * Read the time taken by every stage of the latest detection.
+     *
+     * @param out The stats to fill, which could be reused.
+     * @return The given stats.
+     */
+    public DLibFrameStats getLastFrameStats(DLibFrameStats out) {
+        getLastFrameStats(out.getRawArray());
+        return out;
+    }
+
+    /**
+     * The rolling percentile of the time taken by the given stage over the
+     * latest frames, up to {@link #getFrameStatsCount()}, e.g. the p95 of the
+     * face detection is
+     * {@code getFrameStatsPercentile(DLibFrameStats.STAGE_DETECT, 0.95f)}.
+     *
+     * @param stage The stage, e.g. {@link DLibFrameStats#STAGE_DETECT}.
+     * @param percentile The percentile from 0 to 1.
+     * @return The time in milliseconds, or zero if no frame is recorded.
+     */
+    public native float getFrameStatsPercentile(int stage,
+                                                float percentile);
+
+    /**
+     * The number of the latest frames the percentiles are calculated over.
+     */
+    public native int getFrameStatsCount();
+
+    /**
+     * Drop the recorded frame stats.
+     */
+    public native void resetFrameStats();
+
     @Override
     public boolean isEnabled() {
         return mIsEnabled;
@@ -98,6 +266,20 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
         mIsEnabled = enabled;
     }
 
+    @Override
+    public native void setParallelism(int parallelism);
+
+    @Override
+    public native void setFaceDetectionOptions(float scale,
+                                               int minFaceSize,
+                                               int upsampleCount);
+
+    @Override
+    public native void setTrackingInterval(int detectInterval);
+
+    @Override
+    public native void resetTracking();
+
     @Override
     public native boolean isFaceDetectorReady();
 
@@ -110,6 +292,14 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
     @Override
     public native void prepareFaceLandmarksDetector(String path);
 
+    /**
+     * Free the face detector and the frame buffers of this instance and drop
+     * its reference to the shared landmarks model. Like the detections, it
+     * must not be called while this instance is detecting on another thread.
+     */
+    @Override
+    public native void release();
+
     @Override
     public List<DLibFace> findFaces(Bitmap bitmap)
         throws InvalidProtocolBufferException {
@@ -130,6 +320,18 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
         return faces;
     }
 
+    @Override
+    public int findFaces(Bitmap bitmap,
+                         DLibFaceList out) {
+        out.clear();
+
+        final int count = detectFacesPacked(
+            bitmap, null, out.getPackedArray());
+        out.setBoundsFromPacked(count);
+
+        return count;
+    }
+
     @Override
     public List<DLibFace.Landmark> findLandmarksFromFace(Bitmap bitmap,
                                                          Rect bound)
@@ -138,8 +340,10 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
         final byte[] rawData = detectLandmarksFromFace(
             bitmap, bound.left, bound.top, bound.right, bound.bottom);
         final Messages.LandmarkList rawLandmarks = Messages.LandmarkList.parseFrom(rawData);
-        Log.d("xyz", "Detect " + rawLandmarks.getLandmarksCount() +
-                     " landmarks in the face");
+        if (sIsFrameLoggingEnabled) {
+            Log.d("xyz", "Detect " + rawLandmarks.getLandmarksCount() +
+                         " landmarks in the face");
+        }
 
         // Convert raw data to my data structure.
         final List<DLibFace.Landmark> landmarks = new ArrayList<>();
@@ -153,6 +357,20 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
         return landmarks;
     }
 
+    @Override
+    public int findLandmarksFromFace(Bitmap bitmap,
+                                     Rect bound,
+                                     DLibFaceList out) {
+        out.clear();
+
+        final int count = packFaceBound(bound);
+        final int written = detectLandmarksFromFacesPacked(
+            bitmap, mFaceBounds, count, null, out.getPackedArray());
+        out.setFacesFromPacked(written);
+
+        return written;
+    }
+
     @Override
     public List<DLibFace> findLandmarksFromFaces(Bitmap bitmap,
                                                  List<Rect> faceBounds)
@@ -189,6 +407,198 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
         return faces;
     }
 
+    @Override
+    public int findLandmarksFromFaces(Bitmap bitmap,
+                                      List<Rect> faceBounds,
+                                      FloatBuffer out) {
+        if (!out.isDirect()) {
+            throw new IllegalArgumentException(
+                "The output buffer must be a direct buffer.");
+        }
+
+        final int count = packFaceBounds(faceBounds);
+        return detectLandmarksFromFacesPacked(
+            bitmap, mFaceBounds, count, out, null);
+    }
+
+    @Override
+    public int findLandmarksFromFaces(Bitmap bitmap,
+                                      List<Rect> faceBounds,
+                                      float[] out) {
+        final int count = packFaceBounds(faceBounds);
+        return detectLandmarksFromFacesPacked(
+            bitmap, mFaceBounds, count, null, out);
+    }
+
+    @Override
+    public int findLandmarksFromFaces(Bitmap bitmap,
+                                      List<Rect> faceBounds,
+                                      DLibFaceList out) {
+        out.clear();
+        out.ensureCapacity(faceBounds.size());
+
+        final int count = packFaceBounds(faceBounds);
+        final int written = detectLandmarksFromFacesPacked(
+            bitmap, mFaceBounds, count, null, out.getPackedArray());
+        out.setFacesFromPacked(written);
+
+        return written;
+    }
+
+    @Override
+    public int findLandmarksFromFaces(ByteBuffer yuv,
+                                      int width,
+                                      int height,
+                                      int rotation,
+                                      boolean mirror,
+                                      List<Rect> faceBounds,
+                                      float[] out) {
+        final int count = packFaceBounds(faceBounds);
+
+        if (yuv.isDirect()) {
+            return detectLandmarksFromFacesInYuvPacked(
+                yuv, null, 0,
+                width, height, rotation, mirror,
+                mFaceBounds, count,
+                null, out);
+        } else {
+            return detectLandmarksFromFacesInYuvPacked(
+                null, yuv.array(), yuv.arrayOffset(),
+                width, height, rotation, mirror,
+                mFaceBounds, count,
+                null, out);
+        }
+    }
+
+    @Override
+    public int findLandmarksFromFaces(ByteBuffer yuv,
+                                      int width,
+                                      int height,
+                                      int rotation,
+                                      boolean mirror,
+                                      List<Rect> faceBounds,
+                                      DLibFaceList out) {
+        out.clear();
+        out.ensureCapacity(faceBounds.size());
+
+        final int count = findLandmarksFromFaces(
+            yuv, width, height, rotation, mirror,
+            faceBounds, out.getPackedArray());
+        out.setFacesFromPacked(count);
+
+        return count;
+    }
+
+    @Override
+    public int findFacesAndLandmarks(ByteBuffer yuv,
+                                     int width,
+                                     int height,
+                                     int rotation,
+                                     boolean mirror,
+                                     float[] out) {
+        if (yuv.isDirect()) {
+            return detectFacesAndLandmarksInYuvPacked(
+                yuv, null, 0,
+                width, height, rotation, mirror,
+                null, out);
+        } else {
+            return detectFacesAndLandmarksInYuvPacked(
+                null, yuv.array(), yuv.arrayOffset(),
+                width, height, rotation, mirror,
+                null, out);
+        }
+    }
+
+    @Override
+    public int findFacesAndLandmarks(ByteBuffer yuv,
+                                     int width,
+                                     int height,
+                                     int rotation,
+                                     boolean mirror,
+                                     DLibFaceList out) {
+        out.clear();
+
+        final int count = findFacesAndLandmarks(
+            yuv, width, height, rotation, mirror, out.getPackedArray());
+        out.setFacesFromPacked(count);
+
+        return count;
+    }
+
+    @Override
+    public int findFacesAndLandmarks(List<ByteBuffer> frames,
+                                     int width,
+                                     int height,
+                                     int rotation,
+                                     boolean mirror,
+                                     int maxFacesPerFrame,
+                                     float[] out,
+                                     int[] facesCounts) {
+        final int count = frames.size();
+        if (mBatchFrames.length < count) {
+            mBatchFrames = new ByteBuffer[count];
+        }
+        for (int i = 0; i < count; ++i) {
+            final ByteBuffer frame = frames.get(i);
+            if (!frame.isDirect()) {
+                throw new IllegalArgumentException(
+                    "The frames must be direct buffers.");
+            }
+
+            mBatchFrames[i] = frame;
+        }
+
+        try {
+            return detectFacesAndLandmarksInYuvBatch(
+                mBatchFrames, count,
+                width, height, rotation, mirror,
+                maxFacesPerFrame, out, facesCounts);
+        } finally {
+            // Don't hold the frames.
+            for (int i = 0; i < count; ++i) {
+                mBatchFrames[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public int trackLandmarks(ByteBuffer yuv,
+                              int width,
+                              int height,
+                              int rotation,
+                              boolean mirror,
+                              float[] out) {
+        if (yuv.isDirect()) {
+            return trackLandmarksInYuvPacked(
+                yuv, null, 0,
+                width, height, rotation, mirror,
+                null, out);
+        } else {
+            return trackLandmarksInYuvPacked(
+                null, yuv.array(), yuv.arrayOffset(),
+                width, height, rotation, mirror,
+                null, out);
+        }
+    }
+
+    @Override
+    public int trackLandmarks(ByteBuffer yuv,
+                              int width,
+                              int height,
+                              int rotation,
+                              boolean mirror,
+                              DLibFaceList out) {
+        out.clear();
+
+        final int count = trackLandmarks(
+            yuv, width, height, rotation, mirror, out.getPackedArray());
+        if (count > 0) {
+            out.setFacesFromPacked(count);
+        }
+
+        return count;
+    }
+
     @Override
     public List<DLibFace> findFacesAndLandmarks(Bitmap bitmap)
         throws InvalidProtocolBufferException {
@@ -208,9 +618,118 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
         return faces;
     }
 
+    @Override
+    public int findFacesAndLandmarks(Bitmap bitmap,
+                                     DLibFaceList out) {
+        out.clear();
+
+        final int count = detectFacesAndLandmarksPacked(
+            bitmap, null, out.getPackedArray());
+        out.setFacesFromPacked(count);
+
+        return count;
+    }
+
+    @Override
+    public int findFacesAndLandmarksInRgba(ByteBuffer rgba,
+                                           int width,
+                                           int height,
+                                           int rowStride,
+                                           DLibFaceList out) {
+        if (!rgba.isDirect()) {
+            throw new IllegalArgumentException(
+                "The pixels must be in a direct buffer.");
+        }
+
+        out.clear();
+
+        final int count = detectFacesAndLandmarksInRgbaPacked(
+            rgba, width, height, rowStride, null, out.getPackedArray());
+        out.setFacesFromPacked(count);
+
+        return count;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // Protected / Private Methods ////////////////////////////////////////////
 
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            dispose();
+        } finally {
+            super.finalize();
+        }
+    }
+
+    /**
+     * Copy the given face bounds to the reusable int array.
+     *
+     * @return The number of the face bounds.
+     */
+    private int packFaceBounds(List<Rect> faceBounds) {
+        final int count = faceBounds.size();
+        if (mFaceBounds.length < 4 * count) {
+            mFaceBounds = new int[4 * count];
+        }
+
+        for (int i = 0; i < count; ++i) {
+            final Rect bound = faceBounds.get(i);
+
+            mFaceBounds[4 * i] = bound.left;
+            mFaceBounds[4 * i + 1] = bound.top;
+            mFaceBounds[4 * i + 2] = bound.right;
+            mFaceBounds[4 * i + 3] = bound.bottom;
+        }
+
+        return count;
+    }
+
+    /**
+     * Copy the given face bound to the reusable int array.
+     *
+     * @return The number of the face bounds, which is 1.
+     */
+    private int packFaceBound(Rect bound) {
+        if (mFaceBounds.length < 4) {
+            mFaceBounds = new int[4];
+        }
+
+        mFaceBounds[0] = bound.left;
+        mFaceBounds[1] = bound.top;
+        mFaceBounds[2] = bound.right;
+        mFaceBounds[3] = bound.bottom;
+
+        return 1;
+    }
+
+    private static native void preloadFaceLandmarksModelNative(String path,
+                                                               IModelLoadProgressListener listener);
+
+    private static native boolean isFaceLandmarksModelLoadedNative(String path);
+
+    private static native boolean releaseModelsNative();
+
+    private static native void setFrameLoggingEnabledNative(boolean enabled);
+
+    /**
+     * Write the stats of the latest frame in the layout described by
+     * {@link DLibFrameStats#RAW_SIZE}.
+     */
+    private native void getLastFrameStats(float[] out);
+
+    /**
+     * Create the native detector handle.
+     *
+     * @return The pointer to the handle.
+     */
+    private native long nativeCreate();
+
+    /**
+     * Destroy the native detector handle.
+     */
+    private native void nativeDestroy(long handle);
+
     /**
      * Detect all the faces from the given photo.
      *
@@ -219,6 +738,17 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
      */
     private native byte[] detectFaces(Bitmap bitmap);
 
+    /**
+     * Detect all the faces from the given photo and write the bounds of the
+     * packed faces to either the direct buffer or the float array. The
+     * landmarks are left zero.
+     *
+     * @return The number of the faces written.
+     */
+    private native int detectFacesPacked(Bitmap bitmap,
+                                         FloatBuffer outBuffer,
+                                         float[] outArray);
+
     /**
      * Detect landmarks for one face.
      *
@@ -240,6 +770,75 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
     private native byte[] detectLandmarksFromFaces(Bitmap bitmap,
                                                    byte[] faceBounds);
 
+    /**
+     * Detect landmarks for the given faces and write the packed faces to
+     * either the direct buffer or the float array.
+     *
+     * @param bitmap The photo.
+     * @param faceBounds The face bounds, [left, top, right, bottom] per face.
+     * @param faceCount The number of the face bounds.
+     * @param outBuffer The direct output buffer, or null.
+     * @param outArray The output array, used if the buffer is null.
+     * @return The number of the faces written.
+     */
+    private native int detectLandmarksFromFacesPacked(Bitmap bitmap,
+                                                      int[] faceBounds,
+                                                      int faceCount,
+                                                      FloatBuffer outBuffer,
+                                                      float[] outArray);
+
+    /**
+     * Detect landmarks for the given faces from the luma plane of a YUV frame.
+     * The frame is either a direct buffer or a byte array.
+     *
+     * @return The number of the faces written.
+     */
+    private native int detectLandmarksFromFacesInYuvPacked(ByteBuffer yuvBuffer,
+                                                           byte[] yuvArray,
+                                                           int yuvOffset,
+                                                           int width,
+                                                           int height,
+                                                           int rotation,
+                                                           boolean mirror,
+                                                           int[] faceBounds,
+                                                           int faceCount,
+                                                           FloatBuffer outBuffer,
+                                                           float[] outArray);
+
+    /**
+     * Detect faces and landmarks from the luma plane of a YUV frame. The
+     * frame is either a direct buffer or a byte array.
+     *
+     * @return The number of the faces written.
+     */
+    private native int detectFacesAndLandmarksInYuvPacked(ByteBuffer yuvBuffer,
+                                                          byte[] yuvArray,
+                                                          int yuvOffset,
+                                                          int width,
+                                                          int height,
+                                                          int rotation,
+                                                          boolean mirror,
+                                                          FloatBuffer outBuffer,
+                                                          float[] outArray);
+
+    /**
+     * Detect landmarks for the faces tracked from the previous frame from the
+     * luma plane of a YUV frame. The frame is either a direct buffer or a byte
+     * array.
+     *
+     * @return The number of the faces written, or -1 if the face detection is
+     * due.
+     */
+    private native int trackLandmarksInYuvPacked(ByteBuffer yuvBuffer,
+                                                 byte[] yuvArray,
+                                                 int yuvOffset,
+                                                 int width,
+                                                 int height,
+                                                 int rotation,
+                                                 boolean mirror,
+                                                 FloatBuffer outBuffer,
+                                                 float[] outArray);
+
     /**
      * Find the faces and landmarks from the given Bitmap.
      * <br/>
@@ -250,4 +849,44 @@ public class DLibLandmarks68Detector implements IDLibFaceDetector {
      * @return The byte array of serialized {@link List< DLibFace >}.
      */
     private native byte[] detectFacesAndLandmarks(Bitmap bitmap);
+
+    /**
+     * Detect faces and landmarks from the given photo and write the packed
+     * faces to either the direct buffer or the float array.
+     *
+     * @return The number of the faces written.
+     */
+    private native int detectFacesAndLandmarksPacked(Bitmap bitmap,
+                                                     FloatBuffer outBuffer,
+                                                     float[] outArray);
+
+    /**
+     * Detect faces and landmarks from the RGBA_8888 pixels in the given direct
+     * buffer and write the packed faces to either the direct buffer or the
+     * float array.
+     *
+     * @return The number of the faces written.
+     */
+    private native int detectFacesAndLandmarksInRgbaPacked(ByteBuffer rgba,
+                                                           int width,
+                                                           int height,
+                                                           int rowStride,
+                                                           FloatBuffer outBuffer,
+                                                           float[] outArray);
+
+    /**
+     * Detect faces and landmarks from the luma planes of the given direct
+     * buffers in parallel and write the packed faces frame by frame.
+     *
+     * @return The number of the frames detected.
+     */
+    private native int detectFacesAndLandmarksInYuvBatch(ByteBuffer[] frames,
+                                                         int frameCount,
+                                                         int width,
+                                                         int height,
+                                                         int rotation,
+                                                         boolean mirror,
+                                                         int maxFacesPerFrame,
+                                                         float[] outFaces,
+                                                         int[] outFacesCounts);
 }
@@ -0,0 +1,218 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.jni.dlib;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads the native libraries of lib-dlib once per process. Loading them takes
+ * a while, so kick it off early on a background thread, e.g. in the splash
+ * screen:
+ * <pre>
+ * DLibLibraryLoader.loadAsync();
+ * </pre>
+ * and {@link DLibLandmarks68Detector} waits for it to finish, or loads them on
+ * the calling thread if it's never kicked off.
+ * <br/>
+ * The result is the load time of every library in milliseconds, in the load
+ * order.
+ */
+public final class DLibLibraryLoader {
+
+    // The libraries in the order of the dependency.
+    private static final String[] LIBRARIES = new String[]{
+        "c++_shared",
+        "my_core_jni",
+        "protobuf-lite-3.2.0",
+        "dlib",
+        "dlib_jni"};
+    // The host build (e.g. for benchmarking on a desktop JVM) links everything
+    // into one library, see src/main/cpp/CMakeLists.txt.
+    private static final String[] HOST_LIBRARIES = new String[]{
+        "dlib_jni"};
+
+    // Run at most once, either by the background thread or by the first
+    // caller of load().
+    private static final FutureTask<Map<String, Long>> sLoadTask = new FutureTask<>(
+        new Callable<Map<String, Long>>() {
+            @Override
+            public Map<String, Long> call() throws Exception {
+                return loadLibraries();
+            }
+        });
+
+    private static boolean sIsStarted = false;
+
+    // The latest load time of every model in milliseconds, reported by the
+    // JNI.
+    private static final Map<String, Long> sModelLoadTimes = new LinkedHashMap<>();
+    private static int sModelReloadsCount = 0;
+
+    private DLibLibraryLoader() {
+        // DO NOTHING.
+    }
+
+    /**
+     * Start loading the libraries on a background thread if it isn't started
+     * yet.
+     *
+     * @return The future of the load time of every library in milliseconds.
+     */
+    public static Future<Map<String, Long>> loadAsync() {
+        synchronized (DLibLibraryLoader.class) {
+            if (!sIsStarted) {
+                sIsStarted = true;
+
+                final Thread thread = new Thread(sLoadTask, "dlib-library-loader");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                thread.start();
+            }
+        }
+
+        return sLoadTask;
+    }
+
+    /**
+     * Load the libraries on the calling thread, or wait for the background
+     * thread loading them. It returns immediately if they're loaded.
+     *
+     * @return The load time of every library in milliseconds.
+     * @throws RuntimeException Fired if a library cannot be loaded.
+     */
+    public static Map<String, Long> load() {
+        synchronized (DLibLibraryLoader.class) {
+            sIsStarted = true;
+        }
+
+        // It does nothing if the task is already run or running.
+        sLoadTask.run();
+
+        boolean isInterrupted = false;
+        try {
+            while (true) {
+                try {
+                    return sLoadTask.get();
+                } catch (InterruptedException error) {
+                    isInterrupted = true;
+                }
+            }
+        } catch (ExecutionException error) {
+            final Throwable cause = error.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        } finally {
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Whether the libraries are loaded successfully.
+     */
+    public static boolean isLoaded() {
+        if (!sLoadTask.isDone()) return false;
+
+        try {
+            sLoadTask.get();
+            return true;
+        } catch (Exception error) {
+            return false;
+        }
+    }
+
+    /**
+     * The latest load time of every model in milliseconds, e.g. the time of
+     * reloading the landmarks model after it's released by
+     * {@link DLibLandmarks68Detector#releaseModels()}.
+     */
+    public static Map<String, Long> getModelLoadTimes() {
+        synchronized (sModelLoadTimes) {
+            return Collections.unmodifiableMap(
+                new LinkedHashMap<>(sModelLoadTimes));
+        }
+    }
+
+    /**
+     * The number of times the models are loaded again after they're released.
+     */
+    public static int getModelReloadsCount() {
+        synchronized (sModelLoadTimes) {
+            return sModelReloadsCount;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    /**
+     * Called by the JNI once a model is loaded.
+     */
+    static void onModelLoaded(String model,
+                              long loadTime,
+                              boolean isReload) {
+        synchronized (sModelLoadTimes) {
+            sModelLoadTimes.put(model, loadTime);
+            if (isReload) {
+                ++sModelReloadsCount;
+            }
+        }
+
+        Log.d("jni", model + " is " + (isReload ? "reloaded" : "loaded") +
+                     " (took " + loadTime + " ms)");
+    }
+
+    private static Map<String, Long> loadLibraries() {
+        final Map<String, Long> loadTimes = new LinkedHashMap<>();
+
+        // The VM of Android is always named Dalvik, even for ART.
+        final boolean isAndroid = "Dalvik".equals(System.getProperty("java.vm.name"));
+        for (String library : isAndroid ? LIBRARIES : HOST_LIBRARIES) {
+            final long start = SystemClock.elapsedRealtime();
+            try {
+                System.loadLibrary(library);
+            } catch (UnsatisfiedLinkError error) {
+                throw new RuntimeException(
+                    "\"" + library + "\" not found; check that the correct " +
+                    "native libraries are present in the APK.", error);
+            }
+            final long loadTime = SystemClock.elapsedRealtime() - start;
+
+            loadTimes.put(library, loadTime);
+            Log.d("jni", "lib" + library + ".so is loaded (took " +
+                         loadTime + " ms)");
+        }
+
+        return Collections.unmodifiableMap(loadTimes);
+    }
+}
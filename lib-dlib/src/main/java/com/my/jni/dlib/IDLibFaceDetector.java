@@ -25,7 +25,11 @@ import android.graphics.Rect;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.my.jni.dlib.data.DLibFace;
+import com.my.jni.dlib.data.DLibFace68;
+import com.my.jni.dlib.data.DLibFaceList;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.List;
 
 public interface IDLibFaceDetector {
@@ -34,6 +38,40 @@ public interface IDLibFaceDetector {
 
     void setEnabled(boolean enabled);
 
+    /**
+     * Opt in to predicting the landmarks of different faces in parallel. The
+     * faces are spread across a bounded pool of worker threads and the
+     * results stay in the order of the given face bounds. It's sequential by
+     * default.
+     *
+     * @param parallelism The max number of threads predicting the landmarks,
+     *                    which is also capped by the number of the cores. One
+     *                    or less turns the parallel mode off.
+     */
+    void setParallelism(int parallelism);
+
+    /**
+     * Trade the face detection accuracy for speed, or the other way around.
+     * The face detection runs on a copy of the frame scaled by
+     * {@code scale * 2^upsampleCount}, while the landmarks are still predicted
+     * on the frame itself. The face bounds are always in the coordinate of
+     * the given frame.
+     * <br/>
+     * The detector finds the faces down to about 80x80 pixels in the scaled
+     * frame, so a scale of 0.5 takes about a quarter of the time but misses
+     * the faces smaller than about 160x160 pixels. Upsampling finds the
+     * smaller faces but costs more. The default is no scaling.
+     *
+     * @param scale The scale factor of the frame, e.g. 0.5 for the half size.
+     * @param minFaceSize The faces smaller than it in pixels are dropped, 0 to
+     *                    keep all of them.
+     * @param upsampleCount The number of times the frame is doubled in size
+     *                      after the scaling.
+     */
+    void setFaceDetectionOptions(float scale,
+                                 int minFaceSize,
+                                 int upsampleCount);
+
     boolean isFaceDetectorReady();
 
     boolean isFaceLandmarksDetectorReady();
@@ -46,10 +84,20 @@ public interface IDLibFaceDetector {
     /**
      * Prepare the face landmarks detector.
      *
-     * @param path The model (serialized graph) file.
+     * @param path The model (serialized graph) file, either the stock dlib
+     *             shape predictor or the compact one converted by
+     *             tools/shape_predictor_tool in lib-dlib.
      */
     void prepareFaceLandmarksDetector(String path);
 
+    /**
+     * Free the memory taken by the prepared detectors, e.g. when the app is
+     * in the background. Unlike disposing it, the detector is still usable,
+     * and the detectors are copied or reloaded lazily on the next detection,
+     * which makes that detection slower.
+     */
+    void release();
+
     /**
      * Detect face bounds.
      *
@@ -62,6 +110,19 @@ public interface IDLibFaceDetector {
     List<DLibFace> findFaces(Bitmap bitmap)
         throws InvalidProtocolBufferException;
 
+    /**
+     * The same as {@link #findFaces(Bitmap)} but fills the given recyclable
+     * list, so the steady-state detection allocates nothing. The faces have
+     * only the bounds.
+     *
+     * @param bitmap The given photo.
+     * @param out The output list, cleared first.
+     * @return The number of the faces, which is limited by
+     * {@link DLibFaceList#getMaxFaces()}.
+     */
+    int findFaces(Bitmap bitmap,
+                  DLibFaceList out);
+
     /**
      * Detect the face landmarks in the given face bound (single face).
      *
@@ -76,8 +137,26 @@ public interface IDLibFaceDetector {
                                                   Rect bound)
         throws InvalidProtocolBufferException;
 
+    /**
+     * The same as {@link #findLandmarksFromFace(Bitmap, Rect)} but fills the
+     * given recyclable list with the face.
+     *
+     * @param bitmap The given photo.
+     * @param bound The boundary of the face.
+     * @param out The output list, cleared first.
+     * @return The number of the faces, 0 or 1.
+     */
+    int findLandmarksFromFace(Bitmap bitmap,
+                              Rect bound,
+                              DLibFaceList out);
+
     /**
      * Detect the face landmarks in the given face bounds (multiple faces).
+     * <br/>
+     * The result is marshalled through the protobuf message and it's kept for
+     * the compatibility. Use
+     * {@link #findLandmarksFromFaces(Bitmap, List, FloatBuffer)} in the
+     * per-frame hot path.
      *
      * @param bitmap The given photo.
      * @param faceBounds The list of face boundary.
@@ -90,6 +169,239 @@ public interface IDLibFaceDetector {
                                           List<Rect> faceBounds)
         throws InvalidProtocolBufferException;
 
+    /**
+     * Detect the face landmarks in the given face bounds (multiple faces) and
+     * write them directly into the given direct buffer, face by face, in the
+     * layout described by {@link DLibFace68#PACKED_FACE_SIZE}. It is the
+     * allocation-free alternative to
+     * {@link #findLandmarksFromFaces(Bitmap, List)}, which is kept for the
+     * compatibility.
+     * <br/>
+     * The buffer must be a direct buffer in the native byte order, e.g. the
+     * one given by {@link DLibLandmarks68Detector#allocatePackedBuffer(int)}.
+     * The faces are always written from index 0 regardless of the position.
+     *
+     * @param bitmap The given photo.
+     * @param faceBounds The list of face boundary.
+     * @param out The output buffer.
+     * @return The number of the faces written to the buffer, which is limited
+     * by the buffer capacity.
+     */
+    int findLandmarksFromFaces(Bitmap bitmap,
+                               List<Rect> faceBounds,
+                               FloatBuffer out);
+
+    /**
+     * The same as {@link #findLandmarksFromFaces(Bitmap, List, FloatBuffer)}
+     * but writes to a float array.
+     *
+     * @param bitmap The given photo.
+     * @param faceBounds The list of face boundary.
+     * @param out The output array.
+     * @return The number of the faces written to the array, which is limited
+     * by the array length.
+     */
+    int findLandmarksFromFaces(Bitmap bitmap,
+                               List<Rect> faceBounds,
+                               float[] out);
+
+    /**
+     * The same as {@link #findLandmarksFromFaces(Bitmap, List)} but fills the
+     * given recyclable list, so the steady-state detection allocates nothing.
+     * The list grows to hold all the given faces if it's too small.
+     *
+     * @param bitmap The given photo.
+     * @param faceBounds The list of face boundary.
+     * @param out The output list, cleared first.
+     * @return The number of the faces, in the order of the face bounds.
+     */
+    int findLandmarksFromFaces(Bitmap bitmap,
+                               List<Rect> faceBounds,
+                               DLibFaceList out);
+
+    /**
+     * Detect the face landmarks in the given face bounds directly from a
+     * camera preview frame in the NV21 (or any YUV 4:2:0) format. Only the
+     * luma plane is read, so there's neither color conversion nor Bitmap
+     * allocation.
+     * <br/>
+     * The frame is rotated clockwise by the given degrees and then mirrored
+     * horizontally if asked, the given face bounds and the returned faces are
+     * both in that upright coordinate.
+     *
+     * @param yuv The frame, either a direct buffer or a buffer backed by an
+     *            array, e.g. {@code Frame#getGrayscaleImageData()}.
+     * @param width The frame width.
+     * @param height The frame height.
+     * @param rotation The clockwise rotation in degrees, 0, 90, 180 or 270.
+     * @param mirror True to mirror the rotated frame horizontally.
+     * @param faceBounds The list of face boundary in the upright coordinate.
+     * @param out The output array, see {@link DLibFace68#PACKED_FACE_SIZE}.
+     * @return The number of the faces written to the array.
+     */
+    int findLandmarksFromFaces(ByteBuffer yuv,
+                               int width,
+                               int height,
+                               int rotation,
+                               boolean mirror,
+                               List<Rect> faceBounds,
+                               float[] out);
+
+    /**
+     * The same as
+     * {@link #findLandmarksFromFaces(ByteBuffer, int, int, int, boolean, List, float[])}
+     * but fills the given recyclable list. The list grows to hold all the
+     * given faces if it's too small.
+     *
+     * @param out The output list, cleared first.
+     * @return The number of the faces, in the order of the face bounds.
+     */
+    int findLandmarksFromFaces(ByteBuffer yuv,
+                               int width,
+                               int height,
+                               int rotation,
+                               boolean mirror,
+                               List<Rect> faceBounds,
+                               DLibFaceList out);
+
+    /**
+     * Detect face bounds and then detect the face landmarks for every face
+     * directly from a camera preview frame in the NV21 format. See
+     * {@link #findLandmarksFromFaces(ByteBuffer, int, int, int, boolean, List, float[])}
+     * for the frame parameters.
+     *
+     * @param yuv The frame, either a direct buffer or a buffer backed by an
+     *            array.
+     * @param width The frame width.
+     * @param height The frame height.
+     * @param rotation The clockwise rotation in degrees, 0, 90, 180 or 270.
+     * @param mirror True to mirror the rotated frame horizontally.
+     * @param out The output array, see {@link DLibFace68#PACKED_FACE_SIZE}.
+     * @return The number of the faces written to the array, which is limited
+     * by the array length.
+     */
+    int findFacesAndLandmarks(ByteBuffer yuv,
+                              int width,
+                              int height,
+                              int rotation,
+                              boolean mirror,
+                              float[] out);
+
+    /**
+     * The same as
+     * {@link #findFacesAndLandmarks(ByteBuffer, int, int, int, boolean, float[])}
+     * but fills the given recyclable list.
+     *
+     * @param out The output list, cleared first.
+     * @return The number of the faces, which is limited by
+     * {@link DLibFaceList#getMaxFaces()}.
+     */
+    int findFacesAndLandmarks(ByteBuffer yuv,
+                              int width,
+                              int height,
+                              int rotation,
+                              boolean mirror,
+                              DLibFaceList out);
+
+    /**
+     * Detect face bounds and then the face landmarks for every face in a
+     * sequence of frames in one call, e.g. the frames of a recorded clip. The
+     * frames are spread across the threads given by
+     * {@link #setParallelism(int)}, but the result is always in the frame
+     * order. It neither reads nor changes the tracking state, see
+     * {@link #setTrackingInterval(int)}.
+     * <br/>
+     * The faces of the frame i are written from
+     * {@code i * maxFacesPerFrame * DLibFace68.PACKED_FACE_SIZE} in the packed
+     * layout, see {@link DLibFace68#PACKED_FACE_SIZE}, and the number of them
+     * is written to {@code facesCounts[i]}.
+     *
+     * @param frames The frames, direct buffers of the same size in the NV21
+     *               (or any YUV 4:2:0) format.
+     * @param width The frame width.
+     * @param height The frame height.
+     * @param rotation The clockwise rotation in degrees, 0, 90, 180 or 270.
+     * @param mirror True to mirror the rotated frame horizontally.
+     * @param maxFacesPerFrame The max number of faces written per frame.
+     * @param out The output array, at least
+     *            {@code frames.size() * maxFacesPerFrame * DLibFace68.PACKED_FACE_SIZE}
+     *            long.
+     * @param facesCounts The output number of faces per frame, at least
+     *                    {@code frames.size()} long.
+     * @return The number of the frames detected.
+     */
+    int findFacesAndLandmarks(List<ByteBuffer> frames,
+                              int width,
+                              int height,
+                              int rotation,
+                              boolean mirror,
+                              int maxFacesPerFrame,
+                              float[] out,
+                              int[] facesCounts);
+
+    /**
+     * Turn on the detect-then-track mode, where the face detection runs at
+     * most every given number of frames. The frames in between seed the face
+     * bounds from the landmarks of the previous frame and only the ROI of the
+     * tracked faces is read.
+     * <br/>
+     * The detection runs earlier if a tracked face is lost, i.e. its landmarks
+     * drift out of the frame or they don't fit the seeded bound anymore. The
+     * faces entering the frame are found by the next detection.
+     * <br/>
+     * {@link #findFacesAndLandmarks(ByteBuffer, int, int, int, boolean, float[])}
+     * does it by itself. For the faces detected by another detector, call
+     * {@link #trackLandmarks(ByteBuffer, int, int, int, boolean, float[])}
+     * first and run that detector only if it asks to.
+     *
+     * @param detectInterval The max number of frames between two face
+     *                       detections. 1 or less turns the tracking off.
+     */
+    void setTrackingInterval(int detectInterval);
+
+    /**
+     * Drop the tracked faces so that the next frame runs the face detection.
+     */
+    void resetTracking();
+
+    /**
+     * Detect the face landmarks of the faces tracked from the previous frame,
+     * see {@link #setTrackingInterval(int)}. The tracked faces are the ones
+     * given to or found by the last detection, in the same order.
+     *
+     * @param yuv The frame, either a direct buffer or a buffer backed by an
+     *            array.
+     * @param width The frame width.
+     * @param height The frame height.
+     * @param rotation The clockwise rotation in degrees, 0, 90, 180 or 270.
+     * @param mirror True to mirror the rotated frame horizontally.
+     * @param out The output array, see {@link DLibFace68#PACKED_FACE_SIZE}.
+     * @return The number of the faces written to the array, or -1 if the face
+     * detection is due and nothing is written.
+     */
+    int trackLandmarks(ByteBuffer yuv,
+                       int width,
+                       int height,
+                       int rotation,
+                       boolean mirror,
+                       float[] out);
+
+    /**
+     * The same as
+     * {@link #trackLandmarks(ByteBuffer, int, int, int, boolean, float[])}
+     * but fills the given recyclable list.
+     *
+     * @param out The output list, cleared first.
+     * @return The number of the faces, or -1 if the face detection is due and
+     * the list is left empty.
+     */
+    int trackLandmarks(ByteBuffer yuv,
+                       int width,
+                       int height,
+                       int rotation,
+                       boolean mirror,
+                       DLibFaceList out);
+
     /**
      * Detect face bounds and then detect the face landmarks for every face.
      *
@@ -101,4 +413,36 @@ public interface IDLibFaceDetector {
      */
     List<DLibFace> findFacesAndLandmarks(Bitmap bitmap)
         throws InvalidProtocolBufferException;
+
+    /**
+     * The same as {@link #findFacesAndLandmarks(Bitmap)} but fills the given
+     * recyclable list, so the steady-state detection allocates nothing.
+     *
+     * @param bitmap The given photo.
+     * @param out The output list, cleared first.
+     * @return The number of the faces, which is limited by
+     * {@link DLibFaceList#getMaxFaces()}.
+     */
+    int findFacesAndLandmarks(Bitmap bitmap,
+                              DLibFaceList out);
+
+    /**
+     * The same as {@link #findFacesAndLandmarks(Bitmap, DLibFaceList)} but
+     * reads the RGBA_8888 pixels (byte order R, G, B, A) from the given direct
+     * buffer. It doesn't touch any Android API, so it works in the host build
+     * of the native library as well.
+     *
+     * @param rgba The direct buffer of the pixels.
+     * @param width The image width.
+     * @param height The image height.
+     * @param rowStride The bytes per row, at least {@code 4 * width}.
+     * @param out The output list, cleared first.
+     * @return The number of the faces, which is limited by
+     * {@link DLibFaceList#getMaxFaces()}.
+     */
+    int findFacesAndLandmarksInRgba(ByteBuffer rgba,
+                                    int width,
+                                    int height,
+                                    int rowStride,
+                                    DLibFaceList out);
 }
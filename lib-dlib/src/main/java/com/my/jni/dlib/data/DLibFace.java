@@ -26,8 +26,47 @@ import java.util.List;
 
 public abstract class DLibFace {
 
+    // The facial regions, see getRegionOffset(int) and getRegionLength(int).
+    public static final int REGION_CHIN = 0;
+    public static final int REGION_LEFT_EYEBROW = 1;
+    public static final int REGION_RIGHT_EYEBROW = 2;
+    public static final int REGION_NOSE = 3;
+    public static final int REGION_LEFT_EYE = 4;
+    public static final int REGION_RIGHT_EYE = 5;
+    public static final int REGION_OUTER_LIPS = 6;
+    public static final int REGION_INNER_LIPS = 7;
+    public static final int REGIONS_COUNT = 8;
+
     public abstract RectF getBound();
 
+    /**
+     * The number of landmarks, zero if the face has no landmarks.
+     */
+    public abstract int getLandmarksCount();
+
+    /**
+     * The x of the landmark at the given index. Reading the landmarks by the
+     * index allocates nothing, unlike the {@link List} getters.
+     */
+    public abstract float getX(int index);
+
+    /**
+     * The y of the landmark at the given index.
+     */
+    public abstract float getY(int index);
+
+    /**
+     * The index of the first landmark of the given region, e.g.
+     * {@link #REGION_INNER_LIPS}.
+     */
+    public abstract int getRegionOffset(int region);
+
+    /**
+     * The number of landmarks of the given region, e.g.
+     * {@link #REGION_INNER_LIPS}. Zero if the face has no landmarks.
+     */
+    public abstract int getRegionLength(int region);
+
     public abstract List<Landmark> getAllLandmarks();
 
     public abstract List<Landmark> getLeftEyebrowLandmarks();
@@ -22,11 +22,47 @@ package com.my.jni.dlib.data;
 
 import android.graphics.RectF;
 
+import java.nio.FloatBuffer;
+import java.util.AbstractList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-
+import java.util.RandomAccess;
+
+/**
+ * The 68-landmarks face backed by a float array. Reading the landmarks by
+ * {@link #getX(int)} and {@link #getY(int)} allocates nothing, and an instance
+ * could be reused for every frame by the setters and {@link #reset()}.
+ * <br/>
+ * It is not thread-safe. Copy it before handing it to another thread.
+ */
 public class DLibFace68 extends DLibFace {
 
+    /**
+     * The number of landmarks of a 68-landmarks face.
+     */
+    public static final int LANDMARKS_COUNT = 68;
+
+    //
+    // The packed layout of one face in a float array or a float buffer:
+    //
+    // [left, top, right, bottom, x0, y0, x1, y1, ..., x67, y67]
+    // |<------- bound -------->|<-------- 68 landmarks ------->|
+    //
+    // All the values are normalized. The JNI layer writes the same layout.
+    //
+
+    /**
+     * The offset of the bound, [left, top, right, bottom], in a packed face.
+     */
+    public static final int PACKED_BOUND_OFFSET = 0;
+    /**
+     * The offset of the landmarks, [x0, y0, x1, y1, ...], in a packed face.
+     */
+    public static final int PACKED_LANDMARKS_OFFSET = 4;
+    /**
+     * The number of floats taken by one packed face.
+     */
+    public static final int PACKED_FACE_SIZE = PACKED_LANDMARKS_OFFSET + 2 * LANDMARKS_COUNT;
+
     private static final int CHIN_START = 0;
     private static final int CHIN_END = 16;
 
@@ -48,8 +84,41 @@ public class DLibFace68 extends DLibFace {
     private static final int LIPS_INNER_START = 60;
     private static final int LIPS_INNER_END = 67;
 
+    // Indexed by the REGION_* constants.
+    private static final int[] REGION_STARTS = new int[]{
+        CHIN_START,
+        EYEBROW_L_START,
+        EYEBROW_R_START,
+        NOSE_START,
+        EYE_L_START,
+        EYE_R_START,
+        LIPS_OUTER_START,
+        LIPS_INNER_START};
+    private static final int[] REGION_ENDS = new int[]{
+        CHIN_END,
+        EYEBROW_L_END,
+        EYEBROW_R_END,
+        NOSE_END,
+        EYE_L_END,
+        EYE_R_END,
+        LIPS_OUTER_END,
+        LIPS_INNER_END};
+
     private final RectF mBound = new RectF();
-    private final List<Landmark> mLandmarks = new CopyOnWriteArrayList<>();
+    // The landmarks, [x0, y0, x1, y1, ...].
+    private final float[] mLandmarks = new float[2 * LANDMARKS_COUNT];
+    private int mLandmarksCount = 0;
+
+    // The list views of the landmarks, created on demand.
+    private LandmarkList mAllLandmarksView;
+    private final LandmarkList[] mRegionViews = new LandmarkList[REGIONS_COUNT];
+
+    /**
+     * Create an empty face for being reused.
+     */
+    public DLibFace68() {
+        // DO NOTHING.
+    }
 
     public DLibFace68(Messages.Face rawFace) {
         // Bound.
@@ -59,13 +128,35 @@ public class DLibFace68 extends DLibFace {
                    rawFace.getBound().getBottom());
 
         // Landmarks.
-        for (int i = 0; i < rawFace.getLandmarksCount(); ++i) {
+        mLandmarksCount = Math.min(rawFace.getLandmarksCount(), LANDMARKS_COUNT);
+        for (int i = 0; i < mLandmarksCount; ++i) {
             Messages.Landmark rawLandmark = rawFace.getLandmarks(i);
 
-            mLandmarks.add(new Landmark(rawLandmark));
+            mLandmarks[2 * i] = rawLandmark.getX();
+            mLandmarks[2 * i + 1] = rawLandmark.getY();
         }
     }
 
+    /**
+     * Create a face from the packed layout, see {@link #PACKED_FACE_SIZE}.
+     *
+     * @param packed The packed faces.
+     * @param offset The offset of the face in the given array.
+     */
+    public DLibFace68(float[] packed, int offset) {
+        set(packed, offset);
+    }
+
+    /**
+     * Create a face from the packed layout, see {@link #PACKED_FACE_SIZE}.
+     *
+     * @param packed The packed faces.
+     * @param offset The offset of the face in the given buffer.
+     */
+    public DLibFace68(FloatBuffer packed, int offset) {
+        set(packed, offset);
+    }
+
     public DLibFace68(RectF bound) {
         mBound.set(bound);
     }
@@ -75,101 +166,230 @@ public class DLibFace68 extends DLibFace {
     }
 
     public DLibFace68(DLibFace other, float scaleX, float scaleY) {
-        // Bound.
-        mBound.set(other.getBound().left * scaleX,
-                   other.getBound().top * scaleY,
-                   other.getBound().right * scaleX,
-                   other.getBound().bottom * scaleY);
-
-        // Landmarks.
-        for (int i = 0; i < other.getAllLandmarks().size(); ++i) {
-            final DLibFace68.Landmark landmark = other.getAllLandmarks().get(i);
-            mLandmarks.add(new DLibFace68.Landmark(
-                landmark.x * scaleX,
-                landmark.y * scaleY));
-        }
+        set(other, scaleX, scaleY);
     }
 
     public DLibFace68(List<Landmark> landmarks) {
         // Landmarks.
-        mLandmarks.clear();
-        mLandmarks.addAll(landmarks);
+        setAllLandmarks(landmarks);
 
         // Calculate bound by the given landmarks.
         float left = Float.MAX_VALUE;
         float top = Float.MAX_VALUE;
         float right = Float.MIN_VALUE;
         float bottom = Float.MIN_VALUE;
-        for (int i = 0; i < landmarks.size(); ++i) {
-            final DLibFace68.Landmark landmark = landmarks.get(i);
-
-            left = Math.min(left, landmark.x);
-            top = Math.min(top, landmark.y);
-            right = Math.max(right, landmark.x);
-            bottom = Math.max(bottom, landmark.y);
+        for (int i = 0; i < mLandmarksCount; ++i) {
+            left = Math.min(left, mLandmarks[2 * i]);
+            top = Math.min(top, mLandmarks[2 * i + 1]);
+            right = Math.max(right, mLandmarks[2 * i]);
+            bottom = Math.max(bottom, mLandmarks[2 * i + 1]);
         }
         mBound.set(left, top, right, bottom);
     }
 
+    /**
+     * Set the face from the packed layout, see {@link #PACKED_FACE_SIZE}.
+     *
+     * @param packed The packed faces.
+     * @param offset The offset of the face in the given array.
+     */
+    public void set(float[] packed, int offset) {
+        // Bound.
+        mBound.set(packed[offset + PACKED_BOUND_OFFSET],
+                   packed[offset + PACKED_BOUND_OFFSET + 1],
+                   packed[offset + PACKED_BOUND_OFFSET + 2],
+                   packed[offset + PACKED_BOUND_OFFSET + 3]);
+
+        // Landmarks.
+        System.arraycopy(packed, offset + PACKED_LANDMARKS_OFFSET,
+                         mLandmarks, 0, mLandmarks.length);
+        mLandmarksCount = LANDMARKS_COUNT;
+    }
+
+    /**
+     * Set the face from the packed layout, see {@link #PACKED_FACE_SIZE}.
+     *
+     * @param packed The packed faces.
+     * @param offset The offset of the face in the given buffer.
+     */
+    public void set(FloatBuffer packed, int offset) {
+        // Bound.
+        mBound.set(packed.get(offset + PACKED_BOUND_OFFSET),
+                   packed.get(offset + PACKED_BOUND_OFFSET + 1),
+                   packed.get(offset + PACKED_BOUND_OFFSET + 2),
+                   packed.get(offset + PACKED_BOUND_OFFSET + 3));
+
+        // Landmarks.
+        final int start = offset + PACKED_LANDMARKS_OFFSET;
+        for (int i = 0; i < mLandmarks.length; ++i) {
+            mLandmarks[i] = packed.get(start + i);
+        }
+        mLandmarksCount = LANDMARKS_COUNT;
+    }
+
+    /**
+     * Set the face by copying the given face and scaling it.
+     */
+    public void set(DLibFace other, float scaleX, float scaleY) {
+        // Bound.
+        mBound.set(other.getBound().left * scaleX,
+                   other.getBound().top * scaleY,
+                   other.getBound().right * scaleX,
+                   other.getBound().bottom * scaleY);
+
+        // Landmarks.
+        mLandmarksCount = Math.min(other.getLandmarksCount(), LANDMARKS_COUNT);
+        for (int i = 0; i < mLandmarksCount; ++i) {
+            mLandmarks[2 * i] = other.getX(i) * scaleX;
+            mLandmarks[2 * i + 1] = other.getY(i) * scaleY;
+        }
+    }
+
+    /**
+     * Clear the bound and the landmarks.
+     */
+    public void reset() {
+        mBound.setEmpty();
+        mLandmarksCount = 0;
+    }
+
     public RectF getBound() {
         return mBound;
     }
 
     public void setAllLandmarks(List<Landmark> landmarks) {
-        mLandmarks.clear();
-        mLandmarks.addAll(landmarks);
+        mLandmarksCount = Math.min(landmarks.size(), LANDMARKS_COUNT);
+        for (int i = 0; i < mLandmarksCount; ++i) {
+            final Landmark landmark = landmarks.get(i);
+
+            mLandmarks[2 * i] = landmark.x;
+            mLandmarks[2 * i + 1] = landmark.y;
+        }
+    }
+
+    @Override
+    public int getLandmarksCount() {
+        return mLandmarksCount;
+    }
+
+    @Override
+    public float getX(int index) {
+        return mLandmarks[2 * index];
+    }
+
+    @Override
+    public float getY(int index) {
+        return mLandmarks[2 * index + 1];
+    }
+
+    @Override
+    public int getRegionOffset(int region) {
+        return REGION_STARTS[region];
+    }
+
+    @Override
+    public int getRegionLength(int region) {
+        return mLandmarksCount == 0 ? 0 : REGION_ENDS[region] - REGION_STARTS[region] + 1;
     }
 
     @Override
     public List<Landmark> getAllLandmarks() {
-        return mLandmarks;
+        if (mAllLandmarksView == null) {
+            mAllLandmarksView = new LandmarkList(-1);
+        }
+        return mAllLandmarksView;
     }
 
     @Override
     public List<Landmark> getLeftEyebrowLandmarks() {
-        return mLandmarks.subList(EYEBROW_L_START, EYEBROW_L_END + 1);
+        return getRegionView(REGION_LEFT_EYEBROW);
     }
 
     @Override
     public List<Landmark> getRightEyebrowLandmarks() {
-        return mLandmarks.subList(EYEBROW_R_START, EYEBROW_R_END + 1);
+        return getRegionView(REGION_RIGHT_EYEBROW);
     }
 
     @Override
     public List<Landmark> getLeftEyeLandmarks() {
-        return mLandmarks.subList(EYE_L_START, EYE_L_END + 1);
+        return getRegionView(REGION_LEFT_EYE);
     }
 
     @Override
     public List<Landmark> getRightEyeLandmarks() {
-        return mLandmarks.subList(EYE_R_START, EYE_R_END + 1);
+        return getRegionView(REGION_RIGHT_EYE);
     }
 
     @Override
     public List<Landmark> getNoseLandmarks() {
-        return mLandmarks.subList(NOSE_START, NOSE_END + 1);
+        return getRegionView(REGION_NOSE);
     }
 
     @Override
     public List<Landmark> getInnerLipsLandmarks() {
-        return mLandmarks.subList(LIPS_INNER_START, LIPS_INNER_END + 1);
+        return getRegionView(REGION_INNER_LIPS);
     }
 
     @Override
     public List<Landmark> getOuterLipsLandmarks() {
-        return mLandmarks.subList(LIPS_OUTER_START, LIPS_OUTER_END + 1);
+        return getRegionView(REGION_OUTER_LIPS);
     }
 
     @Override
     public List<Landmark> getChinLandmarks() {
-        return mLandmarks.subList(CHIN_START, CHIN_END + 1);
+        return getRegionView(REGION_CHIN);
     }
 
     @Override
     public String toString() {
         return "DLibFace{" +
                "mBound=" + mBound +
-               ", mLandmarks=" + mLandmarks +
+               ", mLandmarks=" + getAllLandmarks() +
                '}';
     }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private List<Landmark> getRegionView(int region) {
+        if (mRegionViews[region] == null) {
+            mRegionViews[region] = new LandmarkList(region);
+        }
+        return mRegionViews[region];
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Clazz //////////////////////////////////////////////////////////////////
+
+    /**
+     * A read-only view of the landmarks of a region, or of all the landmarks.
+     * It always reflects the current landmarks of the face and allocates a
+     * {@link Landmark} per {@link #get(int)}.
+     */
+    private class LandmarkList
+        extends AbstractList<Landmark>
+        implements RandomAccess {
+
+        // The region, or -1 for all the landmarks.
+        private final int mRegion;
+
+        LandmarkList(int region) {
+            mRegion = region;
+        }
+
+        @Override
+        public Landmark get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("index=" + index);
+            }
+
+            final int i = mRegion < 0 ? index : getRegionOffset(mRegion) + index;
+            return new Landmark(getX(i), getY(i));
+        }
+
+        @Override
+        public int size() {
+            return mRegion < 0 ? mLandmarksCount : getRegionLength(mRegion);
+        }
+    }
 }
@@ -0,0 +1,163 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.jni.dlib.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recyclable list of faces filled by the detector, see
+ * {@link com.my.jni.dlib.IDLibFaceDetector}. The faces are kept in a float
+ * array in the packed layout, see {@link DLibFace68#PACKED_FACE_SIZE}, and
+ * read into reusable {@link DLibFace68} slots, so a list reused for every
+ * frame allocates nothing once it's big enough.
+ * <br/>
+ * The faces given by {@link #get(int)} are overwritten by the next detection.
+ * It is not thread-safe, copy the faces before handing them to another thread,
+ * e.g. by {@link DLibFace68#DLibFace68(DLibFace)}.
+ */
+public class DLibFaceList {
+
+    /**
+     * The number of faces a list could hold by default.
+     */
+    public static final int DEFAULT_MAX_FACES = 4;
+
+    private float[] mPacked;
+    private final List<DLibFace68> mFaces = new ArrayList<>();
+    private int mFacesCount = 0;
+
+    public DLibFaceList() {
+        this(DEFAULT_MAX_FACES);
+    }
+
+    /**
+     * @param maxFaces The max number of faces the detection writes to the
+     *                 list. The more faces are found, the more are dropped.
+     */
+    public DLibFaceList(int maxFaces) {
+        mPacked = new float[DLibFace68.PACKED_FACE_SIZE * Math.max(1, maxFaces)];
+    }
+
+    /**
+     * The number of the faces.
+     */
+    public int size() {
+        return mFacesCount;
+    }
+
+    public boolean isEmpty() {
+        return mFacesCount == 0;
+    }
+
+    /**
+     * The face at the given index, which is reused by the next detection.
+     */
+    public DLibFace get(int index) {
+        if (index < 0 || index >= mFacesCount) {
+            throw new IndexOutOfBoundsException(
+                "index=" + index + ", size=" + mFacesCount);
+        }
+
+        return mFaces.get(index);
+    }
+
+    public void clear() {
+        mFacesCount = 0;
+    }
+
+    /**
+     * The max number of faces the detection writes to the list.
+     */
+    public int getMaxFaces() {
+        return mPacked.length / DLibFace68.PACKED_FACE_SIZE;
+    }
+
+    /**
+     * Grow the list so that it holds at least the given number of faces. It
+     * allocates only if the list is smaller.
+     */
+    public void ensureCapacity(int maxFaces) {
+        if (getMaxFaces() < maxFaces) {
+            mPacked = new float[DLibFace68.PACKED_FACE_SIZE * maxFaces];
+        }
+    }
+
+    /**
+     * The packed faces written by the detector. Call
+     * {@link #setFacesFromPacked(int)} or {@link #setBoundsFromPacked(int)}
+     * after writing.
+     */
+    public float[] getPackedArray() {
+        return mPacked;
+    }
+
+    /**
+     * Read the bounds and the landmarks of the given number of packed faces
+     * into the face slots.
+     */
+    public void setFacesFromPacked(int count) {
+        ensureSlots(count);
+
+        for (int i = 0; i < count; ++i) {
+            mFaces.get(i).set(mPacked, i * DLibFace68.PACKED_FACE_SIZE);
+        }
+        mFacesCount = count;
+    }
+
+    /**
+     * Read only the bounds of the given number of packed faces into the face
+     * slots, the faces have no landmarks.
+     */
+    public void setBoundsFromPacked(int count) {
+        ensureSlots(count);
+
+        for (int i = 0; i < count; ++i) {
+            final int offset = i * DLibFace68.PACKED_FACE_SIZE +
+                               DLibFace68.PACKED_BOUND_OFFSET;
+            final DLibFace68 face = mFaces.get(i);
+
+            face.reset();
+            face.getBound().set(mPacked[offset],
+                                mPacked[offset + 1],
+                                mPacked[offset + 2],
+                                mPacked[offset + 3]);
+        }
+        mFacesCount = count;
+    }
+
+    @Override
+    public String toString() {
+        return "DLibFaceList{" +
+               "size=" + mFacesCount +
+               ", maxFaces=" + getMaxFaces() +
+               '}';
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private void ensureSlots(int count) {
+        while (mFaces.size() < count) {
+            mFaces.add(new DLibFace68());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+// Copyright (c) 2017-present boyw165
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+//    The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+//    THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.my.jni.dlib.data;
+
+/**
+ * The time taken by every stage of one detection, recorded by the native
+ * detector. See
+ * {@link com.my.jni.dlib.DLibLandmarks68Detector#getLastFrameStats(DLibFrameStats)}.
+ */
+public class DLibFrameStats {
+
+    // The stages, which must be identical to the ones in frame_stats.h.
+    /**
+     * Reading the frame into the native frame buffer.
+     */
+    public static final int STAGE_CONVERT = 0;
+    /**
+     * The face detection, including the scaling for it.
+     */
+    public static final int STAGE_DETECT = 1;
+    /**
+     * The face landmarks prediction.
+     */
+    public static final int STAGE_LANDMARKS = 2;
+    /**
+     * Reading the input and writing the output, e.g. the protobuf messages.
+     */
+    public static final int STAGE_SERIALIZE = 3;
+    /**
+     * The whole detection.
+     */
+    public static final int STAGE_TOTAL = 4;
+    public static final int STAGES_COUNT = 5;
+
+    /**
+     * The size of the raw stats written by the JNI, [durations..., facesCount].
+     */
+    public static final int RAW_SIZE = STAGES_COUNT + 1;
+
+    private final float[] mRaw = new float[RAW_SIZE];
+
+    /**
+     * The time taken by the given stage in milliseconds.
+     */
+    public float getDuration(int stage) {
+        return mRaw[stage];
+    }
+
+    /**
+     * The number of the faces found in the frame.
+     */
+    public int getFacesCount() {
+        return (int) mRaw[STAGES_COUNT];
+    }
+
+    /**
+     * The raw stats for the JNI to write.
+     */
+    public float[] getRawArray() {
+        return mRaw;
+    }
+
+    @Override
+    public String toString() {
+        return "DLibFrameStats{" +
+               "convert=" + mRaw[STAGE_CONVERT] +
+               ", detect=" + mRaw[STAGE_DETECT] +
+               ", landmarks=" + mRaw[STAGE_LANDMARKS] +
+               ", serialize=" + mRaw[STAGE_SERIALIZE] +
+               ", total=" + mRaw[STAGE_TOTAL] +
+               ", facesCount=" + getFacesCount() +
+               '}';
+    }
+}
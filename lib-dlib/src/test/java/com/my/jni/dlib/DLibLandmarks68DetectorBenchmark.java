@@ -0,0 +1,213 @@
+package com.my.jni.dlib;
+
+import com.my.jni.dlib.data.DLibFaceList;
+import com.my.jni.dlib.data.DLibFrameStats;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the face and landmarks detection over a folder of sample images on the
+ * desktop JVM, with the host build of libdlib_jni.so (see
+ * src/main/cpp/CMakeLists.txt), and reports the time taken. It's skipped
+ * unless the following system properties are given, e.g. by
+ * {@code ./gradlew :lib-dlib:testDebugUnitTest -PdlibHostLibDir=...
+ * -PdlibBenchmarkImages=... -PdlibBenchmarkModel=...}:
+ * <ul>
+ * <li>java.library.path: The folder of the host libdlib_jni.so.</li>
+ * <li>dlib.benchmark.images: The folder of the binary PPM (P6) or PGM (P5)
+ * images, e.g. converted by {@code mogrify -format ppm *.jpg}.</li>
+ * <li>dlib.benchmark.model: The face landmarks model.</li>
+ * <li>dlib.benchmark.iterations: The runs over the images, 5 by default.</li>
+ * <li>dlib.benchmark.maxP95Ms: Fail if the p95 of the whole detection is
+ * slower than it, optional.</li>
+ * </ul>
+ */
+public class DLibLandmarks68DetectorBenchmark {
+
+    private static class Image {
+        final String name;
+        final int width;
+        final int height;
+        final ByteBuffer rgba;
+
+        Image(String name,
+              int width,
+              int height,
+              ByteBuffer rgba) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.rgba = rgba;
+        }
+    }
+
+    private final List<Image> mImages = new ArrayList<>();
+    private DLibLandmarks68Detector mDetector;
+
+    @Before
+    public void setUp() throws Exception {
+        final String imagesDir = System.getProperty("dlib.benchmark.images");
+        final String modelPath = System.getProperty("dlib.benchmark.model");
+        Assume.assumeTrue("No benchmark images or model is given",
+                          imagesDir != null && modelPath != null);
+
+        final File[] files = new File(imagesDir).listFiles();
+        Assume.assumeTrue("No image in " + imagesDir, files != null);
+        Arrays.sort(files);
+        for (File file : files) {
+            final String name = file.getName().toLowerCase();
+            if (name.endsWith(".ppm") || name.endsWith(".pgm")) {
+                mImages.add(readImage(file));
+            }
+        }
+        Assume.assumeTrue("No PPM or PGM image in " + imagesDir, !mImages.isEmpty());
+
+        mDetector = new DLibLandmarks68Detector();
+        mDetector.prepareFaceDetector();
+        mDetector.prepareFaceLandmarksDetector(modelPath);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mDetector != null) {
+            mDetector.dispose();
+        }
+    }
+
+    @Test
+    public void benchmarkFindFacesAndLandmarks() throws Exception {
+        final int iterations = Integer.getInteger("dlib.benchmark.iterations", 5);
+        final DLibFaceList faces = new DLibFaceList();
+
+        // Warm up, which also reports the faces per image.
+        for (Image image : mImages) {
+            final int count = mDetector.findFacesAndLandmarksInRgba(
+                image.rgba, image.width, image.height, 4 * image.width, faces);
+            System.out.println(String.format("%s (%dx%d): %d faces",
+                                             image.name, image.width, image.height, count));
+        }
+
+        mDetector.resetFrameStats();
+        final double[] durations = new double[iterations * mImages.size()];
+        int i = 0;
+        for (int iteration = 0; iteration < iterations; ++iteration) {
+            for (Image image : mImages) {
+                final long start = System.nanoTime();
+                mDetector.findFacesAndLandmarksInRgba(
+                    image.rgba, image.width, image.height, 4 * image.width, faces);
+                durations[i++] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+        Arrays.sort(durations);
+
+        final double p50 = getPercentile(durations, 0.5);
+        final double p95 = getPercentile(durations, 0.95);
+        System.out.println(String.format(
+            "%d detections: p50=%.3f ms, p95=%.3f ms, max=%.3f ms",
+            durations.length, p50, p95, durations[durations.length - 1]));
+        // The native stats only keep the latest frames.
+        System.out.println(String.format(
+            "Latest %d frames p50: convert=%.3f ms, detect=%.3f ms, landmarks=%.3f ms",
+            mDetector.getFrameStatsCount(),
+            mDetector.getFrameStatsPercentile(DLibFrameStats.STAGE_CONVERT, 0.5f),
+            mDetector.getFrameStatsPercentile(DLibFrameStats.STAGE_DETECT, 0.5f),
+            mDetector.getFrameStatsPercentile(DLibFrameStats.STAGE_LANDMARKS, 0.5f)));
+
+        final String maxP95 = System.getProperty("dlib.benchmark.maxP95Ms");
+        if (maxP95 != null) {
+            assertTrue("The p95 " + p95 + " ms is slower than " + maxP95 + " ms",
+                       p95 <= Double.parseDouble(maxP95));
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Protected / Private Methods ////////////////////////////////////////////
+
+    private static double getPercentile(double[] sorted,
+                                        double percentile) {
+        // The nearest rank.
+        final int rank = (int) Math.ceil(percentile * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /**
+     * Read the binary PPM (P6) or PGM (P5) image with the max value 255 to a
+     * direct buffer of RGBA_8888 pixels.
+     */
+    private static Image readImage(File file) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            final String magic = readToken(in);
+            final int channels;
+            if ("P6".equals(magic)) {
+                channels = 3;
+            } else if ("P5".equals(magic)) {
+                channels = 1;
+            } else {
+                throw new IOException(file + " isn't a binary PPM or PGM image");
+            }
+            final int width = Integer.parseInt(readToken(in));
+            final int height = Integer.parseInt(readToken(in));
+            if (!"255".equals(readToken(in))) {
+                throw new IOException(file + " isn't in 8 bits per channel");
+            }
+
+            final ByteBuffer rgba = ByteBuffer.allocateDirect(4 * width * height);
+            final byte[] pixel = new byte[channels];
+            for (int i = 0; i < width * height; ++i) {
+                for (int c = 0; c < channels; ++c) {
+                    final int value = in.read();
+                    if (value < 0) throw new IOException(file + " is truncated");
+                    pixel[c] = (byte) value;
+                }
+
+                rgba.put(pixel[0]);
+                rgba.put(pixel[channels > 1 ? 1 : 0]);
+                rgba.put(pixel[channels > 1 ? 2 : 0]);
+                rgba.put((byte) 0xFF);
+            }
+            rgba.rewind();
+
+            return new Image(file.getName(), width, height, rgba);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the next whitespace-separated token of the header, skipping the
+     * comments. The single whitespace after the last token is consumed.
+     */
+    private static String readToken(InputStream in) throws IOException {
+        final StringBuilder token = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '#') {
+                while ((c = in.read()) >= 0 && c != '\n') {
+                    // Skip the comment.
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (token.length() > 0) break;
+            } else {
+                token.append((char) c);
+            }
+        }
+
+        return token.toString();
+    }
+}
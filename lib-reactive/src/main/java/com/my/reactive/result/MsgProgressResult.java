@@ -26,7 +26,7 @@ public class MsgProgressResult extends ProgressResult {
 
     public static MsgProgressResult inProgress(String msg,
                                                int progress) {
-        return new MsgProgressResult(true, false, msg, 0, null);
+        return new MsgProgressResult(true, false, msg, progress, null);
     }
 
     public static MsgProgressResult succeed(String msg) {